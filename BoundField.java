@@ -7,6 +7,7 @@ public class BoundField extends GeneralEMField{
 	*/	
 	protected double xBounds, yBounds, zBounds;
 	protected GeneralEMField otherField;
+	private final ThreadLocal<double[]> mask = ThreadLocal.withInitial(() -> new double[0]); // each thread's in-bounds weights of a slice
 	
 	/**
  	*  Constructor with four inputs - the field and where its bound in all 3 spacial dimensions
@@ -148,43 +149,77 @@ public class BoundField extends GeneralEMField{
 	}
  	
  	/**
- 	* Returns the acceleration experienced by a charged particle according to the Lorentz force law (non-relativistic)
-	* if the particle is in range of the bound field
+ 	* Adds the acceleration of the wrapped field to an existing vector
+	* if the particle is in range of the bound field, otherwise adds nothing
  	* @param theParticle - the charged particle moving in the field
  	* @param t - time
-	* @return the acceleration calculated from (qE + vXB / m) if in range
-	* @return 0 if out of range
+	* @param velocity - the velocity of the particle
+	* @param scale - factor multiplying the acceleration
+	* @param out - the vector the scaled acceleration is added to
  	*/
- 	public PhysicsVector getAcceleration(ChargedParticle theParticle, double t)
+	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
  	{
- 		if(theParticle.getPosition().getY() <= yBounds && theParticle.getPosition().getY() >= -yBounds && theParticle.getPosition().getX() <= xBounds && theParticle.getPosition().getX() >= -xBounds)
+ 		double x = theParticle.position.getX();
+ 		double y = theParticle.position.getY();
+ 		if(y <= yBounds && y >= -yBounds && x <= xBounds && x >= -xBounds)
  		{
-			return otherField.getAcceleration(theParticle, t);
-		}else{
-			return new PhysicsVector();
+			otherField.addAcceleration(theParticle, t, velocity, scale, out);
 		}
  	}
 	
-	
 	/**
- 	* Returns the acceleration experienced by a charged particle according to the Lorentz force law (non-relativistic)
-	* if the particle is in range of the bound field
+ 	* Adds the fields of the wrapped field to existing vectors
+	* if the particle is in range of the bound field, otherwise adds nothing
  	* @param theParticle - the charged particle moving in the field
  	* @param t - time
-	* @param velocity - the velocity of the particle
-	* @return the acceleration calculated from (qE + vXB / m) if in range
-	* @return 0 if out of range
+	* @param scale - factor multiplying both fields
+	* @param electricOut - the vector the scaled electric field strength is added to
+	* @param magneticOut - the vector the scaled magnetic flux density is added to
  	*/
-	public PhysicsVector getAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity)
+	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
  	{
- 		if(theParticle.getPosition().getY() <= yBounds && theParticle.getPosition().getY() >= -yBounds && theParticle.getPosition().getX() <= xBounds && theParticle.getPosition().getX() >= -xBounds)
+ 		double x = theParticle.position.getX();
+ 		double y = theParticle.position.getY();
+ 		if(y <= yBounds && y >= -yBounds && x <= xBounds && x >= -xBounds)
  		{
-			return otherField.getAcceleration(theParticle, t, velocity);
-		}else{
-			return new PhysicsVector();
+			otherField.addFields(theParticle, t, scale, electricOut, magneticOut);
 		}
  	}
 	
+	/**
+ 	* Adds the accelerations of the wrapped field for a slice of particles.
+ 	* The bound test is done once per particle into a mask which is handed to the wrapped field
+ 	* as the weight, so the wrapped field still evaluates the slice in one call.
+ 	*/
+	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+ 		double[] mass, double[] charge, double t, double scale, double[] weight,
+ 		double[] ax, double[] ay, double[] az, int from, int to)
+ 	{
+ 		double[] mask = this.mask.get();
+ 		if(mask.length < to-from){
+ 			mask = new double[to-from];
+ 			this.mask.set(mask);
+ 		}
+ 		boolean any = false;
+ 		for (int i=from; i<to; i++){
+ 			if(y[i] <= yBounds && y[i] >= -yBounds && x[i] <= xBounds && x[i] >= -xBounds){
+ 				mask[i-from] = (weight == null) ? 1.0 : weight[i-from];
+ 				any = true;
+ 			}
+ 			else{
+ 				mask[i-from] = 0.0;
+ 			}
+ 		}
+ 		if(any){
+ 			otherField.addAccelerations(x, y, z, vx, vy, vz, mass, charge, t, scale, mask, ax, ay, az, from, to);
+ 		}
+ 	}
 	
-	
-}
\ No newline at end of file
+	/**
+ 	* Lets the wrapped field update itself from the bunch before a step
+ 	*/
+	public void prepare(BunchArrays bunch, double t)
+	{
+		otherField.prepare(bunch, t);
+	}
+}
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
 /**
 * A Class to represent a bunch of particles.
 * This is a generic class of Particle objects
@@ -11,6 +13,12 @@ public  class Bunch <T extends Particle> implements Iterable{
 	
 	private ArrayList<T> particles; // the class of particles in the bunch
 	private char rDist='U'; // the random distribution to use for generating random vectors, etc
+	private SobolSequence sobol; // the points of the bunch when quasi-random, one per particle (null => random)
+	private long seed=new SplittableRandom().nextLong(); // seed of the random numbers, each particle draws from its own stream
+	private static final long POSITION=1, VELOCITY=2; // which quantity a stream of random numbers is drawn for
+	private int version=0; // changed whenever the particles may have changed
+	private int statsVersion=0; // the version the cached statistics were gathered at
+	private BunchStatistics stats; // cached statistics of the bunch
 	
 	/**
 	* Constructor for the Bunch of Particles
@@ -28,7 +36,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	*/
 	public void addParticle(T particle){
 		particles.add(particle);
-		
+		version++;
 	}
 	
 	/**
@@ -37,6 +45,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	*/
     @Override
     public Iterator<T> iterator() {
+        version++; // the particles may be changed through the iterator
         return particles.iterator();
     }
     
@@ -49,6 +58,35 @@ public  class Bunch <T extends Particle> implements Iterable{
 		this.rDist=rDist;
 	}
 	
+	/**
+	* set the seed of the random numbers, so the same particles are generated again for the same seed
+	* @param seed the seed
+	*/
+	public void setSeed(long seed){
+		this.seed=seed;
+		if(sobol != null){
+			sobol=new SobolSequence(7, seed);
+		}
+	}
+	
+	/**
+	* set whether the numbers are quasi-random: each particle takes the coordinates of its own point of a scrambled
+	* Sobol sequence, whose points fill the distribution far more evenly than random ones, so the statistics of the
+	* bunch settle with far fewer particles. The points are scrambled with the seed.
+	* @param quasiRandom true for a Sobol sequence, false for random streams
+	*/
+	public void setQuasiRandom(boolean quasiRandom){
+		this.sobol=quasiRandom ? new SobolSequence(7, seed) : null;
+	}
+	
+	/**
+	* get the seed of the random numbers
+	* @return the seed
+	*/
+	public long getSeed(){
+		return this.seed;
+	}
+	
 	/**
 	* get the distribution from which random numbers are drawn
 	* @return the distribution being used ('U' => uniform, 'G' => Gaussian)
@@ -58,31 +96,65 @@ public  class Bunch <T extends Particle> implements Iterable{
 	}
 	
 	/**
-	* setPosition
+	* setPosition.
+	* Each particle draws from its own stream of random numbers, picked by the seed and the particle's index,
+	* so the particles are set in parallel and are the same for a given seed however many threads set them.
 	* @param positionIn the nominal position of the bunch
 	* @param spreadIn the spread around the nominal position of the bunch
 	*/
 	public void setPosition(PhysicsVector positionIn, PhysicsVector spreadIn){
-		for (T aParticle : this.particles){
-			aParticle.setPosition(randomVector3D(positionIn,spreadIn,rDist));
-		}
+		IntStream.range(0, particles.size()).parallel().forEach(i -> {
+			RandomGenerator random = stream(i, POSITION);
+			particles.get(i).setPosition(randomVector3D(positionIn,spreadIn,rDist,random));
+		});
+		version++;
 	}
 	
 	
 	/**
-	* setVelocity
+	* setVelocity.
+	* Each particle draws from its own stream of random numbers, as in setPosition.
 	* @param velocityIn the nominal velocity direction of the bunch
 	* @param spreadIn the relative spread in the direction of the bunch
 	* @param energy the nominal energy of the bunch
 	* @param energySpread the absolute spread in the energy
 	*/
 	public void setVelocity(PhysicsVector velocityIn, PhysicsVector spreadIn, double energy, double energySpread){
-		
-		for (T aParticle : this.particles){
-			double speed = Math.sqrt(2.0*randomScalar(energy,energySpread,rDist)/aParticle.getMass());
-			PhysicsVector velocity = PhysicsVector.scale(speed,randomVector3D((velocityIn.getUnitVector()),spreadIn,rDist));
+		PhysicsVector direction = velocityIn.getUnitVector();
+		IntStream.range(0, particles.size()).parallel().forEach(i -> {
+			RandomGenerator random = stream(i, VELOCITY);
+			T aParticle = particles.get(i);
+			double speed = Math.sqrt(2.0*randomScalar(energy,energySpread,rDist,random)/aParticle.getMass());
+			PhysicsVector velocity = PhysicsVector.scale(speed,randomVector3D(direction,spreadIn,rDist,random));
 			aParticle.setVelocity(velocity);
+		});
+		version++;
+	}
+	
+	/**
+	* Return the stream of random numbers of one particle for one quantity.
+	* The seed, index and quantity are hashed into the seed of the stream, so the streams of different particles
+	* start far apart rather than as shifted copies of one another.
+	* When quasi-random, the stream is instead the particle's Sobol point: coordinates 0 to 2 for the position
+	* and 3 to 6 for the velocity (the energy, then the direction).
+	* @param index the index of the particle
+	* @param quantity POSITION or VELOCITY
+	* @return the random number generator of the stream
+	*/
+	private RandomGenerator stream(int index, long quantity){
+		if(sobol != null){
+			return sobol.point(index, (quantity == POSITION) ? 0 : 3);
 		}
+		return new SplittableRandom(mix(mix(seed + quantity*0x9E3779B97F4A7C15L) + index));
+	}
+	
+	/**
+	* Scramble the bits of a number (the finaliser of the 64 bit MurmurHash3)
+	*/
+	private static long mix(long z){
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
 	}
 	
 	/** 
@@ -90,10 +162,11 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* A vector of random numbers uniformally distributed along the line average +/- spread  
 	* @param average the centre of the line segment from which the random vectors are drawn
 	* @param spread half the line segment length
+	* @param random the random number generator to draw from
 	* @return the random vector.
 	*/
-	private PhysicsVector randomVector(PhysicsVector average, PhysicsVector spread){
-		return PhysicsVector.add(average,PhysicsVector.scale(randomScalar(0.0,1.0), spread));
+	private PhysicsVector randomVector(PhysicsVector average, PhysicsVector spread, RandomGenerator random){
+		return PhysicsVector.add(average,PhysicsVector.scale(randomScalar(0.0,1.0,random), spread));
 	}
 	
 	
@@ -102,14 +175,15 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @param average mean of the distribution from which the vector is to be drawn
 	* @param spread the spread of the distribution from which the vector is to be drawn
 	* @param dist 'U' => uniform distribution, 'G' => Gaussian distribution, return 0 otherwise
+	* @param random the random number generator to draw from
 	* @return the random vector.
 	*/
-	private PhysicsVector randomVector3D(PhysicsVector average, PhysicsVector spread, char dist){
+	private PhysicsVector randomVector3D(PhysicsVector average, PhysicsVector spread, char dist, RandomGenerator random){
 		if (dist=='U'){	
-			return randomVector3D(average, spread);
+			return randomVector3D(average, spread, random);
 		}
 		else if(dist=='G'){
-			return randomGVector3D(average, spread);
+			return randomGVector3D(average, spread, random);
 		}
 		else{
 			return new PhysicsVector();
@@ -122,24 +196,26 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* A vector of random numbers distributed between average +/- spread  
 	* @param average the centre of the cube from which the random vectors are drawn
 	* @param spread half the cube edge length
+	* @param random the random number generator to draw from
 	* @return the random vector.
 	*/
-	private PhysicsVector randomVector3D(PhysicsVector average, PhysicsVector spread){
-		return new PhysicsVector(randomScalar(average.getX(),spread.getX()),
-			randomScalar(average.getY(),spread.getY()),
-			randomScalar(average.getZ(),spread.getZ()));
+	private PhysicsVector randomVector3D(PhysicsVector average, PhysicsVector spread, RandomGenerator random){
+		return new PhysicsVector(randomScalar(average.getX(),spread.getX(),random),
+			randomScalar(average.getY(),spread.getY(),random),
+			randomScalar(average.getZ(),spread.getZ(),random));
 	}
 	
 	/** 
 	* Return a random vector with a specified average and s.d. with a Gaussian distribution  
 	* @param average the mean of the 3d Gaussian distribution
 	* @param sd the standard deviation of the 3d Gaussian distribution
+	* @param random the random number generator to draw from
 	* @return the random vector.
 	*/
-	private PhysicsVector randomGVector3D(PhysicsVector average, PhysicsVector spread){
-		return new PhysicsVector(randomScalar(average.getX(),spread.getX(),'G'),
-			randomScalar(average.getY(),spread.getY(),'G'),
-			randomScalar(average.getZ(),spread.getZ(),'G'));
+	private PhysicsVector randomGVector3D(PhysicsVector average, PhysicsVector spread, RandomGenerator random){
+		return new PhysicsVector(randomScalar(average.getX(),spread.getX(),'G',random),
+			randomScalar(average.getY(),spread.getY(),'G',random),
+			randomScalar(average.getZ(),spread.getZ(),'G',random));
 	}
 	
 	/** 
@@ -147,10 +223,11 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* I.e. the number is drawn from a uniform distribution with minimum and maximum values(av+/- spread)
 	* @param average the centre of the uniform distribution from which the random number is drawn 
 	* @param spread the half spread of the uniform distribution from which the random number is drawn
+	* @param random the random number generator to draw from
 	* @return the random scalar.
 	*/
-	private double randomScalar(double average, double spread){
-		return average+(2*Math.random()-1.0)*spread;
+	private double randomScalar(double average, double spread, RandomGenerator random){
+		return average+(2*random.nextDouble()-1.0)*spread;
 	}
 	
 	/** 
@@ -158,12 +235,11 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* The number is drawn from a Gaussian distribution.
 	* @param average the centre of the Gaussian distribution from which the random number is drawn 
 	* @param sd the standard deviation of the Gaussian distribution
+	* @param random the random number generator to draw from
 	* @return the random scalar.
 	*/
-	private double randomGScalar(double average, double sd){
-		Random aRandom = new Random();
-		return average+aRandom.nextGaussian()*sd;
-		
+	private double randomGScalar(double average, double sd, RandomGenerator random){
+		return average+random.nextGaussian()*sd;
 	}
 	
 	/** 
@@ -171,14 +247,15 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @param average the centre of the distribution from which the random number is drawn 
 	* @param spread the half spread of the distribution from which the random number is drawn
 	* @param dist the distribution to use 'U' => uniform, and 'G' => Gaussian (return 0 otherwise)
+	* @param random the random number generator to draw from
 	* @return the random scalar.
 	*/
-	private double randomScalar(double average, double spread, char dist){
+	private double randomScalar(double average, double spread, char dist, RandomGenerator random){
 		if (dist=='U'){
-			return randomScalar(average, spread);
+			return randomScalar(average, spread, random);
 		}
 		else if (dist=='G'){
-			return randomGScalar(average, spread);
+			return randomGScalar(average, spread, random);
 		}
 		else{
 			return 0;
@@ -186,16 +263,40 @@ public  class Bunch <T extends Particle> implements Iterable{
 	}
 	
 	
+	/**
+	* Record that the particles may have changed, so the statistics must be recomputed.
+	* Needed only when particles are changed through references kept from before the last call to iterator().
+	*/
+	public void markModified(){
+		version++;
+	}
+	
+	/** 
+	* Return the statistics of the bunch, gathered in one pass over the particles.
+	* The result is kept and reused until the bunch is changed.
+	* @return the statistics of the particles in the bunch.
+	*/
+	public BunchStatistics getStatistics(){
+		if (stats == null || statsVersion != version){
+			if (stats == null) stats = new BunchStatistics();
+			stats.clear();
+			for (T aParticle : this.particles){
+				PhysicsVector position = aParticle.position;
+				PhysicsVector velocity = aParticle.velocity;
+				stats.add(position.getX(), position.getY(), position.getZ(),
+					velocity.getX(), velocity.getY(), velocity.getZ(), aParticle.getKE());
+			}
+			statsVersion = version;
+		}
+		return stats;
+	}
+	
 	/** 
 	* Find the average position of the particles in the bunch.
 	* @return the average position of particles in the bunch.
 	*/
 	public PhysicsVector getPosition(){
-		PhysicsVector position = new PhysicsVector();
-		for (T aParticle : this.particles){
-			position.increaseBy(aParticle.getPosition());
-		}
-		return PhysicsVector.scale(1.0/this.particles.size(),position);
+		return getStatistics().getPosition();
 	}
 	
 	
@@ -204,11 +305,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @return the average velocity of particles in the bunch.
 	*/
 	public PhysicsVector getVelocity(){
-		PhysicsVector velocity = new PhysicsVector();
-		for (T aParticle : this.particles){
-			velocity.increaseBy(aParticle.getVelocity());
-		}
-		return PhysicsVector.scale(1.0/this.particles.size(),velocity);
+		return getStatistics().getVelocity();
 	}
 	
 	/** 
@@ -216,43 +313,23 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @return the total kinetic energy of the bunch in J.
 	*/
 	public double getTotalKE(){
-		double kinE=0.0;
-		for (T aParticle : this.particles){
-			kinE+=aParticle.getKE();
-		}
-		return kinE;
+		return getStatistics().getTotalKE();
 	}
 	
+	/** 
+	* Find the average kinetic energy of the particles in the bunch
+	* @return the average kinetic energy in J.
+	*/
 	public double getAvgKE(){
-		double kinE=0.0;
-		double numParticles = 0;
-		for (T aParticle : this.particles){
-			kinE+=aParticle.getKE();
-			numParticles = numParticles+1;
-		}
-		return (kinE/numParticles);
+		return getStatistics().getAvgKE();
 	}
+	
+	/** 
+	* Find the largest deviation of a particle's kinetic energy from the average
+	* @return the spread in kinetic energy in J.
+	*/
 	public double getSpreadKE(){
-		double kinE=0.0;
-		double numParticles = 0;
-		double avgKe = 0;
-		double highest = 0;
-		double newHighest = 0;
-		for (T aParticle : this.particles){
-			kinE+=aParticle.getKE();
-			numParticles = numParticles + 1;
-		}
-		avgKe = kinE/numParticles;
-		for (T aParticle : this.particles){
-			newHighest = Math.abs(aParticle.getKE() - avgKe);		
-			if(newHighest>highest){
-				highest = newHighest;
-			}
-		}
-		
-		
-		
-		return newHighest;
+		return getStatistics().getSpreadKE();
 	}
 	
 	/** 
@@ -260,17 +337,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @return the standard deviation in x, y and z.
 	*/
 	public PhysicsVector getSpreadSD(){
-		PhysicsVector average = new PhysicsVector(); 
-	 	PhysicsVector sqAverage = new PhysicsVector();
-	 	for (T aParticle: this.particles){
-	 		PhysicsVector position=aParticle.getPosition();
-	 		average.increaseBy(position);
-	 		sqAverage.increaseBy(PhysicsVector.multiply(position,position));
-	 	}
-	 	average.scale(1.0/this.particles.size());
-	 	sqAverage.scale(1.0/this.particles.size());
-	 	PhysicsVector variance=PhysicsVector.subtract(sqAverage,PhysicsVector.multiply(average,average));
-	 	return new PhysicsVector(Math.sqrt(variance.getX()), Math.sqrt(variance.getY()), Math.sqrt(variance.getZ()));
+		return getStatistics().getSpreadSD();
 	}
 	
 	/** 
@@ -282,20 +349,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @return the maximum spread in x, y and z.
 	*/
 	public PhysicsVector getFullSpread(){
-		PhysicsVector av = this.getPosition();
-		PhysicsVector max = new PhysicsVector(av);
-		PhysicsVector min = new PhysicsVector(av);
-		for (T aParticle: this.particles){
-			PhysicsVector pos = aParticle.getPosition();
-			if (pos.getX()>max.getX()) max.setX(pos.getX());
-			if (pos.getY()>max.getY()) max.setY(pos.getY());
-			if (pos.getZ()>max.getZ()) max.setZ(pos.getZ());
-			if (pos.getX()<min.getX()) min.setX(pos.getX());
-			if (pos.getY()<min.getY()) min.setY(pos.getY());
-			if (pos.getZ()<min.getZ()) min.setZ(pos.getZ());
-		}
-		
-		return(PhysicsVector.subtract(max,min));
+		return getStatistics().getFullSpread();
 	}
 	
 	/** 
@@ -305,16 +359,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @return the maximum spread in x, y and z.
 	*/
 	public PhysicsVector getSpreadMax(){
-		PhysicsVector average = this.getPosition();
-		PhysicsVector max = new PhysicsVector();
-		for (T aParticle: this.particles){
-			PhysicsVector diff=PhysicsVector.subtract(aParticle.getPosition(),average);
-			if (Math.abs(diff.getX())>Math.abs(max.getX())) max.setX(Math.abs(diff.getX()));
-			if (Math.abs(diff.getY())>Math.abs(max.getY())) max.setY(Math.abs(diff.getY()));
-			if (Math.abs(diff.getZ())>Math.abs(max.getZ())) max.setZ(Math.abs(diff.getZ()));
-		}
-		
-		return(max);
+		return getStatistics().getSpreadMax();
 	}
 	
 	
@@ -325,16 +370,7 @@ public  class Bunch <T extends Particle> implements Iterable{
 	* @return the maximum spread in v_x, v_y and v_z.
 	*/
 	public PhysicsVector getVSpreadMax(){
-		PhysicsVector average = this.getVelocity();
-		PhysicsVector max = new PhysicsVector();
-		for (T aParticle: this.particles){
-			PhysicsVector diff=PhysicsVector.subtract(aParticle.getVelocity(),average);
-			if (Math.abs(diff.getX())>Math.abs(max.getX())) max.setX(Math.abs(diff.getX()));
-			if (Math.abs(diff.getY())>Math.abs(max.getY())) max.setY(Math.abs(diff.getY()));
-			if (Math.abs(diff.getZ())>Math.abs(max.getZ())) max.setZ(Math.abs(diff.getZ()));
-		}
-		
-		return(max);
+		return getStatistics().getVSpreadMax();
 	}
 	
 	/** 
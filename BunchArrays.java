@@ -0,0 +1,346 @@
+import java.util.*;
+/**
+* A Class to represent a bunch of charged particles stored as a structure of arrays, whatever the storage of their
+* positions and velocities. It holds the masses and charges of the particles and the values BunchPusher keeps for
+* each of them, and caches the statistics of the bunch until markModified is called. The phase space is kept by
+* the subclasses: in doubles by ChargedBunch, which is updated in place, and in floats by CompactBunch.
+* BunchPusher loads a block of any bunch into a ChargedBunch with load, pushes it and stores it back, and everything
+* else reads and writes the particles through getState and setState.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public abstract class BunchArrays {
+
+	protected double[] mass; // mass of each particle in kg
+	protected double[] charge; // charge of each particle in C
+	protected double[] stepSize; // step size suggested by the last adaptive update of each particle (0 => not yet set)
+	protected int[] passes; // number of times each particle has left the accelerating gap, counted by BunchPusher
+	protected double[] entryKE; // kinetic energy of each particle when it last entered the gap (or was added) in J
+	protected double[] gapGain; // change in KE of each particle over the passes through the gap it finished in the last step, in J
+	protected double[] heading; // angle the direction of motion of each particle has turned through in the x-y plane, unwrapped, in rad
+	protected int size; // number of particles in the bunch
+
+	private int version = 0; // changed whenever the particles have changed
+	private int statsVersion = 0; // the version the cached statistics were gathered at
+	private BunchStatistics stats; // cached statistics of the bunch
+
+	/**
+	* Constructor for an empty bunch with room for a given number of particles
+	* @param capacity the number of particles the bunch can hold before it has to grow
+	*/
+	public BunchArrays(int capacity){
+		mass = new double[capacity];
+		charge = new double[capacity];
+		stepSize = new double[capacity];
+		passes = new int[capacity];
+		entryKE = new double[capacity];
+		gapGain = new double[capacity];
+		heading = new double[capacity];
+		size = 0;
+	}
+
+	/**
+	* add a particle to the bunch of particles
+	* @param particle the particle whose mass, charge, position and velocity are copied into the bunch
+	*/
+	public void addParticle(ChargedParticle particle){
+		if(size == mass.length){
+			grow(Math.max(16, 2*size));
+		}
+		mass[size] = particle.getMass();
+		charge[size] = particle.getCharge();
+		setParticle(size++, particle);
+		entryKE[size-1] = getKE(size-1);
+		markModified();
+	}
+
+	/**
+	* Enlarge the arrays so that they can hold a given number of particles
+	* @param capacity the new number of particles the arrays can hold
+	*/
+	private void grow(int capacity){
+		growPhaseSpace(capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		charge = Arrays.copyOf(charge, capacity);
+		stepSize = Arrays.copyOf(stepSize, capacity);
+		passes = Arrays.copyOf(passes, capacity);
+		entryKE = Arrays.copyOf(entryKE, capacity);
+		gapGain = Arrays.copyOf(gapGain, capacity);
+		heading = Arrays.copyOf(heading, capacity);
+	}
+
+	/**
+	* Enlarge the arrays of the positions and velocities
+	* @param capacity the new number of particles the arrays can hold
+	*/
+	protected abstract void growPhaseSpace(int capacity);
+
+	/**
+	* Return the number of particles in the bunch
+	* @return number of particles
+	*/
+	public int size(){
+		return size;
+	}
+
+	/**
+	* Return a copy of a particle in the bunch
+	* @param i the index of the particle
+	* @return a new charged particle with the mass, charge, position and velocity of particle i
+	*/
+	public ChargedParticle getParticle(int i){
+		return getParticle(i, new ChargedParticle());
+	}
+
+	/**
+	* Copy a particle in the bunch into an existing charged particle without allocating.
+	* Used to evaluate fields which need a ChargedParticle at the position of particle i.
+	* @param i the index of the particle
+	* @param particle the charged particle to overwrite
+	* @return the overwritten particle
+	*/
+	public abstract ChargedParticle getParticle(int i, ChargedParticle particle);
+
+	/**
+	* Set the position and velocity of a particle in the bunch from a charged particle.
+	* Like the other per-particle updates it does not call markModified.
+	* @param i the index of the particle
+	* @param particle the particle whose position and velocity are copied
+	*/
+	public abstract void setParticle(int i, ChargedParticle particle);
+
+	/**
+	* Copy the position and velocity of a particle into an array
+	* @param i the index of the particle
+	* @param state array of length 6 filled with {x, y, z, vx, vy, vz}
+	*/
+	public abstract void getState(int i, double[] state);
+
+	/**
+	* Set the position and velocity of a particle from an array
+	* @param i the index of the particle
+	* @param state array of length 6 holding {x, y, z, vx, vy, vz}
+	*/
+	public abstract void setState(int i, double[] state);
+
+	/**
+	* Return the kinetic energy of a particle in the bunch
+	* @param i the index of the particle
+	* @return the kinetic energy in J
+	*/
+	public abstract double getKE(int i);
+
+	/**
+	* Copy a block of the particles into a bunch of doubles, which is pushed in place of them
+	* @param from the index of the first particle of the block
+	* @param to one past the index of the last particle of the block
+	* @param block the bunch the particles are copied to, from index 0, with room for them all
+	*/
+	public abstract void load(int from, int to, ChargedBunch block);
+
+	/**
+	* Copy a block of particles back from the bunch of doubles it was pushed in
+	* @param from the index of the first particle of the block
+	* @param to one past the index of the last particle of the block
+	* @param block the bunch the block was loaded into
+	*/
+	public abstract void store(int from, int to, ChargedBunch block);
+
+	/**
+	* Copy the values BunchPusher keeps for a block of particles into a bunch of doubles, from index 0
+	*/
+	protected void loadValues(int from, int to, ChargedBunch block){
+		int n = to - from;
+		System.arraycopy(mass, from, block.mass, 0, n);
+		System.arraycopy(charge, from, block.charge, 0, n);
+		System.arraycopy(stepSize, from, block.stepSize, 0, n);
+		System.arraycopy(passes, from, block.passes, 0, n);
+		System.arraycopy(entryKE, from, block.entryKE, 0, n);
+		System.arraycopy(heading, from, block.heading, 0, n);
+		block.size = n;
+	}
+
+	/**
+	* Copy the values BunchPusher keeps for a block of particles back from the bunch of doubles it was pushed in
+	*/
+	protected void storeValues(int from, int to, ChargedBunch block){
+		int n = to - from;
+		System.arraycopy(block.stepSize, 0, stepSize, from, n);
+		System.arraycopy(block.passes, 0, passes, from, n);
+		System.arraycopy(block.entryKE, 0, entryKE, from, n);
+		System.arraycopy(block.gapGain, 0, gapGain, from, n);
+		System.arraycopy(block.heading, 0, heading, from, n);
+	}
+
+	/**
+	* Return the number of times a particle has left the accelerating gap
+	* @param i the index of the particle
+	* @return the number of passes through the gap
+	*/
+	public int getPasses(int i){
+		return passes[i];
+	}
+
+	/**
+	* Return the number of turns a particle has made, counted by BunchPusher from the turning of its velocity
+	* @param i the index of the particle
+	* @return the number of turns, including the fraction of the current one
+	*/
+	public double getTurns(int i){
+		return Math.abs(heading[i])/(2.0*Math.PI);
+	}
+
+	/**
+	* Update the position and velocity of particle i using the adaptive Dormand-Prince 5(4) method.
+	* Each particle keeps its own step size, so particles away from the gap take large steps.
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	* @param fields The fields in the simulation
+	* @param time the time
+	* @param integrator the integrator holding the tolerances and scratch space
+	* @param state scratch array of length 6 for the particle's position and velocity
+	*/
+	public void dormandPrince(int i, double deltaTime, ArrayList<GeneralEMField> fields, double time,
+			DormandPrince integrator, double[] state){
+		getState(i, state);
+		stepSize[i] = integrator.advance(state, mass[i], charge[i], fields, time, deltaTime, stepSize[i]);
+		setState(i, state);
+	}
+
+	/**
+	* Record that the particles have changed, so the statistics must be recomputed.
+	* The per-particle update methods do not do this themselves, so that threads pushing
+	* different slices do not all write to one counter; call it once the whole bunch has
+	* been updated (BunchPusher does so after every step).
+	*/
+	public void markModified(){
+		version++;
+	}
+
+	/**
+	* Return a number which changes whenever markModified is called, so a caller can tell whether the particles
+	* have changed since it last looked at them
+	* @return the version of the bunch
+	*/
+	public int getVersion(){
+		return version;
+	}
+
+	/**
+	* Return the statistics of the bunch, gathered in one pass over the arrays.
+	* The result is kept and reused until the bunch is changed.
+	* @return the statistics of the particles in the bunch.
+	*/
+	public BunchStatistics getStatistics(){
+		if(stats == null || statsVersion != version){
+			if(stats == null) stats = new BunchStatistics();
+			stats.clear();
+			gather(stats);
+			statsVersion = version;
+		}
+		return stats;
+	}
+
+	/**
+	* Add every particle of the bunch to a set of statistics
+	* @param stats the statistics to add to
+	*/
+	protected abstract void gather(BunchStatistics stats);
+
+	/**
+	* Find the average position of the particles in the bunch.
+	* @return the average position of particles in the bunch.
+	*/
+	public PhysicsVector getPosition(){
+		return getStatistics().getPosition();
+	}
+
+	/**
+	* Find the average velocity of the particles in the bunch.
+	* @return the average velocity of particles in the bunch.
+	*/
+	public PhysicsVector getVelocity(){
+		return getStatistics().getVelocity();
+	}
+
+	/**
+	* Find the total kinetic energy of the bunch
+	* @return the total kinetic energy of the bunch in J.
+	*/
+	public double getTotalKE(){
+		return getStatistics().getTotalKE();
+	}
+
+	/**
+	* Find the average kinetic energy of the particles in the bunch
+	* @return the average kinetic energy in J.
+	*/
+	public double getAvgKE(){
+		return getStatistics().getAvgKE();
+	}
+
+	/**
+	* Find the largest deviation of a particle's kinetic energy from the average
+	* @return the spread in kinetic energy in J.
+	*/
+	public double getSpreadKE(){
+		return getStatistics().getSpreadKE();
+	}
+
+	/**
+	* Find the standard deviation of the bunch distribution in x, y and z.
+	* @return the standard deviation in x, y and z.
+	*/
+	public PhysicsVector getSpreadSD(){
+		return getStatistics().getSpreadSD();
+	}
+
+	/**
+	* Find the full spread (maximum - minimum position) of the bunch in x, y and z
+	* @return the full spread in x, y and z.
+	*/
+	public PhysicsVector getFullSpread(){
+		return getStatistics().getFullSpread();
+	}
+
+	/**
+	* Find the furthest distance of a particle from the average position of the bunch in x, y and z
+	* @return the maximum spread in x, y and z.
+	*/
+	public PhysicsVector getSpreadMax(){
+		return getStatistics().getSpreadMax();
+	}
+
+	/**
+	* Find the furthest deviation of a particle's velocity from the average velocity in v_x, v_y and v_z
+	* @return the maximum spread in v_x, v_y and v_z.
+	*/
+	public PhysicsVector getVSpreadMax(){
+		return getStatistics().getVSpreadMax();
+	}
+
+	/**
+	* Create a string containing the number of particles, the average position and velocity and the spreads of the bunch.
+	* @return string describing the bunch
+	*/
+	@Override
+	public String toString()
+	{
+		return String.format(
+			"Number of particles: %d \n"+
+			"Bunch position (m):                 %s \n"+
+			"Bunch velocity (m/s):               %s \n"+
+			"Bunch spread (sd in m):             %s\n"+
+			"Bunch spread (max in m):            %s\n"+
+			"Bunch spread (full in m):           %s\n"+
+			"Bunch v spread (max in m/s):        %s\n",
+			size,
+			(getPosition().formatString()),
+			(getVelocity().formatString()),
+			(getSpreadSD().formatString()),
+			(getSpreadMax().formatString()),
+			(getFullSpread().formatString()),
+			(getVSpreadMax().formatString()));
+	}
+}
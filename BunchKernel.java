@@ -0,0 +1,167 @@
+/**
+* A Class holding the arithmetic of a push over a slice of primitive arrays: the Lorentz acceleration of the
+* fused fields with their bounds, the Euler and Euler-Cromer updates and the stages of Runge-Kutta 4.
+* When the jdk.incubator.vector module is present (run with --add-modules jdk.incubator.vector) each call is
+* handed to VectorBunchKernel, which works on as many particles per instruction as the hardware allows;
+* otherwise, or with -Dcyclotron.vector=false, the plain loops here are used.
+* Both do the same operations in the same order, so the results are identical either way.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public final class BunchKernel {
+
+	private static final boolean VECTOR = vectorAvailable(); // true to hand the work to VectorBunchKernel
+
+	private BunchKernel(){
+	}
+
+	private static boolean vectorAvailable(){
+		if(!Boolean.parseBoolean(System.getProperty("cyclotron.vector", "true"))){
+			return false;
+		}
+		if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+			return false;
+		}
+		try {
+			return VectorBunchKernel.lanes() > 1;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	* Return whether the kernels run on the Vector API
+	* @return true if the Vector API is used, false for the scalar loops
+	*/
+	public static boolean isVectorised(){
+		return VECTOR;
+	}
+
+	/**
+	* Return the number of particles handled per instruction
+	* @return the number of double lanes of a vector (1 => scalar)
+	*/
+	public static int lanes(){
+		return VECTOR ? VectorBunchKernel.lanes() : 1;
+	}
+
+	/**
+	* Add the scaled Lorentz acceleration of uniform fields, some of them bounded in x and y and multiplied
+	* by a time factor, for every particle of a slice. A bounded term acts on a particle only while |x| and |y|
+	* are within its bounds (the gap of the cyclotron).
+	* @param x, y the position components of the particles
+	* @param vx, vy, vz the velocity components of the particles
+	* @param mass, charge the mass and charge of each particle
+	* @param scale factor multiplying every acceleration
+	* @param weight factor multiplying the acceleration of each particle in the slice (null => 1)
+	* @param constantE, constantB the sum of the unbounded fields {x, y, z}
+	* @param factors the time factor of each bounded term
+	* @param termE, termB E and B of each bounded term, three components per term
+	* @param xBounds, yBounds the bounds of each term
+	* @param ax, ay, az the acceleration components the accelerations are added to
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	*/
+	public static void lorentz(double[] x, double[] y, double[] vx, double[] vy, double[] vz, double[] mass, double[] charge,
+		double scale, double[] weight, double[] constantE, double[] constantB, double[] factors, double[] termE, double[] termB,
+		double[] xBounds, double[] yBounds, double[] ax, double[] ay, double[] az, int from, int to)
+	{
+		int done = from;
+		if(VECTOR){
+			done = VectorBunchKernel.lorentz(x, y, vx, vy, vz, mass, charge, scale, weight, constantE, constantB,
+				factors, termE, termB, xBounds, yBounds, ax, ay, az, from, to);
+		}
+		lorentzScalar(x, y, vx, vy, vz, mass, charge, scale, weight, constantE, constantB, factors, termE, termB,
+			xBounds, yBounds, ax, ay, az, from, done, to);
+	}
+
+	/**
+	* The scalar loop of lorentz, for the particles from first to the end of the slice
+	* @param from the index of the first particle of the slice, which weight is indexed from
+	* @param first the index of the first particle to update
+	*/
+	private static void lorentzScalar(double[] x, double[] y, double[] vx, double[] vy, double[] vz, double[] mass, double[] charge,
+		double scale, double[] weight, double[] constantE, double[] constantB, double[] factors, double[] termE, double[] termB,
+		double[] xBounds, double[] yBounds, double[] ax, double[] ay, double[] az, int from, int first, int to)
+	{
+		for (int i=first; i<to; i++){
+			double absX = Math.abs(x[i]), absY = Math.abs(y[i]);
+			double ex = constantE[0], ey = constantE[1], ez = constantE[2];
+			double bx = constantB[0], by = constantB[1], bz = constantB[2];
+			for (int k=0; k<factors.length; k++){
+				double w = (absX <= xBounds[k] & absY <= yBounds[k]) ? factors[k] : 0.0;
+				ex += w*termE[3*k];
+				ey += w*termE[3*k+1];
+				ez += w*termE[3*k+2];
+				bx += w*termB[3*k];
+				by += w*termB[3*k+1];
+				bz += w*termB[3*k+2];
+			}
+			double qOverM = ((weight == null) ? scale : scale*weight[i-from])*charge[i]/mass[i];
+			ax[i] += qOverM*(ex + (vy[i]*bz - vz[i]*by)); // E + v cross B
+			ay[i] += qOverM*(ey + (vz[i]*bx - vx[i]*bz));
+			az[i] += qOverM*(ez + (vx[i]*by - vy[i]*bx));
+		}
+	}
+
+	/**
+	* Update a slice with the Euler method and the stored accelerations: s = ut + 1/2 at**2, v = u + at
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	*/
+	public static void euler(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] ax, double[] ay, double[] az, double deltaTime, int from, int to)
+	{
+		if(VECTOR){
+			from = VectorBunchKernel.euler(x, y, z, vx, vy, vz, ax, ay, az, deltaTime, from, to);
+		}
+		double half = 0.5*deltaTime*deltaTime;
+		for (int i=from; i<to; i++){
+			x[i] += deltaTime*vx[i]; // old position + ut
+			y[i] += deltaTime*vy[i];
+			z[i] += deltaTime*vz[i];
+			x[i] += half*ax[i]; // + 1/2 at**2
+			y[i] += half*ay[i];
+			z[i] += half*az[i];
+			vx[i] += deltaTime*ax[i]; // v = u + at
+			vy[i] += deltaTime*ay[i];
+			vz[i] += deltaTime*az[i];
+		}
+	}
+
+	/**
+	* Update a slice with the Euler-Cromer method and the stored accelerations: v = u + at, s = vt
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	*/
+	public static void eulerCromer(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] ax, double[] ay, double[] az, double deltaTime, int from, int to)
+	{
+		if(VECTOR){
+			from = VectorBunchKernel.eulerCromer(x, y, z, vx, vy, vz, ax, ay, az, deltaTime, from, to);
+		}
+		for (int i=from; i<to; i++){
+			vx[i] += deltaTime*ax[i]; // v = u + at
+			vy[i] += deltaTime*ay[i];
+			vz[i] += deltaTime*az[i];
+			x[i] += deltaTime*vx[i]; // old position + vt
+			y[i] += deltaTime*vy[i];
+			z[i] += deltaTime*vz[i];
+		}
+	}
+
+	/**
+	* Set out[outFrom+j] = a[aFrom+j] + h*b[bFrom+j] for j from 0 to n-1, the step of each stage of Runge-Kutta 4.
+	* out may be the same array as a or b at the same offset.
+	*/
+	public static void axpy(double[] out, int outFrom, double[] a, int aFrom, double h, double[] b, int bFrom, int n){
+		int j = 0;
+		if(VECTOR){
+			j = VectorBunchKernel.axpy(out, outFrom, a, aFrom, h, b, bFrom, n);
+		}
+		for (; j<n; j++){
+			out[outFrom+j] = a[aFrom+j] + h*b[bFrom+j];
+		}
+	}
+}
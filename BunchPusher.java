@@ -0,0 +1,926 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+/**
+* A Class which pushes every particle of a bunch through one time step.
+* The particles only interact through fields found from the whole bunch between steps (space charge), which give
+* each particle an acceleration at its position then. Each step opens with a kick to the velocity of half a step of
+* the acceleration at the particles' starting positions and, once the update method has integrated the other fields,
+* closes with half a step of the acceleration at their new positions, which also opens the next step (kick-drift-kick),
+* so the field is found once a step. Within the step the particles are independent, so the bunch can be split into slices which are
+* pushed on the threads of a ForkJoinPool. Each particle goes through exactly the
+* same arithmetic as on a single thread, so the parallel result is identical to the serial one.
+* <p>
+* When the edges of the accelerating gap are set with setGap, a particle whose step takes it across
+* an edge (y = +gap or y = -gap) has that step split at the crossing, which is found by root finding
+* on its own trajectory. Each part of the step then sees the field of one side of the edge only,
+* so the kick does not depend on where the steps happen to fall and large steps cannot jump the gap.
+* A separate, shorter step can be set for the motion inside the gap.
+* <p>
+* When the field outside the gap is a uniform magnetic field, set with setDrift, particles outside the gap
+* are not integrated at all: each is rotated along its exact helix to the end of the step or, if it reaches
+* the gap first, to the exact time it enters, and only the motion inside the gap is integrated.
+* <p>
+* With a PoincareSection set, a particle whose step crosses the section plane is recorded at the crossing:
+* a copy of the particle is stepped again from the start of the step by trial fractions of it until the
+* time of the crossing is found, so the recorded state is the one the integrator itself passes through.
+* <p>
+* When turns are counted, the direction of each particle's velocity in the x-y plane is unwrapped as it is
+* pushed, part step by part step. It turns once for each revolution wherever the centre of the orbit is, even
+* for a particle which starts at the centre of the machine; the most and fewest turns of any particle are
+* gathered slice by slice during the push. Each part of a step must turn a particle less than half a turn.
+* <p>
+* A ChargedBunch is pushed in place. Any other bunch, such as a CompactBunch stored in single precision, is pushed
+* a block at a time through a ChargedBunch of doubles kept by each thread, so its particles go through the same
+* arithmetic and only their storage between steps is rounded.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class BunchPusher {
+
+	protected static final int BLOCK = 512; // number of particles the fields and the update sweep together, small enough to stay in cache
+
+	protected ArrayList<GeneralEMField> fields; // the fields acting on the particles
+	protected int method; // 1 is Euler, 2 is Euler-Cromer, 3 is Runge-Kutta 4, 4 is Boris and 5 is Dormand-Prince
+	protected int grainSize = 1024; // number of particles below which a slice is not split further
+	protected double absTol = 1.0e-15, relTol = 1.0e-9; // tolerances of the Dormand-Prince method
+	protected double gap = 0.0; // half-width in y of the accelerating gap whose edges split the steps (0 => steps are not split)
+	protected double gapStep = 0.0; // longest step taken inside the gap (0 => the time step)
+	protected double eventTol = 1.0e-12; // fraction of a step to which the time of a crossing is found
+	protected int maxEvents = 16; // most crossings handled in one step of one particle
+	protected PoincareSection section = null; // the plane particles are recorded crossing (null => none)
+	protected boolean countTurns = false; // true to count each particle's turns as it is pushed
+	protected double[] drift = null; // unit vector and size of the uniform B field outside the gap {bx, by, bz, |B|} (null => integrated)
+	private final LongAdder exits = new LongAdder(); // number of times any particle has left the gap
+	private double gain = 0.0; // sum over those passes of the change in the particle's KE in J, added up in index order after each step
+	private double[] passGain = new double[16]; // the same sum split by pass number, element k holding every particle's k-th pass
+	private int fewest = 0; // fewest passes through the gap made by any particle, as of the last step
+	private double[] kickX = new double[0], kickY = new double[0], kickZ = new double[0]; // the held acceleration of each particle this step
+	private boolean kicked = false; // true if any field gave held accelerations this step
+	private BunchArrays kickBunch = null; // the bunch the held accelerations were found for (null => none)
+	private int kickVersion; // the version of that bunch they were found at
+	private double kickTime; // the time they were found at
+	private final DoubleAccumulator leading = new DoubleAccumulator(Math::max, 0.0); // most turns of any particle after the last step
+	private final DoubleAccumulator trailing = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY); // fewest turns
+	private ForkJoinPool pool; // null when stepping on the calling thread
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new); // the scratch space of each thread, kept between steps
+
+	/**
+	* Constructor for a pusher which steps the bunch on the calling thread
+	* @param fields the fields acting on the particles
+	* @param method the update method (1 => Euler, 2 => Euler-Cromer, 3 => Runge-Kutta 4, 4 => Boris, 5 => Dormand-Prince)
+	*/
+	public BunchPusher(ArrayList<GeneralEMField> fields, int method){
+		this(fields, method, 1);
+	}
+
+	/**
+	* Constructor for a pusher which splits the bunch across a number of threads
+	* @param fields the fields acting on the particles
+	* @param method the update method (1 => Euler, 2 => Euler-Cromer, 3 => Runge-Kutta 4, 4 => Boris, 5 => Dormand-Prince)
+	* @param nThreads the number of threads to push the bunch on (1 => serial)
+	*/
+	public BunchPusher(ArrayList<GeneralEMField> fields, int method, int nThreads){
+		this.fields = fields;
+		this.method = method;
+		if(nThreads > 1){
+			pool = new ForkJoinPool(nThreads);
+		}
+	}
+
+	/**
+	* Set the number of particles below which a slice of the bunch is pushed without splitting
+	* @param grainSize the smallest slice handed to a thread
+	*/
+	public void setGrainSize(int grainSize){
+		this.grainSize = Math.max(1, grainSize);
+	}
+
+	/**
+	* Set the tolerances used by the adaptive Dormand-Prince method
+	* @param absTol absolute tolerance on each position (m) and velocity (m/s) component
+	* @param relTol relative tolerance on each component
+	*/
+	public void setTolerances(double absTol, double relTol){
+		this.absTol = absTol;
+		this.relTol = relTol;
+	}
+
+	/**
+	* Split the step of any particle which crosses an edge of the accelerating gap at the crossing
+	* @param gap the half-width in y of the gap (0 => steps are not split)
+	*/
+	public void setGap(double gap){
+		setGap(gap, 0.0);
+	}
+
+	/**
+	* Split the step of any particle which crosses an edge of the accelerating gap at the crossing,
+	* and limit the steps of particles inside the gap, so the time step only needs to suit the motion outside it
+	* @param gap the half-width in y of the gap (0 => steps are not split)
+	* @param gapStep the longest step taken inside the gap (0 => the time step)
+	*/
+	public void setGap(double gap, double gapStep){
+		this.gap = gap;
+		this.gapStep = gapStep;
+	}
+
+	/**
+	* Return the half-width of the gap whose edges split the steps
+	* @return the half-width in m (0 => steps are not split)
+	*/
+	public double getGap(){
+		return gap;
+	}
+
+	/**
+	* Move the particles outside the gap analytically, along their helices in a uniform magnetic field.
+	* This is only right when that field is the only one acting outside the gap, and needs the gap to be set.
+	* @param magnetic the magnetic flux density outside the gap, perpendicular to y (null => integrate outside the gap too)
+	*/
+	public void setDrift(PhysicsVector magnetic){
+		if(magnetic == null){
+			drift = null;
+			return;
+		}
+		double size = magnetic.magnitude();
+		if(size > 0.0 && Math.abs(magnetic.getY()) > 1e-12*size){
+			throw new IllegalArgumentException("The drift field must be perpendicular to y, the normal of the gap");
+		}
+		drift = (size > 0.0) ? new double[]{magnetic.getX()/size, 0.0, magnetic.getZ()/size, size} : new double[]{0.0, 0.0, 1.0, 0.0};
+	}
+
+	/**
+	* Record the particles as they cross a plane
+	* @param section the plane and the file the crossings are written to (null => none)
+	*/
+	public void setSection(PoincareSection section){
+		this.section = section;
+	}
+
+	/**
+	* Count each particle's turns in the x-y plane as it is pushed
+	* @param countTurns true to count the turns
+	*/
+	public void setCountTurns(boolean countTurns){
+		this.countTurns = countTurns;
+	}
+
+	/**
+	* Return the number of turns made by the particle furthest ahead, as of the last step
+	* @return the number of turns, including the fraction of the current one
+	*/
+	public double getLeadingTurns(){
+		return leading.get();
+	}
+
+	/**
+	* Return the number of turns made by the particle furthest behind, as of the last step
+	* @return the number of turns, including the fraction of the current one (infinite for an empty bunch)
+	*/
+	public double getTrailingTurns(){
+		return trailing.get();
+	}
+
+	/**
+	* Return the number of times a particle has left the gap, counted over every particle
+	* @return the number of passes
+	*/
+	public long getGapPasses(){
+		return exits.sum();
+	}
+
+	/**
+	* Return the change in kinetic energy of the particles over all their passes through the gap
+	* @return the sum of the size of the change in each particle's KE over each pass in J
+	*/
+	public double getGapGain(){
+		return gain;
+	}
+
+	/**
+	* Return the number of times the whole bunch has crossed the gap: the fewest passes made by any particle,
+	* so a crossing is only complete once every particle has made it, however far ahead some of them are
+	* @return the number of crossings, as of the last step
+	*/
+	public int getCrossings(){
+		return fewest;
+	}
+
+	/**
+	* Return the change in kinetic energy of the particles over one crossing of the gap
+	* @param crossing the number of the crossing, counted from 1
+	* @return the sum of the size of the change in each particle's KE over its pass of that number in J
+	*/
+	public double getCrossingGain(int crossing){
+		return (crossing < passGain.length) ? passGain[crossing] : 0.0;
+	}
+
+	/**
+	* Return the changes in kinetic energy of the particles over each crossing of the gap
+	* @return the gain of every crossing any particle has made in J, indexed by the number of the crossing
+	*/
+	public double[] getCrossingGains(){
+		int most = 0;
+		for (int k=0; k<passGain.length; k++){
+			if(passGain[k] != 0.0){
+				most = k;
+			}
+		}
+		return Arrays.copyOf(passGain, most+1);
+	}
+
+	/**
+	* Set the running totals of the passes through the gap, such as those of a run being continued from a checkpoint
+	* @param passes the number of times a particle has left the gap
+	* @param gain the sum of the size of the change in each particle's KE over each pass in J
+	* @param crossingGains the gain of each crossing in J, indexed by the number of the crossing
+	* @param crossings the number of crossings made by the whole bunch
+	*/
+	public void setGapTotals(long passes, double gain, double[] crossingGains, int crossings){
+		exits.reset();
+		exits.add(passes);
+		this.gain = gain;
+		passGain = Arrays.copyOf(crossingGains, Math.max(16, crossingGains.length));
+		fewest = crossings;
+	}
+
+	/**
+	* Return the number of threads the bunch is pushed on
+	* @return the number of threads (1 => serial)
+	*/
+	public int getThreads(){
+		return (pool == null) ? 1 : pool.getParallelism();
+	}
+
+	/**
+	* Push every particle in the bunch through one time step
+	* @param bunch the bunch of particles to update
+	* @param time the time at the start of the step
+	* @param deltaTime the time step
+	*/
+	public void step(BunchArrays bunch, double time, double deltaTime){
+		if(bunch != kickBunch || bunch.getVersion() != kickVersion || time != kickTime){
+			// the accelerations held from the end of the last step are not for these particles
+			prepare(bunch, time);
+		}
+		leading.reset();
+		trailing.reset();
+		if(pool == null){
+			push(bunch, 0, bunch.size(), time, deltaTime);
+		}else{
+			pool.invoke(new PushTask(bunch, 0, bunch.size(), time, deltaTime));
+		}
+		if(gap > 0.0){
+			// each particle's gain is added in index order, so the totals do not depend on how the threads finish;
+			// a particle passes through the gap at most once a step, so its gain belongs to its latest pass
+			double stepGain = 0.0;
+			int least = Integer.MAX_VALUE;
+			for (int i=0; i<bunch.size(); i++){
+				int pass = bunch.passes[i];
+				if(bunch.gapGain[i] != 0.0){
+					if(pass >= passGain.length){
+						passGain = Arrays.copyOf(passGain, Math.max(2*passGain.length, pass+1));
+					}
+					passGain[pass] += bunch.gapGain[i];
+				}
+				stepGain += bunch.gapGain[i];
+				least = Math.min(least, pass);
+			}
+			gain += stepGain;
+			fewest = (bunch.size() == 0) ? 0 : least;
+		}
+		bunch.markModified();
+		if(kicked){
+			prepare(bunch, time + deltaTime);
+			kick(bunch, 0.5*deltaTime);
+			bunch.markModified();
+			kickBunch = bunch;
+			kickVersion = bunch.getVersion();
+			kickTime = time + deltaTime;
+		}
+	}
+
+	/**
+	* Let the fields update themselves from the bunch and find the accelerations they hold over a step
+	* @param bunch the bunch of particles
+	* @param time the time
+	*/
+	private void prepare(BunchArrays bunch, double time){
+		for (GeneralEMField field : fields){
+			field.prepare(bunch, time);
+		}
+		int n = bunch.size();
+		if(kickX.length < n){
+			kickX = new double[n];
+			kickY = new double[n];
+			kickZ = new double[n];
+		}
+		Arrays.fill(kickX, 0.0);
+		Arrays.fill(kickY, 0.0);
+		Arrays.fill(kickZ, 0.0);
+		kicked = false;
+		for (GeneralEMField field : fields){
+			kicked |= field.addKicks(bunch, time, kickX, kickY, kickZ);
+		}
+		kickBunch = null;
+	}
+
+	/**
+	* Give every particle of the bunch the velocity its held acceleration adds in part of a step
+	* @param bunch the bunch of particles
+	* @param deltaTime the part of the step
+	*/
+	private void kick(BunchArrays bunch, double deltaTime){
+		double[] state = new double[6];
+		for (int i=0; i<bunch.size(); i++){
+			bunch.getState(i, state);
+			double vx0 = state[3], vy0 = state[4];
+			state[3] += deltaTime*kickX[i];
+			state[4] += deltaTime*kickY[i];
+			state[5] += deltaTime*kickZ[i];
+			bunch.setState(i, state);
+			turn(bunch, i, vx0, vy0, state[3], state[4]);
+		}
+	}
+
+	/**
+	* Push a slice of the bunch through one time step on the current thread
+	* @param bunch the bunch of particles to update
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param time the time at the start of the step
+	* @param deltaTime the time step
+	*/
+	protected void push(BunchArrays bunch, int from, int to, double time, double deltaTime){
+		if(bunch instanceof ChargedBunch){
+			push((ChargedBunch)bunch, from, to, time, deltaTime, 0, scratch.get());
+		}else{
+			pushBlocks(bunch, from, to, time, deltaTime);
+		}
+	}
+
+	/**
+	* Push a slice of a bunch whose phase space is not held in doubles through one time step on the current thread.
+	* Each block of the slice is loaded into this thread's bunch of doubles, pushed there and stored back,
+	* so the particles are updated exactly as those of a ChargedBunch and only their storage is rounded.
+	* @param bunch the bunch of particles to update
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param time the time at the start of the step
+	* @param deltaTime the time step
+	*/
+	protected void pushBlocks(BunchArrays bunch, int from, int to, double time, double deltaTime){
+		Scratch scratch = this.scratch.get();
+		ChargedBunch block = scratch.block();
+		for (int first=from; first<to; first+=BLOCK){
+			int last = Math.min(first + BLOCK, to);
+			bunch.load(first, last, block);
+			push(block, 0, last-first, time, deltaTime, first, scratch);
+			bunch.store(first, last, block);
+		}
+	}
+
+	/**
+	* Push a slice of a bunch through one time step on the current thread
+	* @param bunch the bunch of particles to update
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param time the time at the start of the step
+	* @param deltaTime the time step
+	* @param base the index in the bunch being stepped of the first particle of this bunch (0 unless it holds a block loaded from it)
+	* @param scratch the scratch space of this thread
+	*/
+	private void push(ChargedBunch bunch, int from, int to, double time, double deltaTime, int base, Scratch scratch){
+		double[] start = null; // position, velocity, step size and heading of each particle in the slice before the step
+		if(gap > 0.0){
+			Arrays.fill(bunch.gapGain, from, to, 0.0);
+		}
+		if(kicked){
+			kick(bunch, from, to, base, 0.5*deltaTime);
+		}
+		if(gap > 0.0 || section != null){
+			start = scratch.starts(to-from);
+			for (int i=from; i<to; i++){
+				save(bunch, i, start, 8*(i-from));
+			}
+		}
+		if(drift != null && gap > 0.0){
+			// no field is evaluated outside the gap, so each particle is handled on its own
+			for (int i=from; i<to; i++){
+				split(bunch, i, time, deltaTime, scratch, true);
+			}
+		}else{
+			if(method ==1 || method ==2 || method ==3){
+				// all the fields evaluate the slice in one call each and the update sweeps the whole slice
+				// a block at a time, so the particles and the work arrays stay in cache between sweeps
+				for (int first=from; first<to; first+=BLOCK){
+					int last = Math.min(first + BLOCK, to);
+					double[] before = countTurns ? scratch.velocities(bunch, first, last) : null;
+					if(method ==3){
+						bunch.rk4(first, last, deltaTime, fields, time, scratch.stages(last-first));
+					}else{
+						bunch.setAccelerations(fields, time, first, last);
+						if(method ==1){
+							bunch.updateEuler1(first, last, deltaTime);
+						}else{
+							bunch.updateEuler2(first, last, deltaTime);
+						}
+					}
+					if(countTurns){
+						for (int i=first; i<last; i++){
+							turn(bunch, i, before[2*(i-first)], before[2*(i-first) + 1]);
+						}
+					}
+				}
+			}else{
+				for (int i=from; i<to; i++){
+					advance(bunch, i, time, deltaTime, scratch);
+				}
+			}
+			if(gap > 0.0){
+				for (int i=from; i<to; i++){
+					int side = region(start[8*(i-from) + 1]);
+					if(side != region(bunch.y[i]) || (side == 1 && gapStep > 0.0 && deltaTime > gapStep)){
+						// the particle crossed an edge or is in the gap: take its step again, split at each edge it crosses
+						restore(bunch, i, start, 8*(i-from));
+						split(bunch, i, time, deltaTime, scratch, true);
+					}
+				}
+			}
+		}
+		if(countTurns){
+			count(bunch, from, to);
+		}
+		if(section != null){
+			for (int i=from; i<to; i++){
+				int s = 8*(i-from);
+				if(section.distance(start[s], start[s+1], start[s+2]) < 0.0 && section.distance(bunch.x[i], bunch.y[i], bunch.z[i]) >= 0.0){
+					record(bunch, i, base, start, s, time, deltaTime, scratch);
+				}
+			}
+		}
+	}
+
+	/**
+	* Give each particle of a slice the velocity its held acceleration adds in part of a step, opening the step
+	* @param bunch the bunch of particles
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param base the index in the bunch being stepped of the first particle of this bunch
+	* @param deltaTime the part of the step
+	*/
+	private void kick(ChargedBunch bunch, int from, int to, int base, double deltaTime){
+		for (int i=from; i<to; i++){
+			double vx0 = bunch.vx[i], vy0 = bunch.vy[i];
+			bunch.vx[i] += deltaTime*kickX[base + i];
+			bunch.vy[i] += deltaTime*kickY[base + i];
+			bunch.vz[i] += deltaTime*kickZ[base + i];
+			turn(bunch, i, vx0, vy0);
+		}
+	}
+
+	/**
+	* Add the angle the velocity of a particle turned through in part of a step to its heading.
+	* Each part of a split step is added on its own, so a step which turns the particle through more than
+	* half a turn in all, such as one through the gap and around much of the orbit, is still unwrapped correctly.
+	* @param bunch the bunch of particles
+	* @param i the index of the particle, after the part of the step
+	* @param vx0, vy0 the velocity of the particle in the x-y plane before the part of the step
+	*/
+	protected void turn(ChargedBunch bunch, int i, double vx0, double vy0){
+		turn(bunch, i, vx0, vy0, bunch.vx[i], bunch.vy[i]);
+	}
+
+	/**
+	* Add the angle the velocity of a particle turned through in part of a step to its heading
+	* @param bunch the bunch of particles
+	* @param i the index of the particle
+	* @param vx0, vy0 the velocity of the particle in the x-y plane before the part of the step
+	* @param vx1, vy1 the velocity of the particle in the x-y plane after it
+	*/
+	protected void turn(BunchArrays bunch, int i, double vx0, double vy0, double vx1, double vy1){
+		if(!countTurns){
+			return;
+		}
+		double cross = vx0*vy1 - vy0*vx1, dot = vx0*vx1 + vy0*vy1;
+		if(cross != 0.0 || dot != 0.0){ // a particle at rest has no direction
+			bunch.heading[i] += Math.atan2(cross, dot);
+		}
+	}
+
+	/**
+	* Gather the most and fewest turns of the particles of a slice into those of the bunch
+	* @param bunch the bunch of particles, after the step
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	*/
+	private void count(ChargedBunch bunch, int from, int to){
+		double most = 0.0, fewest = Double.POSITIVE_INFINITY;
+		for (int i=from; i<to; i++){
+			double turned = bunch.getTurns(i);
+			most = Math.max(most, turned);
+			fewest = Math.min(fewest, turned);
+		}
+		leading.accumulate(most);
+		trailing.accumulate(fewest);
+	}
+
+	/**
+	* Find where a particle crossed the section plane during a step and record it there.
+	* A copy of the particle is stepped from the start of the step by trial fractions of it, found by
+	* the Illinois variant of regula falsi on the distance from the plane, so the bunch itself is not disturbed.
+	* @param bunch the bunch of particles
+	* @param i the index of the particle
+	* @param base the index in the bunch being stepped of the first particle of this bunch
+	* @param start the saved states at the start of the step
+	* @param offset the index in start of the particle's state
+	* @param time the time at the start of the step
+	* @param deltaTime the time step
+	* @param scratch the scratch space of this thread
+	*/
+	protected void record(ChargedBunch bunch, int i, int base, double[] start, int offset, double time, double deltaTime, Scratch scratch){
+		if(scratch.probe == null){
+			scratch.probe = new ChargedBunch(1);
+			scratch.probe.addParticle(new ChargedParticle());
+		}
+		ChargedBunch probe = scratch.probe;
+		probe.mass[0] = bunch.mass[i];
+		probe.charge[0] = bunch.charge[i];
+		double lo = 0.0, gLo = section.distance(start[offset], start[offset+1], start[offset+2]);
+		double hi = 1.0, gHi = section.distance(bunch.x[i], bunch.y[i], bunch.z[i]);
+		int kept = 0; // which end kept its place last time (-1 => lo, 1 => hi)
+		for (int iteration=0; iteration<100 && hi - lo > eventTol; iteration++){
+			double f = (gHi != gLo) ? (lo*gHi - hi*gLo)/(gHi - gLo) : 0.5*(lo + hi);
+			if(!(f > lo && f < hi)){
+				f = 0.5*(lo + hi);
+			}
+			restore(probe, 0, start, offset);
+			propagate(probe, time, f*deltaTime, scratch);
+			double g = section.distance(probe.x[0], probe.y[0], probe.z[0]);
+			if(g < 0.0){
+				lo = f;
+				gLo = g;
+				if(kept == 1){
+					gHi *= 0.5;
+				}
+				kept = 1;
+			}else{
+				hi = f;
+				gHi = g;
+				if(kept == -1){
+					gLo *= 0.5;
+				}
+				kept = -1;
+			}
+		}
+		restore(probe, 0, start, offset);
+		propagate(probe, time, hi*deltaTime, scratch);
+		try {
+			section.record(base + i, time + hi*deltaTime, probe, 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	* Step the first particle of a probe bunch the way push steps a particle, without counting its passes through the gap
+	*/
+	private void propagate(ChargedBunch probe, double time, double deltaTime, Scratch scratch){
+		if(gap > 0.0){
+			split(probe, 0, time, deltaTime, scratch, false);
+		}else{
+			advance(probe, 0, time, deltaTime, scratch);
+		}
+	}
+
+	/**
+	* Push one particle through a step which takes it across an edge of the gap, or which it starts in the gap.
+	* The time of each crossing is found by the Illinois variant of regula falsi on y, advancing the particle
+	* from the start of the part of the step by each trial fraction of it. The particle is then moved to just
+	* past the edge, so the rest of the step starts on the far side and sees only the field there.
+	* While in the gap the particle takes steps no longer than the gap step. With a drift field, the parts
+	* of the step outside the gap are taken in one analytic move each.
+	* @param bunch the bunch of particles
+	* @param i the index of the particle, holding its state at the start of the step
+	* @param time the time at the start of the step
+	* @param deltaTime the time step
+	* @param scratch the scratch space of this thread
+	* @param count true to count the particle's passes through the gap
+	*/
+	protected void split(ChargedBunch bunch, int i, double time, double deltaTime, Scratch scratch, boolean count){
+		double done = 0.0; // time already taken of the step
+		int events = 0;
+		while(done < deltaTime){
+			int side = region(bunch.y[i]);
+			double length = deltaTime - done;
+			if(side == 1 && gapStep > 0.0 && length > gapStep){
+				length = gapStep;
+			}
+			if(side != 1 && drift != null){
+				double entry = entryTime(bunch, i, side);
+				if(entry >= length){
+					rotate(bunch, i, length);
+					return;
+				}
+				rotate(bunch, i, entry);
+				bunch.y[i] = (side == 2) ? gap : -gap; // exactly on the edge, which is inside the gap
+				bunch.entryKE[i] = bunch.getKE(i);
+				done += entry;
+				continue;
+			}
+			if(events == maxEvents){
+				advance(bunch, i, time + done, deltaTime - done, scratch); // give up splitting a particle sitting on an edge
+				return;
+			}
+			save(bunch, i, scratch.start, 0);
+			advance(bunch, i, time + done, length, scratch);
+			double yEnd = bunch.y[i];
+			if(region(yEnd) == side){
+				done += length;
+				continue;
+			}
+			// the edge crossed first: the one bounding the region the particle started in
+			double edge = (side == 2 || (side == 1 && yEnd > gap)) ? gap : -gap;
+			double lo = 0.0, gLo = scratch.start[1] - edge;
+			double hi = 1.0, gHi = yEnd - edge;
+			int kept = 0; // which end kept its place last time (-1 => lo, 1 => hi)
+			for (int iteration=0; iteration<100 && hi - lo > eventTol; iteration++){
+				double f = (gHi != gLo) ? (lo*gHi - hi*gLo)/(gHi - gLo) : 0.5*(lo + hi);
+				if(!(f > lo && f < hi)){
+					f = 0.5*(lo + hi);
+				}
+				restore(bunch, i, scratch.start, 0);
+				advance(bunch, i, time + done, f*length, scratch);
+				double g = bunch.y[i] - edge;
+				if(region(bunch.y[i]) == side){
+					lo = f;
+					gLo = g;
+					if(kept == 1){
+						gHi *= 0.5;
+					}
+					kept = 1;
+				}else{
+					hi = f;
+					gHi = g;
+					if(kept == -1){
+						gLo *= 0.5;
+					}
+					kept = -1;
+				}
+			}
+			// finish on the far side of the edge
+			if(hi < 1.0){
+				restore(bunch, i, scratch.start, 0);
+				advance(bunch, i, time + done, hi*length, scratch);
+			}
+			double kE = bunch.getKE(i);
+			if(side == 1 && count){
+				bunch.passes[i]++;
+				exits.increment();
+				bunch.gapGain[i] += Math.abs(kE - bunch.entryKE[i]);
+			}else if(region(bunch.y[i]) == 1){
+				bunch.entryKE[i] = kE;
+			}
+			events++;
+			done += hi*length;
+		}
+	}
+
+	/**
+	* Move a particle along its helix in the drift field
+	* @param bunch the bunch of particles
+	* @param i the index of the particle
+	* @param deltaTime the time to move it for
+	*/
+	protected void rotate(ChargedBunch bunch, int i, double deltaTime){
+		double bx = drift[0], by = drift[1], bz = drift[2];
+		double omega = bunch.charge[i]*drift[3]/bunch.mass[i]; // signed cyclotron frequency
+		double vx = bunch.vx[i], vy = bunch.vy[i], vz = bunch.vz[i];
+		double along = vx*bx + vy*by + vz*bz;
+		double px = vx - along*bx, py = vy - along*by, pz = vz - along*bz; // velocity perpendicular to B
+		double wx = py*bz - pz*by, wy = pz*bx - px*bz, wz = px*by - py*bx; // perpendicular velocity x unit B
+		double angle = omega*deltaTime;
+		if(angle == 0.0){
+			bunch.x[i] += vx*deltaTime;
+			bunch.y[i] += vy*deltaTime;
+			bunch.z[i] += vz*deltaTime;
+			return; // the heading does not change
+		}
+		double sin = Math.sin(angle), cos = Math.cos(angle);
+		double half = Math.sin(0.5*angle);
+		double versine = 2.0*half*half; // 1 - cos, without the cancellation
+		bunch.x[i] += along*bx*deltaTime + (px*sin + wx*versine)/omega;
+		bunch.y[i] += along*by*deltaTime + (py*sin + wy*versine)/omega;
+		bunch.z[i] += along*bz*deltaTime + (pz*sin + wz*versine)/omega;
+		bunch.vx[i] = along*bx + px*cos + wx*sin;
+		bunch.vy[i] = along*by + py*cos + wy*sin;
+		bunch.vz[i] = along*bz + pz*cos + wz*sin;
+		turn(bunch, i, vx, vy);
+	}
+
+	/**
+	* Find when a particle outside the gap next enters it, moving along its helix in the drift field.
+	* The field is perpendicular to y, so y oscillates about the centre of the orbit as yc + r sin(|omega| t - phi).
+	* @param bunch the bunch of particles
+	* @param i the index of the particle
+	* @param side the side of the gap the particle is on (0 below, 2 above)
+	* @return the time until it enters the gap (infinite if it never does)
+	*/
+	protected double entryTime(ChargedBunch bunch, int i, int side){
+		double edge = (side == 2) ? gap : -gap;
+		double y0 = bunch.y[i];
+		double vy = bunch.vy[i];
+		double omega = bunch.charge[i]*drift[3]/bunch.mass[i];
+		if(omega == 0.0){
+			double t = (edge - y0)/vy; // a straight line
+			return (t >= 0.0) ? t : Double.POSITIVE_INFINITY;
+		}
+		double bx = drift[0], bz = drift[2];
+		double vx = bunch.vx[i], vz = bunch.vz[i];
+		double along = vx*bx + vz*bz;
+		double px = vx - along*bx, pz = vz - along*bz;
+		double wy = pz*bx - px*bz;
+		double a = Math.signum(omega)*vy/omega, c = wy/omega; // y = y0 + a sin(|omega| t) + c (1 - cos(|omega| t))
+		double r = Math.hypot(a, c);
+		double sin = (edge - y0 - c)/r;
+		if(!(sin >= -1.0 && sin <= 1.0)){
+			return Double.POSITIVE_INFINITY; // the orbit does not reach the gap
+		}
+		// moving down through the top edge, or up through the bottom one
+		double u = Math.atan2(c, a) + ((side == 2) ? Math.PI - Math.asin(sin) : Math.asin(sin));
+		u %= 2.0*Math.PI;
+		if(u < 0.0){
+			u += 2.0*Math.PI;
+		}
+		return u/Math.abs(omega);
+	}
+
+	/**
+	* Return which side of the gap a height is on
+	* @param y the y coordinate
+	* @return 0 below the gap, 1 in the gap and 2 above it
+	*/
+	protected int region(double y){
+		return (y > gap) ? 2 : ((y < -gap) ? 0 : 1);
+	}
+
+	private static void save(ChargedBunch bunch, int i, double[] to, int offset){
+		to[offset] = bunch.x[i];
+		to[offset+1] = bunch.y[i];
+		to[offset+2] = bunch.z[i];
+		to[offset+3] = bunch.vx[i];
+		to[offset+4] = bunch.vy[i];
+		to[offset+5] = bunch.vz[i];
+		to[offset+6] = bunch.stepSize[i];
+		to[offset+7] = bunch.heading[i];
+	}
+
+	private static void restore(ChargedBunch bunch, int i, double[] from, int offset){
+		bunch.x[i] = from[offset];
+		bunch.y[i] = from[offset+1];
+		bunch.z[i] = from[offset+2];
+		bunch.vx[i] = from[offset+3];
+		bunch.vy[i] = from[offset+4];
+		bunch.vz[i] = from[offset+5];
+		bunch.stepSize[i] = from[offset+6];
+		bunch.heading[i] = from[offset+7];
+	}
+
+	/**
+	* Advance one particle through part of a step with the update method
+	* @param bunch the bunch of particles
+	* @param i the index of the particle
+	* @param time the time at the start of the part
+	* @param deltaTime the length of the part
+	* @param scratch the scratch space of this thread
+	*/
+	protected void advance(ChargedBunch bunch, int i, double time, double deltaTime, Scratch scratch){
+		double vx0 = bunch.vx[i], vy0 = bunch.vy[i];
+		if(method ==1 || method ==2){
+			bunch.setAccelerations(fields, time, i, i+1);
+			if(method ==1){
+				bunch.updateEuler1(i, deltaTime);
+			}else{
+				bunch.updateEuler2(i, deltaTime);
+			}
+		}else if(method ==3){
+			bunch.rk4(i, i+1, deltaTime, fields, time, scratch.stages(1));
+		}else if(method ==4){
+			bunch.getParticle(i, scratch.particle);
+			scratch.electric.setVector(0,0,0);
+			scratch.magnetic.setVector(0,0,0);
+			for (GeneralEMField field : fields){
+				field.addFields(scratch.particle, time, scratch.electric, scratch.magnetic);
+			}
+			bunch.updateBoris(i, deltaTime, scratch.electric, scratch.magnetic);
+		}else{
+			if(scratch.integrator == null){
+				scratch.integrator = new DormandPrince(absTol, relTol);
+			}
+			bunch.dormandPrince(i, deltaTime, fields, time, scratch.integrator, scratch.work);
+		}
+		turn(bunch, i, vx0, vy0);
+	}
+
+	/**
+	* Stop the threads of the pusher once the simulation has finished
+	*/
+	public void shutdown(){
+		if(pool != null){
+			pool.shutdown();
+		}
+	}
+
+	/**
+	* Task which halves its slice of the bunch until it is no bigger than the grain size
+	*/
+	private class PushTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BunchArrays bunch;
+		private final int from, to;
+		private final double time, deltaTime;
+
+		PushTask(BunchArrays bunch, int from, int to, double time, double deltaTime){
+			this.bunch = bunch;
+			this.from = from;
+			this.to = to;
+			this.time = time;
+			this.deltaTime = deltaTime;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= grainSize){
+				push(bunch, from, to, time, deltaTime);
+			}else{
+				int mid = (from + to) >>> 1;
+				invokeAll(new PushTask(bunch, from, mid, time, deltaTime),
+					new PushTask(bunch, mid, to, time, deltaTime));
+			}
+		}
+	}
+
+	/**
+	* Objects reused by one thread while it pushes its slices, so the push allocates nothing per particle or step
+	*/
+	protected static class Scratch {
+		final ChargedParticle particle = new ChargedParticle(); // evaluates the fields at each particle
+		final PhysicsVector electric = new PhysicsVector(); // sums E at each particle
+		final PhysicsVector magnetic = new PhysicsVector(); // sums B at each particle
+		final double[] work = new double[6]; // the state handed to the Dormand-Prince integrator
+		final double[] start = new double[8]; // the state at the start of a split step
+		DormandPrince integrator; // created the first time the adaptive method is used
+		ChargedBunch probe; // a copy of one particle, stepped to find where it crosses the section (created when first needed)
+		private double[][] stages; // the work arrays of the Runge-Kutta 4 update of a slice (created when first needed)
+		private double[] starts; // the state of each particle of a slice at the start of the step (created when first needed)
+		private ChargedBunch block; // the doubles a block of a bunch stored otherwise is pushed in (created when first needed)
+		private double[] velocities; // vx and vy of each particle of a slice before a step (created when first needed)
+
+		/**
+		* Return the work arrays of the Runge-Kutta 4 update, long enough for a slice of n particles
+		*/
+		double[][] stages(int n){
+			if(stages == null || stages[0].length < n){
+				stages = new double[ChargedBunch.RK4_WORK][n];
+			}
+			return stages;
+		}
+
+		/**
+		* Return room for the position, velocity, step size and heading of each of n particles, 8 values each
+		*/
+		double[] starts(int n){
+			if(starts == null || starts.length < 8*n){
+				starts = new double[8*n];
+			}
+			return starts;
+		}
+
+		/**
+		* Return the bunch of doubles a block of another bunch is loaded into
+		*/
+		ChargedBunch block(){
+			if(block == null){
+				block = new ChargedBunch(BLOCK);
+			}
+			return block;
+		}
+
+		/**
+		* Return the vx and vy of each particle of a slice, in pairs, before the slice is stepped
+		*/
+		double[] velocities(ChargedBunch bunch, int from, int to){
+			if(velocities == null || velocities.length < 2*(to-from)){
+				velocities = new double[2*(to-from)];
+			}
+			for (int i=from; i<to; i++){
+				velocities[2*(i-from)] = bunch.vx[i];
+				velocities[2*(i-from) + 1] = bunch.vy[i];
+			}
+			return velocities;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/**
+* A Class which gathers the statistics of a bunch of particles in a single pass.
+* The average and standard deviation of the position (Welford's method), the minimum and
+* maximum position, the average and extremes of the velocity and the total, minimum and maximum
+* kinetic energy are all accumulated together as each particle is added.
+* The spreads about the average are found from the extremes, so no second pass is needed.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class BunchStatistics {
+
+	protected long n; // number of particles added
+	protected double[] mean = new double[3]; // running average position
+	protected double[] m2 = new double[3]; // running sum of squared deviations from the average position
+	protected double[] min = new double[3], max = new double[3]; // extremes of the position
+	protected double[] vMean = new double[3]; // running average velocity
+	protected double[] vMin = new double[3], vMax = new double[3]; // extremes of the velocity
+	protected double totalKE, minKE, maxKE; // total and extremes of the kinetic energy
+
+	/**
+	* Default constructor with no particles added
+	*/
+	public BunchStatistics(){
+		clear();
+	}
+
+	/**
+	* Forget all the particles added so far
+	*/
+	public void clear(){
+		n = 0;
+		totalKE = 0.0;
+		minKE = Double.POSITIVE_INFINITY;
+		maxKE = Double.NEGATIVE_INFINITY;
+		for (int j=0; j<3; j++){
+			mean[j] = 0.0;
+			m2[j] = 0.0;
+			vMean[j] = 0.0;
+			min[j] = Double.POSITIVE_INFINITY;
+			max[j] = Double.NEGATIVE_INFINITY;
+			vMin[j] = Double.POSITIVE_INFINITY;
+			vMax[j] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	* Add a particle to the statistics
+	* @param x, y, z the position of the particle
+	* @param vx, vy, vz the velocity of the particle
+	* @param kE the kinetic energy of the particle
+	*/
+	public void add(double x, double y, double z, double vx, double vy, double vz, double kE){
+		n++;
+		accumulate(0, x, vx);
+		accumulate(1, y, vy);
+		accumulate(2, z, vz);
+		totalKE += kE;
+		if (kE < minKE) minKE = kE;
+		if (kE > maxKE) maxKE = kE;
+	}
+
+	private void accumulate(int j, double position, double velocity){
+		double delta = position - mean[j];
+		mean[j] += delta/n;
+		m2[j] += delta*(position - mean[j]);
+		if (position < min[j]) min[j] = position;
+		if (position > max[j]) max[j] = position;
+		vMean[j] += (velocity - vMean[j])/n;
+		if (velocity < vMin[j]) vMin[j] = velocity;
+		if (velocity > vMax[j]) vMax[j] = velocity;
+	}
+
+	/**
+	* Return the number of particles added
+	* @return number of particles
+	*/
+	public long getCount(){
+		return n;
+	}
+
+	/**
+	* Return the average position of the particles
+	* @return the average position
+	*/
+	public PhysicsVector getPosition(){
+		return new PhysicsVector(mean);
+	}
+
+	/**
+	* Return the average velocity of the particles
+	* @return the average velocity
+	*/
+	public PhysicsVector getVelocity(){
+		return new PhysicsVector(vMean);
+	}
+
+	/**
+	* Return the standard deviation of the positions in x, y and z
+	* @return the standard deviation in x, y and z
+	*/
+	public PhysicsVector getSpreadSD(){
+		return new PhysicsVector(Math.sqrt(m2[0]/n), Math.sqrt(m2[1]/n), Math.sqrt(m2[2]/n));
+	}
+
+	/**
+	* Return the smallest position of any particle in x, y and z
+	* @return the minimum position in x, y and z
+	*/
+	public PhysicsVector getMinPosition(){
+		return new PhysicsVector(min);
+	}
+
+	/**
+	* Return the largest position of any particle in x, y and z
+	* @return the maximum position in x, y and z
+	*/
+	public PhysicsVector getMaxPosition(){
+		return new PhysicsVector(max);
+	}
+
+	/**
+	* Return the full spread of the positions (maximum - minimum) in x, y and z
+	* @return the full spread in x, y and z
+	*/
+	public PhysicsVector getFullSpread(){
+		return new PhysicsVector(max[0]-min[0], max[1]-min[1], max[2]-min[2]);
+	}
+
+	/**
+	* Return the furthest distance of a particle from the average position in x, y and z
+	* @return the maximum spread in x, y and z
+	*/
+	public PhysicsVector getSpreadMax(){
+		return new PhysicsVector(furthest(mean[0], min[0], max[0]), furthest(mean[1], min[1], max[1]), furthest(mean[2], min[2], max[2]));
+	}
+
+	/**
+	* Return the furthest deviation of a particle's velocity from the average velocity in v_x, v_y and v_z
+	* @return the maximum spread in v_x, v_y and v_z
+	*/
+	public PhysicsVector getVSpreadMax(){
+		return new PhysicsVector(furthest(vMean[0], vMin[0], vMax[0]), furthest(vMean[1], vMin[1], vMax[1]), furthest(vMean[2], vMin[2], vMax[2]));
+	}
+
+	/**
+	* Return the total kinetic energy of the particles
+	* @return the total kinetic energy in J
+	*/
+	public double getTotalKE(){
+		return totalKE;
+	}
+
+	/**
+	* Return the average kinetic energy of the particles
+	* @return the average kinetic energy in J
+	*/
+	public double getAvgKE(){
+		return totalKE/n;
+	}
+
+	/**
+	* Return the largest deviation of a particle's kinetic energy from the average
+	* @return the spread in kinetic energy in J
+	*/
+	public double getSpreadKE(){
+		return furthest(getAvgKE(), minKE, maxKE);
+	}
+
+	private static double furthest(double average, double lowest, double highest){
+		return Math.max(highest - average, average - lowest);
+	}
+}
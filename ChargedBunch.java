@@ -0,0 +1,429 @@
+import java.util.*;
+/**
+* A Class to represent a bunch of charged particles stored as a structure of arrays of doubles.
+* The position, velocity and acceleration components of the particles are held in contiguous
+* primitive arrays so that the bunch can be pushed with sequential sweeps rather than through
+* one ChargedParticle object per proton, and are updated in place.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class ChargedBunch extends BunchArrays {
+
+	protected double[] x, y, z; // position components of each particle in m
+	protected double[] vx, vy, vz; // velocity components of each particle in m/s
+	protected double[] ax, ay, az; // acceleration components of each particle in m/s^2, filled by setAccelerations
+
+	public static final int RK4_WORK = 17; // number of work arrays the slice Runge-Kutta 4 update needs
+
+	/**
+	* Constructor for an empty bunch with room for a given number of particles
+	* @param capacity the number of particles the bunch can hold before it has to grow
+	*/
+	public ChargedBunch(int capacity){
+		super(capacity);
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		vz = new double[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		az = new double[capacity];
+	}
+
+	/**
+	* Constructor which copies the particles of a Bunch into the arrays
+	* @param bunch the bunch of charged particles to copy
+	*/
+	public ChargedBunch(Bunch<? extends ChargedParticle> bunch){
+		this(16);
+		Iterator<? extends ChargedParticle> bunchIt = bunch.iterator();
+		while(bunchIt.hasNext()){
+			addParticle(bunchIt.next());
+		}
+	}
+
+	/**
+	* Enlarge the arrays of the positions, velocities and accelerations
+	* @param capacity the new number of particles the arrays can hold
+	*/
+	@Override
+	protected void growPhaseSpace(int capacity){
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		z = Arrays.copyOf(z, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		vz = Arrays.copyOf(vz, capacity);
+		ax = Arrays.copyOf(ax, capacity);
+		ay = Arrays.copyOf(ay, capacity);
+		az = Arrays.copyOf(az, capacity);
+	}
+
+	/**
+	* Copy a particle in the bunch into an existing charged particle without allocating
+	* @param i the index of the particle
+	* @param particle the charged particle to overwrite
+	* @return the overwritten particle
+	*/
+	@Override
+	public ChargedParticle getParticle(int i, ChargedParticle particle){
+		particle.setMass(mass[i]);
+		particle.setCharge(charge[i]);
+		particle.position.setVector(x[i], y[i], z[i]);
+		particle.velocity.setVector(vx[i], vy[i], vz[i]);
+		return particle;
+	}
+
+	/**
+	* Set the position and velocity of a particle in the bunch from a charged particle
+	* @param i the index of the particle
+	* @param particle the particle whose position and velocity are copied
+	*/
+	@Override
+	public void setParticle(int i, ChargedParticle particle){
+		x[i] = particle.position.getX();
+		y[i] = particle.position.getY();
+		z[i] = particle.position.getZ();
+		vx[i] = particle.velocity.getX();
+		vy[i] = particle.velocity.getY();
+		vz[i] = particle.velocity.getZ();
+	}
+
+	/**
+	* Copy the position and velocity of a particle into an array
+	* @param i the index of the particle
+	* @param state array of length 6 filled with {x, y, z, vx, vy, vz}
+	*/
+	@Override
+	public void getState(int i, double[] state){
+		state[0] = x[i];
+		state[1] = y[i];
+		state[2] = z[i];
+		state[3] = vx[i];
+		state[4] = vy[i];
+		state[5] = vz[i];
+	}
+
+	/**
+	* Set the position and velocity of a particle from an array
+	* @param i the index of the particle
+	* @param state array of length 6 holding {x, y, z, vx, vy, vz}
+	*/
+	@Override
+	public void setState(int i, double[] state){
+		x[i] = state[0];
+		y[i] = state[1];
+		z[i] = state[2];
+		vx[i] = state[3];
+		vy[i] = state[4];
+		vz[i] = state[5];
+	}
+
+	/**
+	* Return the kinetic energy of a particle in the bunch
+	* @param i the index of the particle
+	* @return the kinetic energy in J
+	*/
+	@Override
+	public double getKE(int i){
+		double speed = Math.sqrt(vx[i]*vx[i] + vy[i]*vy[i] + vz[i]*vz[i]);
+		return 0.5*mass[i]*speed*speed;
+	}
+
+	/**
+	* Copy a block of the particles into another bunch of doubles, which is pushed in place of them
+	* @param from the index of the first particle of the block
+	* @param to one past the index of the last particle of the block
+	* @param block the bunch the particles are copied to, from index 0, with room for them all
+	*/
+	@Override
+	public void load(int from, int to, ChargedBunch block){
+		int n = to - from;
+		System.arraycopy(x, from, block.x, 0, n);
+		System.arraycopy(y, from, block.y, 0, n);
+		System.arraycopy(z, from, block.z, 0, n);
+		System.arraycopy(vx, from, block.vx, 0, n);
+		System.arraycopy(vy, from, block.vy, 0, n);
+		System.arraycopy(vz, from, block.vz, 0, n);
+		loadValues(from, to, block);
+	}
+
+	/**
+	* Copy a block of particles back from the bunch of doubles it was pushed in
+	* @param from the index of the first particle of the block
+	* @param to one past the index of the last particle of the block
+	* @param block the bunch the block was loaded into
+	*/
+	@Override
+	public void store(int from, int to, ChargedBunch block){
+		int n = to - from;
+		System.arraycopy(block.x, 0, x, from, n);
+		System.arraycopy(block.y, 0, y, from, n);
+		System.arraycopy(block.z, 0, z, from, n);
+		System.arraycopy(block.vx, 0, vx, from, n);
+		System.arraycopy(block.vy, 0, vy, from, n);
+		System.arraycopy(block.vz, 0, vz, from, n);
+		storeValues(from, to, block);
+	}
+
+	/**
+	* Set the stored acceleration of a slice of the bunch to the sum of the accelerations from the fields.
+	* Each field evaluates the whole slice in one call.
+	* @param fields The fields in the simulation
+	* @param time the time
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	*/
+	public void setAccelerations(ArrayList<GeneralEMField> fields, double time, int from, int to){
+		Arrays.fill(ax, from, to, 0.0);
+		Arrays.fill(ay, from, to, 0.0);
+		Arrays.fill(az, from, to, 0.0);
+		for (GeneralEMField field : fields){
+			field.addAccelerations(x, y, z, vx, vy, vz, mass, charge, time, ax, ay, az, from, to);
+		}
+	}
+
+	/**
+	* Update the position and velocity of particle i using the Euler method and its stored acceleration.
+	* Applies the formula s = ut + 1/2 at**2 to the position
+	* Applies the formula v=u+at to the velocity
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	*/
+	public void updateEuler1(int i, double deltaTime){
+		x[i] += deltaTime*vx[i]; // old position + ut
+		y[i] += deltaTime*vy[i];
+		z[i] += deltaTime*vz[i];
+		x[i] += 0.5*deltaTime*deltaTime*ax[i]; // + 1/2 at**2
+		y[i] += 0.5*deltaTime*deltaTime*ay[i];
+		z[i] += 0.5*deltaTime*deltaTime*az[i];
+
+		vx[i] += deltaTime*ax[i]; // v = u + at
+		vy[i] += deltaTime*ay[i];
+		vz[i] += deltaTime*az[i];
+	}
+
+	/**
+	* Update the position and velocity of particle i using the Euler-Cromer method and its stored acceleration.
+	* Applies the formula v=u+at to the velocity
+	* Applies the formula s = vt to the position
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	*/
+	public void updateEuler2(int i, double deltaTime){
+		vx[i] += deltaTime*ax[i]; // v = u + at
+		vy[i] += deltaTime*ay[i];
+		vz[i] += deltaTime*az[i];
+
+		x[i] += deltaTime*vx[i]; // old position + vt
+		y[i] += deltaTime*vy[i];
+		z[i] += deltaTime*vz[i];
+	}
+
+	/**
+	* Update the position and velocity of a slice of the bunch using the Euler method and the stored accelerations.
+	* The same arithmetic as updateEuler1(i, deltaTime), done by BunchKernel several particles at a time.
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param deltaTime  The change in time
+	*/
+	public void updateEuler1(int from, int to, double deltaTime){
+		BunchKernel.euler(x, y, z, vx, vy, vz, ax, ay, az, deltaTime, from, to);
+	}
+
+	/**
+	* Update the position and velocity of a slice of the bunch using the Euler-Cromer method and the stored accelerations.
+	* The same arithmetic as updateEuler2(i, deltaTime), done by BunchKernel several particles at a time.
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param deltaTime  The change in time
+	*/
+	public void updateEuler2(int from, int to, double deltaTime){
+		BunchKernel.eulerCromer(x, y, z, vx, vy, vz, ax, ay, az, deltaTime, from, to);
+	}
+
+	/**
+	* Update the position and velocity of particle i using the Euler method.
+	* Applies the formula s = ut + 1/2 at**2 to the position
+	* Applies the formula v=u+at to the velocity
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	* @param accelIn    The applied acceleration
+	*/
+	public void updateEuler1(int i, double deltaTime, PhysicsVector accelIn){
+		double ax = accelIn.getX();
+		double ay = accelIn.getY();
+		double az = accelIn.getZ();
+
+		x[i] += deltaTime*vx[i]; // old position + ut
+		y[i] += deltaTime*vy[i];
+		z[i] += deltaTime*vz[i];
+		x[i] += 0.5*deltaTime*deltaTime*ax; // + 1/2 at**2
+		y[i] += 0.5*deltaTime*deltaTime*ay;
+		z[i] += 0.5*deltaTime*deltaTime*az;
+
+		vx[i] += deltaTime*ax; // v = u + at
+		vy[i] += deltaTime*ay;
+		vz[i] += deltaTime*az;
+	}
+
+	/**
+	* Update the position and velocity of particle i using the Euler-Cromer method.
+	* Applies the formula v=u+at to the velocity
+	* Applies the formula s = vt to the position
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	* @param accelIn    The applied acceleration
+	*/
+	public void updateEuler2(int i, double deltaTime, PhysicsVector accelIn){
+		vx[i] += deltaTime*accelIn.getX(); // v = u + at
+		vy[i] += deltaTime*accelIn.getY();
+		vz[i] += deltaTime*accelIn.getZ();
+
+		x[i] += deltaTime*vx[i]; // old position + vt
+		y[i] += deltaTime*vy[i];
+		z[i] += deltaTime*vz[i];
+	}
+
+	/**
+	* Update the position and velocity of particle i using the Boris method.
+	* Half the electric kick is applied, the velocity is rotated about the magnetic field
+	* and the other half of the electric kick is applied, then the position is moved with the new velocity.
+	* The rotation does not change the speed, so |v| is conserved in a purely magnetic field
+	* whatever the size of the time step.
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	* @param electric   The electric field strength at the particle
+	* @param magnetic   The magnetic flux density at the particle
+	*/
+	public void updateBoris(int i, double deltaTime, PhysicsVector electric, PhysicsVector magnetic){
+		double h = 0.5*deltaTime*charge[i]/mass[i];
+
+		// first half of the electric kick
+		double mx = vx[i] + h*electric.getX();
+		double my = vy[i] + h*electric.getY();
+		double mz = vz[i] + h*electric.getZ();
+
+		// rotation about B: t = qB dt/2m, s = 2t/(1+t^2)
+		double tx = h*magnetic.getX();
+		double ty = h*magnetic.getY();
+		double tz = h*magnetic.getZ();
+		double f = 2.0/(1.0 + tx*tx + ty*ty + tz*tz);
+		double sx = f*tx;
+		double sy = f*ty;
+		double sz = f*tz;
+		double px = mx + (my*tz - mz*ty); // v' = v- + v- x t
+		double py = my + (mz*tx - mx*tz);
+		double pz = mz + (mx*ty - my*tx);
+		mx += py*sz - pz*sy; // v+ = v- + v' x s
+		my += pz*sx - px*sz;
+		mz += px*sy - py*sx;
+
+		// second half of the electric kick
+		vx[i] = mx + h*electric.getX();
+		vy[i] = my + h*electric.getY();
+		vz[i] = mz + h*electric.getZ();
+
+		x[i] += deltaTime*vx[i];
+		y[i] += deltaTime*vy[i];
+		z[i] += deltaTime*vz[i];
+	}
+
+	/**
+	* Update the position and velocity of particle i using the Runge-Kutta 4 method
+	* @param i the index of the particle
+	* @param deltaTime  The change in time
+	* @param fields The fields in the simulation
+	* @param time the time
+	*/
+	public void rk4(int i, double deltaTime, ArrayList<GeneralEMField> fields, double time){
+		rk4(i, i+1, deltaTime, fields, time, new double[RK4_WORK][1]);
+	}
+
+	/**
+	* Update the position and velocity of a slice of the bunch using the classical Runge-Kutta 4 method.
+	* Each of the four stages evaluates every field for the whole slice in one call, on copies of the slice's state
+	* held in the work arrays, and the stages are combined by BunchKernel.
+	* @param from the index of the first particle in the slice
+	* @param to one past the index of the last particle in the slice
+	* @param deltaTime  The change in time
+	* @param fields The fields in the simulation
+	* @param time the time
+	* @param work RK4_WORK arrays, each at least as long as the slice
+	*/
+	public void rk4(int from, int to, double deltaTime, ArrayList<GeneralEMField> fields, double time, double[][] work){
+		int n = to - from;
+		double[] sx = work[0], sy = work[1], sz = work[2]; // position of the stage
+		double[] svx = work[3], svy = work[4], svz = work[5]; // velocity of the stage
+		double[] kx = work[6], ky = work[7], kz = work[8]; // acceleration of the stage
+		double[] sumVx = work[9], sumVy = work[10], sumVz = work[11]; // weighted sum of the stage velocities
+		double[] sumAx = work[12], sumAy = work[13], sumAz = work[14]; // weighted sum of the stage accelerations
+		double[] m = work[15], q = work[16]; // mass and charge of the slice, indexed like the stage
+		System.arraycopy(mass, from, m, 0, n);
+		System.arraycopy(charge, from, q, 0, n);
+		System.arraycopy(x, from, sx, 0, n);
+		System.arraycopy(y, from, sy, 0, n);
+		System.arraycopy(z, from, sz, 0, n);
+		System.arraycopy(vx, from, svx, 0, n);
+		System.arraycopy(vy, from, svy, 0, n);
+		System.arraycopy(vz, from, svz, 0, n);
+
+		double[] offset = {0.0, 0.5*deltaTime, 0.5*deltaTime, deltaTime}; // time of each stage after the start
+		double[] weight = {1.0, 2.0, 2.0, 1.0}; // weight of each stage in the sums
+		for (int stage=0; stage<4; stage++){
+			if(stage > 0){
+				// the stage starts from the initial state, stepped by the previous stage's derivatives
+				double h = offset[stage];
+				BunchKernel.axpy(sx, 0, x, from, h, svx, 0, n);
+				BunchKernel.axpy(sy, 0, y, from, h, svy, 0, n);
+				BunchKernel.axpy(sz, 0, z, from, h, svz, 0, n);
+				BunchKernel.axpy(svx, 0, vx, from, h, kx, 0, n);
+				BunchKernel.axpy(svy, 0, vy, from, h, ky, 0, n);
+				BunchKernel.axpy(svz, 0, vz, from, h, kz, 0, n);
+			}
+			Arrays.fill(kx, 0, n, 0.0);
+			Arrays.fill(ky, 0, n, 0.0);
+			Arrays.fill(kz, 0, n, 0.0);
+			for (GeneralEMField field : fields){
+				field.addAccelerations(sx, sy, sz, svx, svy, svz, m, q, time + offset[stage], kx, ky, kz, 0, n);
+			}
+			if(stage == 0){
+				System.arraycopy(svx, 0, sumVx, 0, n);
+				System.arraycopy(svy, 0, sumVy, 0, n);
+				System.arraycopy(svz, 0, sumVz, 0, n);
+				System.arraycopy(kx, 0, sumAx, 0, n);
+				System.arraycopy(ky, 0, sumAy, 0, n);
+				System.arraycopy(kz, 0, sumAz, 0, n);
+			}else{
+				BunchKernel.axpy(sumVx, 0, sumVx, 0, weight[stage], svx, 0, n);
+				BunchKernel.axpy(sumVy, 0, sumVy, 0, weight[stage], svy, 0, n);
+				BunchKernel.axpy(sumVz, 0, sumVz, 0, weight[stage], svz, 0, n);
+				BunchKernel.axpy(sumAx, 0, sumAx, 0, weight[stage], kx, 0, n);
+				BunchKernel.axpy(sumAy, 0, sumAy, 0, weight[stage], ky, 0, n);
+				BunchKernel.axpy(sumAz, 0, sumAz, 0, weight[stage], kz, 0, n);
+			}
+		}
+
+		double sixth = deltaTime/6.0;
+		BunchKernel.axpy(x, from, x, from, sixth, sumVx, 0, n); // s = u + h/6 (v1 + 2 v2 + 2 v3 + v4)
+		BunchKernel.axpy(y, from, y, from, sixth, sumVy, 0, n);
+		BunchKernel.axpy(z, from, z, from, sixth, sumVz, 0, n);
+		BunchKernel.axpy(vx, from, vx, from, sixth, sumAx, 0, n); // v = u + h/6 (a1 + 2 a2 + 2 a3 + a4)
+		BunchKernel.axpy(vy, from, vy, from, sixth, sumAy, 0, n);
+		BunchKernel.axpy(vz, from, vz, from, sixth, sumAz, 0, n);
+	}
+
+	/**
+	* Add every particle of the bunch to a set of statistics
+	* @param stats the statistics to add to
+	*/
+	@Override
+	protected void gather(BunchStatistics stats){
+		for (int i=0; i<size; i++){
+			stats.add(x[i], y[i], z[i], vx[i], vy[i], vz[i], getKE(i));
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.*;
 public class ChargedParticle extends Particle{
 
 	protected double charge; //the electric charge of the particle in C
+	protected double stepSize=0.0; //the step size suggested by the last adaptive update (0 => not yet set)
     
 	/**
 	* The Default Constructor. Sets everything to zero.
@@ -64,57 +65,63 @@ public class ChargedParticle extends Particle{
 	}
 	
 	/**
-	* Update the position and velocity of the particle using the runge-kutta 4 method
+	* Update the position and velocity of the particle using the classical runge-kutta 4 method.
+	* Each stage evaluates the fields at its own position and velocity: the first at the start of the step,
+	* the others at the start moved by half a step, half a step and a whole step along the previous stage.
+	* The arithmetic is that of ChargedBunch.rk4, so a particle and a bunch of one agree.
 	* @param fields The fields in the simulation
 	* @param time the time
 	* @param deltaTime  The change in time
 	*/
 	public void rk4(double deltaTime, ArrayList<GeneralEMField> fields, double time)
 	{
+		ChargedParticle stage = new ChargedParticle(mass, charge, new PhysicsVector(position), new PhysicsVector(velocity));
+		PhysicsVector k = new PhysicsVector(); // acceleration of the stage
+		PhysicsVector sumV = new PhysicsVector(); // weighted sum of the stage velocities
+		PhysicsVector sumA = new PhysicsVector(); // weighted sum of the stage accelerations
+		double[] offset = {0.0, 0.5*deltaTime, 0.5*deltaTime, deltaTime}; // time of each stage after the start
+		double[] weight = {1.0, 2.0, 2.0, 1.0}; // weight of each stage in the sums
 
-		PhysicsVector k1x = new PhysicsVector(this.getVelocity());
-		PhysicsVector k1v = new PhysicsVector(this.getAcceleration());
-		PhysicsVector x1 = new PhysicsVector(this.getPosition());
-		PhysicsVector v1 = new PhysicsVector(this.getVelocity());
-		x1.increaseBy(PhysicsVector.scale((deltaTime),k1x));
-		v1.increaseBy(PhysicsVector.scale((deltaTime),k1v));
-		PhysicsVector k2x = new PhysicsVector(v1);
-		PhysicsVector k2v = new PhysicsVector();
-		
-		for (GeneralEMField field : fields){
-			k2v.increaseBy(field.getAcceleration(this, time+(deltaTime),v1));
-		}	
-		
-		PhysicsVector x2 = new PhysicsVector(this.getPosition());
-		PhysicsVector v2 = new PhysicsVector(this.getVelocity());
-		x2.increaseBy(PhysicsVector.scale((deltaTime/2),k2x));
-		v2.increaseBy(PhysicsVector.scale((deltaTime/2),k2v));
-		PhysicsVector k3x = new PhysicsVector(v2);
-		PhysicsVector k3v = new PhysicsVector();
+		for (int s=0; s<4; s++){
+			if(s > 0){
+				// the stage starts from the initial state, stepped by the previous stage's derivatives
+				stage.position.setVector(position);
+				stage.position.addScaled(offset[s], stage.velocity);
+				stage.velocity.setVector(velocity);
+				stage.velocity.addScaled(offset[s], k);
+			}
+			k.setVector(0,0,0);
+			for (GeneralEMField field : fields){
+				field.addAcceleration(stage, time+offset[s], stage.velocity, k);
+			}
+			if(s == 0){
+				sumV.setVector(stage.velocity);
+				sumA.setVector(k);
+			}else{
+				sumV.addScaled(weight[s], stage.velocity);
+				sumA.addScaled(weight[s], k);
+			}
+		}
 
-		
-		for (GeneralEMField field : fields){
-			//k3v.increaseBy(field.getAcceleration(this, time+(deltaTime/2),v2));
-		}	
-		
-		PhysicsVector x3 = new PhysicsVector(this.getPosition());
-		PhysicsVector v3 = new PhysicsVector(this.getVelocity());
-		x3.increaseBy(PhysicsVector.scale(deltaTime,k3x));
-		v3.increaseBy(PhysicsVector.scale(deltaTime,k3v));
-		PhysicsVector k4x = new PhysicsVector(v3);
-		PhysicsVector k4v = new PhysicsVector();
-		
-		
-		for (GeneralEMField field : fields){
-			//k4v.increaseBy(field.getAcceleration(this, time+(deltaTime),v3));
-		}	
-		
-		PhysicsVector x4 = new PhysicsVector(PhysicsVector.add(this.getPosition(), PhysicsVector.scale(deltaTime/2, PhysicsVector.add(k1x, PhysicsVector.add(PhysicsVector.scale(2,k2x), PhysicsVector.add(PhysicsVector.scale(2,k3x),k4x))))));
-		PhysicsVector v4 = new PhysicsVector(PhysicsVector.add(this.getVelocity(), PhysicsVector.scale(deltaTime/2, PhysicsVector.add(k1v, PhysicsVector.add(PhysicsVector.scale(2,k2v), PhysicsVector.add(PhysicsVector.scale(2,k3v),k4v))))));
-		
-		
-		position = x4;
-		velocity = v4;
+		position.addScaled(deltaTime/6.0, sumV); // s = u + h/6 (v1 + 2 v2 + 2 v3 + v4)
+		velocity.addScaled(deltaTime/6.0, sumA); // v = u + h/6 (a1 + 2 a2 + 2 a3 + a4)
+	}
+    
+	/**
+	* Update the position and velocity of the particle using the adaptive Dormand-Prince 5(4) method.
+	* The particle is advanced from time to time+deltaTime in as many steps as the tolerances of the
+	* integrator need, starting from the step size left by the previous update.
+	* @param deltaTime  The change in time
+	* @param fields The fields in the simulation
+	* @param time the time
+	* @param integrator the integrator holding the tolerances and scratch space
+	*/
+	public void dormandPrince(double deltaTime, ArrayList<GeneralEMField> fields, double time, DormandPrince integrator)
+	{
+		double[] state = {position.getX(), position.getY(), position.getZ(), velocity.getX(), velocity.getY(), velocity.getZ()};
+		stepSize = integrator.advance(state, mass, charge, fields, time, deltaTime, stepSize);
+		position.setVector(state[0], state[1], state[2]);
+		velocity.setVector(state[3], state[4], state[5]);
 	}
     
 		/**
@@ -136,7 +143,7 @@ public class ChargedParticle extends Particle{
 		PhysicsVector k2v = new PhysicsVector();
 		
 		for (GeneralEMField field : fields){
-			k2v.increaseBy(field.getAcceleration(this, time+(deltaTime),v1));
+			field.addAcceleration(this, time+(deltaTime), v1, k2v);
 		}	
 		
 	
@@ -0,0 +1,315 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+/**
+* A Class which holds a snapshot of a running simulation, from which the run can be continued exactly,
+* and reads and writes it as a binary file.
+* The snapshot holds the phase space and every other per particle value the pusher keeps (step sizes of the
+* adaptive method, passes through the gap, KE at entry to the gap and unwrapped headings), the time and time step,
+* the revolution, gap crossing and KE totals of the run, the pusher's running totals and the section crossings of each particle.
+* A file is written to a temporary file and flushed to disk before it replaces the previous one, so a
+* checkpoint on disk is always complete.
+* <p>
+* File layout (big-endian): long magic, int version, long configuration hash, int method, int part, double time, double time step,
+* int revolutions, int times crossed, double total KE, int in zone, double KE at entry, double centroid angle,
+* double centroid vx, vy, vz, long gap passes, double gap gain, int crossings of the bunch, int number of crossing gains,
+* int number of particles, int section (0 or 1), then the gain of each crossing as doubles, then x, y, z, vx, vy, vz, mass, charge, step size, entry KE and heading of every particle as doubles,
+* passes as ints and, with a section, the section crossings as ints.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class Checkpoint {
+
+	public static final long MAGIC = 0x4359434C434B5054L; // "CYCLCKPT"
+	public static final int VERSION = 3;
+	private static final int CHUNK = 1 << 17; // values copied through the buffer at a time
+
+	protected long config; // hash of the parameters of the run, which must match to continue it
+	protected int method; // the update method of the run
+	protected int part; // number of times the run has been continued from a checkpoint
+	protected double time; // simulation time in s
+	protected double stepTime; // time step of the run in s
+	protected int nRev; // number of revolutions counted so far
+	protected int timesCrossed; // number of times the bunch has crossed the gap
+	protected double totalKE; // sum of the change in KE over the crossings so far in J
+	protected boolean inZone; // true while the centroid is in the gap (without gap events)
+	protected double kE1; // KE of the bunch as the centroid entered the gap in J (without gap events)
+	protected double angle; // angle the average velocity of the bunch has turned through in rad
+	protected double[] velocity = new double[3]; // average velocity of the bunch in m/s
+	protected long gapPasses; // passes through the gap counted by the pusher
+	protected double gapGain; // change in KE over those passes in J
+	protected int bunchCrossings; // crossings of the gap made by every particle, counted by the pusher
+	protected double[] crossingGains = new double[0]; // change in KE over each crossing in J, indexed by the number of the crossing
+	protected int size; // number of particles
+	protected double[] x, y, z, vx, vy, vz, mass, charge, stepSize, entryKE, heading;
+	protected int[] passes;
+	protected int[] crossings; // crossings of the section plane of each particle (null => no section)
+
+	/**
+	* Default constructor for an empty checkpoint, filled by capture
+	*/
+	public Checkpoint(){
+	}
+
+	/**
+	* Copy the state of the particles into the checkpoint, reusing its arrays when they are big enough.
+	* Called from the simulation thread between steps, so the copy is consistent.
+	* @param bunch the bunch being pushed
+	* @param pusher the pusher of the bunch
+	* @param section the section recording the bunch (null => none)
+	*/
+	public void capture(BunchArrays bunch, BunchPusher pusher, PoincareSection section){
+		size = bunch.size();
+		if(x == null || x.length < size){
+			x = new double[size];
+			y = new double[size];
+			z = new double[size];
+			vx = new double[size];
+			vy = new double[size];
+			vz = new double[size];
+			mass = new double[size];
+			charge = new double[size];
+			stepSize = new double[size];
+			entryKE = new double[size];
+			heading = new double[size];
+			passes = new int[size];
+		}
+		double[] state = new double[6];
+		for (int i=0; i<size; i++){
+			bunch.getState(i, state);
+			x[i] = state[0];
+			y[i] = state[1];
+			z[i] = state[2];
+			vx[i] = state[3];
+			vy[i] = state[4];
+			vz[i] = state[5];
+		}
+		System.arraycopy(bunch.mass, 0, mass, 0, size);
+		System.arraycopy(bunch.charge, 0, charge, 0, size);
+		System.arraycopy(bunch.stepSize, 0, stepSize, 0, size);
+		System.arraycopy(bunch.entryKE, 0, entryKE, 0, size);
+		System.arraycopy(bunch.heading, 0, heading, 0, size);
+		System.arraycopy(bunch.passes, 0, passes, 0, size);
+		gapPasses = pusher.getGapPasses();
+		gapGain = pusher.getGapGain();
+		bunchCrossings = pusher.getCrossings();
+		crossingGains = pusher.getCrossingGains();
+		if(section == null){
+			crossings = null;
+		}else{
+			if(crossings == null || crossings.length < size){
+				crossings = new int[size];
+			}
+			System.arraycopy(section.crossings, 0, crossings, 0, size);
+		}
+	}
+
+	/**
+	* Put the particles of the checkpoint back into a bunch of the same size, and the pusher's totals back into the pusher
+	* @param bunch the bunch to overwrite
+	* @param pusher the pusher of the bunch
+	* @param section the section recording the bunch (null => none)
+	*/
+	public void restore(BunchArrays bunch, BunchPusher pusher, PoincareSection section){
+		if(bunch.size() != size){
+			throw new IllegalArgumentException("The checkpoint holds " + size + " particles, not " + bunch.size());
+		}
+		double[] state = new double[6];
+		for (int i=0; i<size; i++){
+			state[0] = x[i];
+			state[1] = y[i];
+			state[2] = z[i];
+			state[3] = vx[i];
+			state[4] = vy[i];
+			state[5] = vz[i];
+			bunch.setState(i, state);
+		}
+		System.arraycopy(mass, 0, bunch.mass, 0, size);
+		System.arraycopy(charge, 0, bunch.charge, 0, size);
+		System.arraycopy(stepSize, 0, bunch.stepSize, 0, size);
+		System.arraycopy(entryKE, 0, bunch.entryKE, 0, size);
+		System.arraycopy(heading, 0, bunch.heading, 0, size);
+		System.arraycopy(passes, 0, bunch.passes, 0, size);
+		bunch.markModified();
+		pusher.setGapTotals(gapPasses, gapGain, crossingGains, bunchCrossings);
+		if(section != null && crossings != null){
+			System.arraycopy(crossings, 0, section.crossings, 0, size);
+		}
+	}
+
+	/**
+	* Write the checkpoint to a file, replacing any previous one only once the new one is complete
+	* @param fileName the file to write
+	*/
+	public void write(String fileName) throws IOException {
+		Path path = Paths.get(fileName);
+		Path temporary = Paths.get(fileName + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(8*CHUNK);
+			buffer.putLong(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(config);
+			buffer.putInt(method);
+			buffer.putInt(part);
+			buffer.putDouble(time);
+			buffer.putDouble(stepTime);
+			buffer.putInt(nRev);
+			buffer.putInt(timesCrossed);
+			buffer.putDouble(totalKE);
+			buffer.putInt(inZone ? 1 : 0);
+			buffer.putDouble(kE1);
+			buffer.putDouble(angle);
+			buffer.putDouble(velocity[0]);
+			buffer.putDouble(velocity[1]);
+			buffer.putDouble(velocity[2]);
+			buffer.putLong(gapPasses);
+			buffer.putDouble(gapGain);
+			buffer.putInt(bunchCrossings);
+			buffer.putInt(crossingGains.length);
+			buffer.putInt(size);
+			buffer.putInt((crossings != null) ? 1 : 0);
+			drain(channel, buffer);
+			buffer.asDoubleBuffer().put(crossingGains);
+			buffer.position(8*crossingGains.length);
+			drain(channel, buffer);
+			for (double[] values : new double[][]{x, y, z, vx, vy, vz, mass, charge, stepSize, entryKE, heading}){
+				for (int from=0; from<size; from+=CHUNK){
+					int n = Math.min(CHUNK, size - from);
+					buffer.asDoubleBuffer().put(values, from, n);
+					buffer.position(8*n);
+					drain(channel, buffer);
+				}
+			}
+			for (int[] values : (crossings != null) ? new int[][]{passes, crossings} : new int[][]{passes}){
+				for (int from=0; from<size; from+=CHUNK){
+					int n = Math.min(CHUNK, size - from);
+					buffer.asIntBuffer().put(values, from, n);
+					buffer.position(4*n);
+					drain(channel, buffer);
+				}
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	* Read a checkpoint file
+	* @param fileName the file to read
+	* @return the checkpoint
+	*/
+	public static Checkpoint read(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)){
+			ByteBuffer buffer = ByteBuffer.allocateDirect(8*CHUNK);
+			fill(channel, buffer, 8 + 4 + 8 + 4*2 + 8*2 + 4 + 4 + 8 + 4 + 8*5 + 8 + 8 + 4 + 4 + 4 + 4);
+			if(buffer.getLong() != MAGIC){
+				throw new IOException(fileName + " is not a checkpoint file");
+			}
+			int version = buffer.getInt();
+			if(version != VERSION){
+				throw new IOException("Unsupported checkpoint file version " + version);
+			}
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.config = buffer.getLong();
+			checkpoint.method = buffer.getInt();
+			checkpoint.part = buffer.getInt();
+			checkpoint.time = buffer.getDouble();
+			checkpoint.stepTime = buffer.getDouble();
+			checkpoint.nRev = buffer.getInt();
+			checkpoint.timesCrossed = buffer.getInt();
+			checkpoint.totalKE = buffer.getDouble();
+			checkpoint.inZone = buffer.getInt() != 0;
+			checkpoint.kE1 = buffer.getDouble();
+			checkpoint.angle = buffer.getDouble();
+			for (int c=0; c<3; c++){
+				checkpoint.velocity[c] = buffer.getDouble();
+			}
+			checkpoint.gapPasses = buffer.getLong();
+			checkpoint.gapGain = buffer.getDouble();
+			checkpoint.bunchCrossings = buffer.getInt();
+			int gains = buffer.getInt();
+			int size = buffer.getInt();
+			boolean hasSection = buffer.getInt() != 0;
+			if(gains < 0 || gains > CHUNK){
+				throw new IOException(fileName + " holds " + gains + " crossing gains");
+			}
+			checkpoint.crossingGains = new double[gains];
+			fill(channel, buffer, 8*gains);
+			buffer.asDoubleBuffer().get(checkpoint.crossingGains);
+			checkpoint.size = size;
+			double[][] doubles = new double[11][];
+			for (int a=0; a<doubles.length; a++){
+				doubles[a] = new double[size];
+				for (int from=0; from<size; from+=CHUNK){
+					int n = Math.min(CHUNK, size - from);
+					fill(channel, buffer, 8*n);
+					buffer.asDoubleBuffer().get(doubles[a], from, n);
+				}
+			}
+			int[][] ints = new int[hasSection ? 2 : 1][];
+			for (int a=0; a<ints.length; a++){
+				ints[a] = new int[size];
+				for (int from=0; from<size; from+=CHUNK){
+					int n = Math.min(CHUNK, size - from);
+					fill(channel, buffer, 4*n);
+					buffer.asIntBuffer().get(ints[a], from, n);
+				}
+			}
+			checkpoint.x = doubles[0];
+			checkpoint.y = doubles[1];
+			checkpoint.z = doubles[2];
+			checkpoint.vx = doubles[3];
+			checkpoint.vy = doubles[4];
+			checkpoint.vz = doubles[5];
+			checkpoint.mass = doubles[6];
+			checkpoint.charge = doubles[7];
+			checkpoint.stepSize = doubles[8];
+			checkpoint.entryKE = doubles[9];
+			checkpoint.heading = doubles[10];
+			checkpoint.passes = ints[0];
+			checkpoint.crossings = hasSection ? ints[1] : null;
+			return checkpoint;
+		}
+	}
+
+	/**
+	* Write the filled part of the buffer to the file and clear it
+	*/
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	* Read a number of bytes from the file into the start of the buffer, ready to be read
+	*/
+	private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		buffer.clear();
+		buffer.limit(bytes);
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer) < 0){
+				throw new EOFException("The checkpoint file ends early");
+			}
+		}
+		buffer.flip();
+	}
+
+	public int getMethod(){
+		return method;
+	}
+
+	public long getConfig(){
+		return config;
+	}
+
+	public double getTime(){
+		return time;
+	}
+}
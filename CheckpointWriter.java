@@ -0,0 +1,102 @@
+import java.io.*;
+import java.util.concurrent.*;
+/**
+* A Class which writes checkpoints of a running simulation on its own thread.
+* The simulation thread copies its state into one of two reusable checkpoints between steps and hands it
+* to the writer thread, so it never waits for the disk. If both are still in use because the disk is slower
+* than the cadence, the checkpoint is skipped; the next one is taken as usual.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class CheckpointWriter implements Closeable {
+
+	private static final Checkpoint END = new Checkpoint(); // tells the writer thread to finish
+
+	protected final String fileName; // the checkpoint file, replaced by each checkpoint
+	private final ArrayBlockingQueue<Checkpoint> queue = new ArrayBlockingQueue<Checkpoint>(3); // checkpoints waiting to be written, and the end
+	private final ArrayBlockingQueue<Checkpoint> spare = new ArrayBlockingQueue<Checkpoint>(2); // checkpoints ready for reuse
+	private final Thread writer;
+	private volatile IOException failure; // error on the writer thread, rethrown to the simulation
+	private long skipped = 0; // number of checkpoints skipped because the writer was busy
+
+	/**
+	* Constructor which starts the writer thread
+	* @param fileName the checkpoint file
+	*/
+	public CheckpointWriter(String fileName){
+		this.fileName = fileName;
+		spare.add(new Checkpoint());
+		spare.add(new Checkpoint());
+		writer = new Thread(this::drain, "checkpoint-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	* Return a checkpoint for the simulation to fill. Called from the simulation thread between steps.
+	* @return the checkpoint to fill and pass to save, or null if the writer is still busy with both
+	*/
+	public Checkpoint next() throws IOException {
+		if(failure != null){
+			throw failure;
+		}
+		Checkpoint checkpoint = spare.poll();
+		if(checkpoint == null){
+			skipped++;
+		}
+		return checkpoint;
+	}
+
+	/**
+	* Hand a filled checkpoint to the writer thread
+	* @param checkpoint the checkpoint returned by next
+	*/
+	public void save(Checkpoint checkpoint){
+		queue.add(checkpoint);
+	}
+
+	/**
+	* Return the number of checkpoints skipped because the writer was still busy
+	* @return the number of checkpoints skipped
+	*/
+	public long getSkipped(){
+		return skipped;
+	}
+
+	/**
+	* Write any checkpoint still waiting and stop the writer thread
+	*/
+	public void close() throws IOException {
+		queue.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing checkpoint file");
+		}
+		if(failure != null){
+			throw failure;
+		}
+	}
+
+	/**
+	* Body of the writer thread: write checkpoints until told to finish
+	*/
+	private void drain(){
+		try {
+			while(true){
+				Checkpoint checkpoint = queue.take();
+				if(checkpoint == END){
+					break;
+				}
+				checkpoint.write(fileName);
+				spare.offer(checkpoint);
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			failure = new InterruptedIOException("Checkpoint writer interrupted");
+		}
+	}
+}
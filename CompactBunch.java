@@ -0,0 +1,264 @@
+import java.util.*;
+/**
+* A Class to represent a bunch of charged particles whose phase space is stored in single precision,
+* for bunches so large that memory bandwidth limits the push.
+* Each position and velocity component is held as a float, together with a short holding what the rounding
+* to float lost, in 1/65536ths of the float's last place. Like the compensation of Kahan's summation this is
+* added back before the next step, so the small change each step makes is never lost to rounding and the
+* orbits do not drift; a component is kept to about 2 parts in 10^12 in 6 bytes rather than 8.
+* The accelerations are not stored at all.
+* <p>
+* The particles are not updated here: BunchPusher loads a block of them into a ChargedBunch of doubles,
+* pushes it exactly as it would any other bunch and stores it back, so every update is computed in double.
+* The fields, checkpoints and trajectory files read and write the particles through getState and setState.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class CompactBunch extends BunchArrays {
+
+	private static final int FRACTION = 16; // bits of the compensation, kept below the last place of the float
+
+	protected float[] fx, fy, fz; // position components of each particle rounded to float, in m
+	protected float[] fvx, fvy, fvz; // velocity components of each particle rounded to float, in m/s
+	protected short[] cx, cy, cz, cvx, cvy, cvz; // what the rounding of each component lost, in 2^-16 of the float's last place
+	protected boolean compensated = true; // false to store plain floats, to see what the compensation gains
+
+	/**
+	* Constructor for an empty bunch with room for a given number of particles
+	* @param capacity the number of particles the bunch can hold before it has to grow
+	*/
+	public CompactBunch(int capacity){
+		super(capacity);
+		fx = new float[capacity];
+		fy = new float[capacity];
+		fz = new float[capacity];
+		fvx = new float[capacity];
+		fvy = new float[capacity];
+		fvz = new float[capacity];
+		cx = new short[capacity];
+		cy = new short[capacity];
+		cz = new short[capacity];
+		cvx = new short[capacity];
+		cvy = new short[capacity];
+		cvz = new short[capacity];
+	}
+
+	/**
+	* Constructor which copies the particles of a Bunch into the arrays
+	* @param bunch the bunch of charged particles to copy
+	*/
+	public CompactBunch(Bunch<? extends ChargedParticle> bunch){
+		this(16);
+		Iterator<? extends ChargedParticle> bunchIt = bunch.iterator();
+		while(bunchIt.hasNext()){
+			addParticle(bunchIt.next());
+		}
+	}
+
+	/**
+	* Choose whether the rounding of each component is compensated. Set before the particles are added.
+	* @param compensated false to store plain floats
+	*/
+	public void setCompensated(boolean compensated){
+		this.compensated = compensated;
+		if(!compensated){
+			for (short[] c : new short[][]{cx, cy, cz, cvx, cvy, cvz}){
+				Arrays.fill(c, (short)0);
+			}
+		}
+	}
+
+	/**
+	* Enlarge the arrays of the positions and velocities
+	* @param capacity the new number of particles the arrays can hold
+	*/
+	@Override
+	protected void growPhaseSpace(int capacity){
+		fx = Arrays.copyOf(fx, capacity);
+		fy = Arrays.copyOf(fy, capacity);
+		fz = Arrays.copyOf(fz, capacity);
+		fvx = Arrays.copyOf(fvx, capacity);
+		fvy = Arrays.copyOf(fvy, capacity);
+		fvz = Arrays.copyOf(fvz, capacity);
+		cx = Arrays.copyOf(cx, capacity);
+		cy = Arrays.copyOf(cy, capacity);
+		cz = Arrays.copyOf(cz, capacity);
+		cvx = Arrays.copyOf(cvx, capacity);
+		cvy = Arrays.copyOf(cvy, capacity);
+		cvz = Arrays.copyOf(cvz, capacity);
+	}
+
+	/**
+	* Return a stored component: the float with what its rounding lost added back
+	*/
+	private static double get(float[] rounded, short[] lost, int i){
+		float f = rounded[i];
+		return f + lost[i]*power(exponent(f) - 23 - FRACTION);
+	}
+
+	/**
+	* Store a component as the nearest float, keeping what the rounding loses in the compensation
+	*/
+	private void set(float[] rounded, short[] lost, int i, double value){
+		float f = (float)value;
+		rounded[i] = f;
+		if(compensated){
+			// the rounding loses at most half the float's last place, 2^15 in units of the compensation,
+			// and cutting off the fraction of a unit keeps the component to 2^-16 of the float's last place
+			int fraction = (int)((value - f)*power(23 + FRACTION - exponent(f)));
+			lost[i] = (short)Math.min(fraction, Short.MAX_VALUE);
+		}
+	}
+
+	/**
+	* Return the exponent of a float from its bits (faster than Math.getExponent, and -127 for zero)
+	*/
+	private static int exponent(float f){
+		return ((Float.floatToRawIntBits(f) >>> 23) & 0xFF) - 127;
+	}
+
+	/**
+	* Return 2^n as a double built from its bits (much faster than Math.scalb, which the push would spend most of its time in)
+	*/
+	private static double power(int n){
+		return Double.longBitsToDouble((long)(n + 1023) << 52);
+	}
+
+	/**
+	* Copy a particle in the bunch into an existing charged particle without allocating
+	* @param i the index of the particle
+	* @param particle the charged particle to overwrite
+	* @return the overwritten particle
+	*/
+	@Override
+	public ChargedParticle getParticle(int i, ChargedParticle particle){
+		particle.setMass(mass[i]);
+		particle.setCharge(charge[i]);
+		particle.position.setVector(get(fx, cx, i), get(fy, cy, i), get(fz, cz, i));
+		particle.velocity.setVector(get(fvx, cvx, i), get(fvy, cvy, i), get(fvz, cvz, i));
+		return particle;
+	}
+
+	/**
+	* Set the position and velocity of a particle in the bunch from a charged particle
+	* @param i the index of the particle
+	* @param particle the particle whose position and velocity are copied
+	*/
+	@Override
+	public void setParticle(int i, ChargedParticle particle){
+		set(fx, cx, i, particle.position.getX());
+		set(fy, cy, i, particle.position.getY());
+		set(fz, cz, i, particle.position.getZ());
+		set(fvx, cvx, i, particle.velocity.getX());
+		set(fvy, cvy, i, particle.velocity.getY());
+		set(fvz, cvz, i, particle.velocity.getZ());
+	}
+
+	/**
+	* Copy the position and velocity of a particle into an array
+	* @param i the index of the particle
+	* @param state array of length 6 filled with {x, y, z, vx, vy, vz}
+	*/
+	@Override
+	public void getState(int i, double[] state){
+		state[0] = get(fx, cx, i);
+		state[1] = get(fy, cy, i);
+		state[2] = get(fz, cz, i);
+		state[3] = get(fvx, cvx, i);
+		state[4] = get(fvy, cvy, i);
+		state[5] = get(fvz, cvz, i);
+	}
+
+	/**
+	* Set the position and velocity of a particle from an array
+	* @param i the index of the particle
+	* @param state array of length 6 holding {x, y, z, vx, vy, vz}
+	*/
+	@Override
+	public void setState(int i, double[] state){
+		set(fx, cx, i, state[0]);
+		set(fy, cy, i, state[1]);
+		set(fz, cz, i, state[2]);
+		set(fvx, cvx, i, state[3]);
+		set(fvy, cvy, i, state[4]);
+		set(fvz, cvz, i, state[5]);
+	}
+
+	/**
+	* Return the kinetic energy of a particle in the bunch
+	* @param i the index of the particle
+	* @return the kinetic energy in J
+	*/
+	@Override
+	public double getKE(int i){
+		double vx = get(fvx, cvx, i), vy = get(fvy, cvy, i), vz = get(fvz, cvz, i);
+		double speed = Math.sqrt(vx*vx + vy*vy + vz*vz);
+		return 0.5*mass[i]*speed*speed;
+	}
+
+	/**
+	* Copy a block of the particles into a bunch of doubles, which is pushed in place of them
+	* @param from the index of the first particle of the block
+	* @param to one past the index of the last particle of the block
+	* @param block the bunch the particles are copied to, from index 0, with room for them all
+	*/
+	@Override
+	public void load(int from, int to, ChargedBunch block){
+		int n = to - from;
+		load(fx, cx, from, block.x, n);
+		load(fy, cy, from, block.y, n);
+		load(fz, cz, from, block.z, n);
+		load(fvx, cvx, from, block.vx, n);
+		load(fvy, cvy, from, block.vy, n);
+		load(fvz, cvz, from, block.vz, n);
+		loadValues(from, to, block);
+	}
+
+	/**
+	* Copy a block of particles back from the bunch of doubles it was pushed in, rounding the phase space to float
+	* @param from the index of the first particle of the block
+	* @param to one past the index of the last particle of the block
+	* @param block the bunch the block was loaded into
+	*/
+	@Override
+	public void store(int from, int to, ChargedBunch block){
+		int n = to - from;
+		store(fx, cx, from, block.x, n);
+		store(fy, cy, from, block.y, n);
+		store(fz, cz, from, block.z, n);
+		store(fvx, cvx, from, block.vx, n);
+		store(fvy, cvy, from, block.vy, n);
+		store(fvz, cvz, from, block.vz, n);
+		storeValues(from, to, block);
+	}
+
+	/**
+	* Copy one component of n particles, from the first, into an array of doubles (a loop per component runs faster than one loop over all six)
+	*/
+	private static void load(float[] rounded, short[] lost, int first, double[] out, int n){
+		for (int j=0; j<n; j++){
+			out[j] = get(rounded, lost, first + j);
+		}
+	}
+
+	/**
+	* Store one component of n particles from an array of doubles, from the first
+	*/
+	private void store(float[] rounded, short[] lost, int first, double[] in, int n){
+		for (int j=0; j<n; j++){
+			set(rounded, lost, first + j, in[j]);
+		}
+	}
+
+	/**
+	* Add every particle of the bunch to a set of statistics
+	* @param stats the statistics to add to
+	*/
+	@Override
+	protected void gather(BunchStatistics stats){
+		for (int i=0; i<size; i++){
+			stats.add(get(fx, cx, i), get(fy, cy, i), get(fz, cz, i), get(fvx, cvx, i), get(fvy, cvy, i), get(fvz, cvz, i), getKE(i));
+		}
+	}
+}
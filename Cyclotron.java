@@ -1,6 +1,7 @@
 import java.lang.Math;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.*;
 
 
 public class Cyclotron  {
@@ -8,65 +9,43 @@ public class Cyclotron  {
         * Main method to simulate the motion of a charged particle in a cyclotron
         *
         */
-	 static double timeStep=0.00001; // time step in seconds
    	 public static void main (String[] args) throws IOException
    	 {
 		
 		//simulation controls
-		int method = 0; //variable which stores the type of method being used, 1 is Euler method and 2 is Euler-Cromer
-		double time=0.0; // set simulation time
-		double timeMeasure = 100;
-		double oldDisplacement=0.0;
-		double displacement=0.0;
-		boolean converge=false; // flag to indicate whether proton is approaching or diverging from the origin
-		int nRev=0; // number of orbits the proton completes
-		double timeStep=0.00001; // time step in seconds
-   	 	double maxTime=100000000; // maximum simulation time in seconds
-   	 	int maxRev=10; // number of orbital revolutions for proton
-		char rDist='U'; // the random distribution to use (U for uniform, G for Gaussian)
-		String FileName = (" "); //variable for name of output file (gets changed later)
-		double phase = (Math.PI); //phase angle of the oscillating field
-		boolean inZone = false; //boolean to check if the bunch is in the accelerating field
-		double kE1 = 0;
-		double kE2 = 0; //variables to store the bunches kE at the start and end of accelerating field
-		double totalKE = 0;
-		double timesCrossed = 0;//number of times the bunch has crossed the gap
+		int method = 0; //variable which stores the type of method being used, 1 is Euler method, 2 is Euler-Cromer, 3 is Runge-Kutta 4, 4 is Boris and 5 is Dormand-Prince
+		int nThreads = 1; //number of threads each bunch is pushed on
+		boolean recordParticles = false; //true to write every particle's x, y, vx and vy as well as the centroid
+		
+		//Arguments: an optional thread count followed by key=value settings.
+		//config=<file> reads the settings from a properties file first, methods=1,3,4 runs those methods
+		//together without asking, and any other key sets a parameter of the simulation (see CyclotronSimulation.configure)
+		Properties settings = readSettings(args);
+		nThreads = Integer.parseInt(settings.getProperty("threads", String.valueOf(nThreads)));
+		recordParticles = Boolean.parseBoolean(settings.getProperty("recordParticles", String.valueOf(recordParticles)));
+		CyclotronSimulation simulation = new CyclotronSimulation();
+		simulation.configure(settings);
 		
+		//create bunch
+		Bunch<ChargedParticle> pBunch = simulation.createBunch();
+   	 	System.out.println(pBunch);
+   	 	System.out.println("Seed of the bunch: " + pBunch.getSeed() + " (set seed=" + pBunch.getSeed() + " to generate it again)");
+   	 	System.out.println(BunchKernel.isVectorised() ? "Pushing " + BunchKernel.lanes() + " particles per instruction with the Vector API"
+   	 		: "Pushing one particle at a time (run with --add-modules jdk.incubator.vector to use the Vector API)");
 		
-		//bunch parameters
-		final double pMass=1.67262178E-27; // proton mass in kg
-   	 	final double pCharge=1.60217657e-19; // proton charge in Coulombs
-		int nProtons = 15;
-		double pSpeed = 1.0e-3; // initial speed of proton in ms^-1
-   	 	double Mag=1.0e-7; // magnetic flux density in Tesla
-		double radius=pMass*pSpeed/(pCharge*Mag); //calculates the radius of curvature 
-		PhysicsVector pDirn = new PhysicsVector(0,1,0); // direction of bunch at start of simulation
-   	 	PhysicsVector pDirnSpread=new PhysicsVector(0,0,0); // relative spread in the direction of the bunch at the start of the simulation
-   	 	PhysicsVector pOrigin= new PhysicsVector(); // start the proton at the origin
-   	 	PhysicsVector pSpread = new PhysicsVector(1*radius/100, 1*radius/100, 0); // absolute spread in position of particles in bunch
-		double frequency = (pCharge*Mag)/pMass; //Cyclotron Frequency
-		double pEnergy = 0.5*pMass*(pSpeed)*(pSpeed); // initial average energy of particles in bunch (non-relativistic)
-   	 	double pESpread= 0.00*pEnergy; // absolute spread in energy of particles in the bunch
-   	 	double L = 0.05*radius; //Region where the E field is active
-		
-		
-		//create cyclotron fields
-		ArrayList<GeneralEMField> cyclotron = new ArrayList<GeneralEMField>();
-		
-		GeneralEMField theBField = new EMField(new PhysicsVector(), new PhysicsVector(0,0,Mag)); //creates the B-Field
-		cyclotron.add(theBField);
-		
-		GeneralEMField theEField = new EMField(new PhysicsVector(0,Mag,0), new PhysicsVector()); //creates the E-Field
-		GeneralEMField EOscField = new OscillatingField(((GeneralEMField)theEField), frequency, phase); //makes the E-field oscillate
-		GeneralEMField EOscBndField = new BoundField(((GeneralEMField)EOscField), 999, L); //makes the E-field bound
-		cyclotron.add(EOscBndField);
+		if(settings.getProperty("methods") != null){
+			runHeadless(simulation, pBunch, parseMethods(settings.getProperty("methods")), nThreads, recordParticles);
+			return;
+		}
 		
 		//User input
 		Scanner sc = new Scanner(System.in);
-		while(method!=1 && method!=2 && method!=3){ //Gets input from the user depending on what method of updating the proton they want to use
+		while(method<1 || method>5){ //Gets input from the user depending on what method of updating the proton they want to use
 			System.out.println("Input 1 to use Euler method"); 
 			System.out.println("Input 2 to use Euler-Cromer method.");
 			System.out.println("Input 3 to use Runge-Kutta 4 method.");
+			System.out.println("Input 4 to use Boris method.");
+			System.out.println("Input 5 to use adaptive Dormand-Prince method.");
 			method = sc.nextInt();
 			if(method == 1){
 				System.out.println("Euler method selected.");
@@ -74,125 +53,114 @@ public class Cyclotron  {
 				System.out.println("Euler-Cromer method selected.");
 			}else if(method == 3){
 				System.out.println("Runge-Kutta 4 selected");
+			}else if(method == 4){
+				System.out.println("Boris method selected");
+			}else if(method == 5){
+				System.out.println("Dormand-Prince method selected");
 			}else{
-				System.out.println("Please select a number between 1 or 3.");
+				System.out.println("Please select a number between 1 or 5.");
 			}
    	 	}
 		
-		//Create File
-		if(method ==1){
-			FileName = ("plotEuler.csv");
-		}else if(method ==2){
-			FileName = ("plotEulerCrom.csv");
-		}else{
-			FileName = ("plotRK4.csv");
-		}
-		
-		File file = new File(FileName);
-		PrintWriter output = new PrintWriter(file);
-		
-		//create bunch
-		ChargedParticle proton = new ChargedParticle(pMass, pCharge);
-		Bunch<ChargedParticle> pBunch = new Bunch<ChargedParticle>();
-		for (int i=1; i<=nProtons; i++){
-   	 		pBunch.addParticle(new ChargedParticle(pMass, pCharge));
-   	 	}
-		
-		pBunch.setDist(rDist);
-   	 	pBunch.setPosition(pOrigin,pSpread);
-   	 	pBunch.setVelocity(pDirn,pDirnSpread,pEnergy,pESpread);
-   	 	System.out.println(pBunch);
-		
-		
-		
-		//Running the simulation
-		while(nRev<maxRev){// Loop over time
-			time+=timeStep;
-			
-			Iterator<ChargedParticle> bunchIt = pBunch.iterator();
-			while(bunchIt.hasNext()){
-			 	ChargedParticle aParticle=bunchIt.next();
-			
-				PhysicsVector acceleration = new PhysicsVector();
-			 	// Loop over all fields
-				for (GeneralEMField field : cyclotron){
-					acceleration.increaseBy(field.getAcceleration(aParticle, time));
-				}	
-			
-				if(method ==1){
-					aParticle.updateEuler1(timeStep, acceleration);
-				}else if(method ==2){
-					aParticle.updateEuler2(timeStep, acceleration);
-					}
-				else{
-					aParticle.rk4(timeStep, cyclotron, time);
-				}
-			
-			}	  
-		    
-			checkVelocity(pBunch, L, timeStep);
-			
-			//Check to see if bunch is in gap and check for the change in KE between start and end
-			if(inZone == false){
-				if(pBunch.getPosition().getY() <= L && pBunch.getPosition().getY() >= -L){
-					inZone = true;
-					kE1 = pBunch.getTotalKE();
-				}
-			}
-			
-			if(inZone == true){
-				if(pBunch.getPosition().getY() >= L || pBunch.getPosition().getY() <= -L){
-					inZone = false;
-					timesCrossed = timesCrossed + 1;
-					kE2 = pBunch.getTotalKE();
-					totalKE = totalKE + Math.abs(kE2-kE1);
-					System.out.println("Bunch has crossed gap: " + timesCrossed  + " times");
-					System.out.println("Difference in KE between start and end of gap: " + Math.abs(kE2-kE1) + "J");
-					System.out.println("\n");
-				}
-			}
-			
-			
-			displacement=(PhysicsVector.subtract(pBunch.getPosition(), pOrigin)).magnitude();
-		    	if (displacement>=oldDisplacement){
-		    		if (converge){
-		    			// passed through closest approach and is now diverging from origin
-		    	   	   	nRev+=1;
-		    	   	   
-		    	   	}
-		    	   	converge=false;
-		    	}
-		    	else{
-		    	   	converge=true; // proton is approaching origin
-		    	}
-		    oldDisplacement=displacement;
-				
-			if((int)(time/timeStep) % timeMeasure == 0){ //outputs average position after a certain number of iterations to not spam data
-				output.println(pBunch.getPosition().getX() + "," + pBunch.getPosition().getY());
-				output.flush();
-			}
-		}
-		System.out.println("Average difference in KE: " + (totalKE /timesCrossed) + "J");
-		System.out.println("Spread in KE " + pBunch.getSpreadKE() + "J");
-		System.out.println("Ratio of KeSpread to final KE " + (pBunch.getSpreadKE()/pBunch.getAvgKE()));
+		//copy the bunch into primitive arrays and run the time loop
+		CyclotronSimulation.Result result = simulation.run(simulation.createArrays(pBunch), method, nThreads,
+			CyclotronSimulation.getFileName(method), recordParticles, System.out);
+		System.out.println(result);
 		
 	 }
 	 
-
+	 /**
+	* Run several update methods at once, each on its own thread with its own copy of the bunch and its own trajectory file
+	* @param simulation the simulation to run
+	* @param pBunch the initial bunch, copied for each method
+	* @param methods the update methods to run
+	* @param nThreads the number of threads each bunch is pushed on
+	* @param recordParticles true to write every particle's x, y, vx and vy as well as the centroid
+	*/
+	 public static void runHeadless(final CyclotronSimulation simulation, Bunch<ChargedParticle> pBunch, int[] methods,
+		 final int nThreads, final boolean recordParticles) throws IOException
+	 {
+		 ExecutorService executor = Executors.newFixedThreadPool(methods.length);
+		 ArrayList<Future<CyclotronSimulation.Result>> results = new ArrayList<Future<CyclotronSimulation.Result>>();
+		 for (final int method : methods){
+			 final BunchArrays copy = simulation.createArrays(pBunch); //copied here, the Bunch is not safe to read from several threads
+			 System.out.println(CyclotronSimulation.getMethodName(method) + " method writing to " + CyclotronSimulation.getFileName(method));
+			 results.add(executor.submit(new Callable<CyclotronSimulation.Result>(){
+				 public CyclotronSimulation.Result call() throws IOException {
+					 return simulation.run(copy, method, nThreads, CyclotronSimulation.getFileName(method), recordParticles, null);
+				 }
+			 }));
+		 }
+		 try {
+			 for (Future<CyclotronSimulation.Result> result : results){
+				 CyclotronSimulation.Result summary = result.get();
+				 System.out.println(CyclotronSimulation.getMethodName(summary.getMethod()) + " method:");
+				 System.out.println(summary);
+				 System.out.println();
+			 }
+		 } catch (InterruptedException e) {
+			 Thread.currentThread().interrupt();
+			 throw new InterruptedIOException("Interrupted while waiting for the simulations");
+		 } catch (ExecutionException e) {
+			 if(e.getCause() instanceof IOException){
+				 throw (IOException)e.getCause();
+			 }
+			 throw new RuntimeException(e.getCause());
+		 } finally {
+			 executor.shutdownNow();
+		 }
+	 }
+	 
+	 /**
+	* Read the settings given on the command line, starting with those in the config file if one is named
+	* @param args the program arguments
+	* @return the settings
+	*/
+	 public static Properties readSettings(String[] args) throws IOException {
+		 Properties settings = new Properties();
+		 Properties overrides = new Properties();
+		 for (int i=0; i<args.length; i++){
+			 int equals = args[i].indexOf('=');
+			 if(equals > 0){
+				 overrides.setProperty(args[i].substring(0, equals).trim(), args[i].substring(equals+1).trim());
+			 }else if(i == 0){
+				 overrides.setProperty("threads", args[i]); // the thread count on its own, as before
+			 }else{
+				 throw new IllegalArgumentException("Expected key=value but found " + args[i]);
+			 }
+		 }
+		 String config = overrides.getProperty("config");
+		 if(config != null){
+			 try (Reader reader = new FileReader(config)){
+				 settings.load(reader);
+			 }
+		 }
+		 settings.putAll(overrides);
+		 return settings;
+	 }
 	 
 	 /**
-	* check to see if how fast the bunch is moving
-	* if its moving too fast i.e it will skip over the gap
-	* then lower the time step so it the bunch can be found in the gap
-	* @param deltaTime  The change in time
-	* @param Bunch The bunch of protons
-	* @param Width the width of the gap
+	* Parse a comma separated list of update methods. A method may only be named once, as each run of a method
+	* writes to the file and checkpoint named after it.
+	* @param list the list, such as "1,3,4"
+	* @return the update methods
 	*/
-	 public static void checkVelocity(Bunch<ChargedParticle> Bunch, double Width, double deltaTime){
-		 double speed = Bunch.getVelocity().magnitude();
-		 if(Width/speed < 1*deltaTime){
-			 timeStep = timeStep / 2;
+	 public static int[] parseMethods(String list){
+		 String[] parts = list.split(",");
+		 int[] methods = new int[parts.length];
+		 for (int i=0; i<parts.length; i++){
+			 methods[i] = Integer.parseInt(parts[i].trim());
+			 if(methods[i]<1 || methods[i]>5){
+				 throw new IllegalArgumentException("Update methods are numbered 1 to 5, not " + methods[i]);
+			 }
+			 for (int j=0; j<i; j++){
+				 if(methods[j] == methods[i]){
+					 throw new IllegalArgumentException("Update method " + methods[i] + " is named more than once in " + list);
+				 }
+			 }
 		 }
+		 return methods;
 	 }
+
  }
 
@@ -0,0 +1,563 @@
+import java.lang.Math;
+import java.util.*;
+import java.io.*;
+/**
+* A Class which holds the parameters of a cyclotron simulation and runs it.
+* It builds the fields and the initial bunch from its parameters and runs the time loop for one update
+* method on a bunch, so several methods can be run on copies of the same bunch at the same time.
+* The parameters have the values the simulation has always used and can be changed from a Properties
+* object (such as a config file) with configure.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class CyclotronSimulation {
+
+	public static final double P_MASS=1.67262178E-27; // proton mass in kg
+	public static final double P_CHARGE=1.60217657e-19; // proton charge in Coulombs
+
+	protected int nProtons = 15; // number of protons in the bunch
+	protected double pSpeed = 1.0e-3; // initial speed of proton in ms^-1
+	protected double mag = 1.0e-7; // magnetic flux density in Tesla
+	protected double phase = Math.PI; // phase angle of the oscillating field
+	protected double gapWidth = 0.05; // half-width of the region where the E field is active, as a fraction of the orbit radius
+	protected double positionSpread = 0.01; // spread in position of particles in bunch, as a fraction of the orbit radius
+	protected double energySpread = 0.0; // spread in energy of particles in bunch, as a fraction of the energy
+	protected char rDist = 'U'; // the random distribution to use (U for uniform, G for Gaussian)
+	protected long seed = 0; // seed of the random initial bunch (0 => a different bunch each run)
+	protected String sampling = "random"; // how the initial bunch is drawn from the distribution (random or sobol)
+	protected double timeStep = 0.00001; // time step in seconds
+	protected boolean gapEvents = true; // split each particle's step where it crosses an edge of the gap
+	protected double gapStep = 0.0; // longest time step inside the gap in seconds, with gapEvents (0 => timeStep)
+	protected boolean drift = false; // move the protons outside the gap analytically along their orbits in the uniform B field
+	protected int timeMeasure = 100; // number of time steps between samples of the trajectory
+	protected int maxRev = 10; // number of orbital revolutions for proton
+	protected String stopOn = "centroid"; // whose revolutions end the run: the leading proton's, all the protons' or the centroid's
+	protected double maxTime = 100000000; // maximum simulation time in seconds
+	protected String spaceCharge = "none"; // how the protons' repulsion is found (none, tree or grid)
+	protected double theta = 0.5; // opening angle of the space charge tree
+	protected double softening = 0.0; // softening length of the space charge force in m
+	protected String fieldMap = null; // field map file used in place of the uniform magnetic field (null => uniform)
+	protected int mapOrder = 1; // interpolation order of the field map (1 => trilinear, 3 => tricubic)
+	protected boolean section = false; // record the protons crossing a plane instead of sampling the trajectory
+	protected PhysicsVector sectionPoint = new PhysicsVector(); // a point on the section plane (the centre of the gap)
+	protected PhysicsVector sectionNormal = new PhysicsVector(0,1,0); // normal of the section plane, the direction it is crossed in
+	protected String checkpoint = null; // name the checkpoint files start with (null => no checkpoints)
+	protected int checkpointEvery = 100000; // number of steps between checkpoints
+	protected String precision = "double"; // how the protons' positions and velocities are stored (double or float)
+	protected int[] gridSize = {64, 64, 1}; // points of the space charge grid in x, y and z (one in z for a flat bunch)
+
+	/**
+	* Default constructor with the standard parameters
+	*/
+	public CyclotronSimulation(){
+	}
+
+	/**
+	* Change the parameters named in a set of properties. Recognised keys are nProtons, speed, mag, phase,
+	* gapWidth, positionSpread, energySpread, dist, seed, sampling, timeStep, gapEvents, gapStep, drift, timeMeasure, maxRev, stopOn, maxTime, spaceCharge, theta, softening,
+	* gridSize (as nx,ny,nz), fieldMap, mapOrder, section, sectionPoint and sectionNormal (as x,y,z), checkpoint, checkpointEvery and precision;
+	* other keys are ignored.
+	* @param properties the parameters to change
+	*/
+	public void configure(Properties properties){
+		nProtons = Integer.parseInt(properties.getProperty("nProtons", String.valueOf(nProtons)));
+		pSpeed = Double.parseDouble(properties.getProperty("speed", String.valueOf(pSpeed)));
+		mag = Double.parseDouble(properties.getProperty("mag", String.valueOf(mag)));
+		phase = Double.parseDouble(properties.getProperty("phase", String.valueOf(phase)));
+		gapWidth = Double.parseDouble(properties.getProperty("gapWidth", String.valueOf(gapWidth)));
+		positionSpread = Double.parseDouble(properties.getProperty("positionSpread", String.valueOf(positionSpread)));
+		energySpread = Double.parseDouble(properties.getProperty("energySpread", String.valueOf(energySpread)));
+		rDist = properties.getProperty("dist", String.valueOf(rDist)).charAt(0);
+		seed = Long.parseLong(properties.getProperty("seed", String.valueOf(seed)));
+		sampling = properties.getProperty("sampling", sampling);
+		if(!sampling.equals("random") && !sampling.equals("sobol")){
+			throw new IllegalArgumentException("sampling should be random or sobol, not " + sampling);
+		}
+		timeStep = Double.parseDouble(properties.getProperty("timeStep", String.valueOf(timeStep)));
+		gapEvents = Boolean.parseBoolean(properties.getProperty("gapEvents", String.valueOf(gapEvents)));
+		gapStep = Double.parseDouble(properties.getProperty("gapStep", String.valueOf(gapStep)));
+		drift = Boolean.parseBoolean(properties.getProperty("drift", String.valueOf(drift)));
+		timeMeasure = Integer.parseInt(properties.getProperty("timeMeasure", String.valueOf(timeMeasure)));
+		maxRev = Integer.parseInt(properties.getProperty("maxRev", String.valueOf(maxRev)));
+		stopOn = properties.getProperty("stopOn", stopOn);
+		maxTime = Double.parseDouble(properties.getProperty("maxTime", String.valueOf(maxTime)));
+		spaceCharge = properties.getProperty("spaceCharge", spaceCharge);
+		theta = Double.parseDouble(properties.getProperty("theta", String.valueOf(theta)));
+		softening = Double.parseDouble(properties.getProperty("softening", String.valueOf(softening)));
+		fieldMap = properties.getProperty("fieldMap", fieldMap);
+		mapOrder = Integer.parseInt(properties.getProperty("mapOrder", String.valueOf(mapOrder)));
+		section = Boolean.parseBoolean(properties.getProperty("section", String.valueOf(section)));
+		if(properties.getProperty("sectionPoint") != null){
+			sectionPoint = parseVector(properties.getProperty("sectionPoint"));
+		}
+		if(properties.getProperty("sectionNormal") != null){
+			sectionNormal = parseVector(properties.getProperty("sectionNormal"));
+		}
+		checkpoint = properties.getProperty("checkpoint", checkpoint);
+		checkpointEvery = Integer.parseInt(properties.getProperty("checkpointEvery", String.valueOf(checkpointEvery)));
+		if(checkpointEvery < 1){
+			throw new IllegalArgumentException("checkpointEvery should be at least 1, not " + checkpointEvery);
+		}
+		precision = properties.getProperty("precision", precision);
+		if(!precision.equals("double") && !precision.equals("float")){
+			throw new IllegalArgumentException("precision should be double or float, not " + precision);
+		}
+		String grid = properties.getProperty("gridSize");
+		if(grid != null){
+			String[] parts = grid.split(",");
+			if(parts.length != 3){
+				throw new IllegalArgumentException("gridSize should be nx,ny,nz, not " + grid);
+			}
+			for (int i=0; i<3; i++){
+				gridSize[i] = Integer.parseInt(parts[i].trim());
+			}
+		}
+	}
+
+	/**
+	* Read a vector written as x,y,z
+	* @param text the vector
+	* @return the vector
+	*/
+	private static PhysicsVector parseVector(String text){
+		String[] parts = text.split(",");
+		if(parts.length != 3){
+			throw new IllegalArgumentException("Expected a vector as x,y,z, not " + text);
+		}
+		return new PhysicsVector(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()), Double.parseDouble(parts[2].trim()));
+	}
+
+	/**
+	* Return a hash of the parameters which shape a run, so a checkpoint is only continued by a run which would have
+	* reached it. The number of revolutions, the time limit and the checkpoint settings are left out, so a run can be extended.
+	* @return the 64-bit FNV-1a hash of the parameters written as text
+	*/
+	public long getConfigHash(){
+		String text = "nProtons=" + nProtons + " speed=" + pSpeed + " mag=" + mag + " phase=" + phase + " gapWidth=" + gapWidth
+			+ " positionSpread=" + positionSpread + " energySpread=" + energySpread + " dist=" + rDist + " seed=" + seed
+			+ " sampling=" + sampling + " timeStep=" + timeStep + " gapEvents=" + gapEvents + " gapStep=" + gapStep
+			+ " drift=" + drift + " timeMeasure=" + timeMeasure + " stopOn=" + stopOn + " spaceCharge=" + spaceCharge
+			+ " theta=" + theta + " softening=" + softening + " gridSize=" + Arrays.toString(gridSize) + " fieldMap=" + fieldMap
+			+ " mapOrder=" + mapOrder + " section=" + section + " sectionPoint=" + sectionPoint.getX() + "," + sectionPoint.getY()
+			+ "," + sectionPoint.getZ() + " sectionNormal=" + sectionNormal.getX() + "," + sectionNormal.getY() + ","
+			+ sectionNormal.getZ() + " precision=" + precision;
+		long hash = 0xcbf29ce484222325L;
+		for (int i=0; i<text.length(); i++){
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	* Return the radius of curvature of a proton with the initial speed
+	* @return the radius in m
+	*/
+	public double getRadius(){
+		return P_MASS*pSpeed/(P_CHARGE*mag);
+	}
+
+	/**
+	* Return the cyclotron frequency
+	* @return the angular frequency in rad/s
+	*/
+	public double getFrequency(){
+		return (P_CHARGE*mag)/P_MASS;
+	}
+
+	/**
+	* Return the half-width of the region where the E field is active
+	* @return the half-width in m
+	*/
+	public double getGap(){
+		return gapWidth*getRadius();
+	}
+
+	/**
+	* Create the cyclotron fields, compiled into one evaluator used by the update methods
+	* @return the list of fields
+	*/
+	public ArrayList<GeneralEMField> createFields() throws IOException {
+		ArrayList<GeneralEMField> cyclotron = new ArrayList<GeneralEMField>();
+
+		if(fieldMap == null){
+			GeneralEMField theBField = new EMField(new PhysicsVector(), new PhysicsVector(0,0,mag)); //creates the B-Field
+			cyclotron.add(theBField);
+		}else{
+			cyclotron.add(FieldMapFile.open(fieldMap, mapOrder)); //the measured B-Field, shared with any other run using the same file
+		}
+
+		GeneralEMField theEField = new EMField(new PhysicsVector(0,mag,0), new PhysicsVector()); //creates the E-Field
+		GeneralEMField EOscField = new OscillatingField(theEField, getFrequency(), phase); //makes the E-field oscillate
+		GeneralEMField EOscBndField = new BoundField(EOscField, 999, getGap()); //makes the E-field bound
+		cyclotron.add(EOscBndField);
+
+		if(spaceCharge.equals("tree")){
+			cyclotron.add(new TreeSpaceChargeField(theta, softening)); //repulsion between the protons
+		}else if(spaceCharge.equals("grid")){
+			cyclotron.add(new GridSpaceChargeField(gridSize[0], gridSize[1], gridSize[2])); //repulsion between the protons
+		}else if(!spaceCharge.equals("none")){
+			throw new IllegalArgumentException("Unknown space charge method " + spaceCharge);
+		}
+
+		ArrayList<GeneralEMField> fusedCyclotron = new ArrayList<GeneralEMField>();
+		fusedCyclotron.add(new FusedField(cyclotron));
+		return fusedCyclotron;
+	}
+
+	/**
+	* Create the initial bunch of protons, generated in parallel from the seed
+	* @return the bunch
+	*/
+	public Bunch<ChargedParticle> createBunch(){
+		double radius = getRadius();
+		PhysicsVector pDirn = new PhysicsVector(0,1,0); // direction of bunch at start of simulation
+		PhysicsVector pDirnSpread=new PhysicsVector(0,0,0); // relative spread in the direction of the bunch at the start of the simulation
+		PhysicsVector pOrigin= new PhysicsVector(); // start the proton at the origin
+		PhysicsVector pSpread = new PhysicsVector(positionSpread*radius, positionSpread*radius, 0); // absolute spread in position of particles in bunch
+		double pEnergy = 0.5*P_MASS*(pSpeed)*(pSpeed); // initial average energy of particles in bunch (non-relativistic)
+		double pESpread= energySpread*pEnergy; // absolute spread in energy of particles in the bunch
+
+		Bunch<ChargedParticle> pBunch = new Bunch<ChargedParticle>();
+		for (int i=1; i<=nProtons; i++){
+			pBunch.addParticle(new ChargedParticle(P_MASS, P_CHARGE));
+		}
+		pBunch.setDist(rDist);
+		if(seed != 0){
+			pBunch.setSeed(seed); //the same bunch for the same seed, however many threads generate it
+		}
+		pBunch.setQuasiRandom(sampling.equals("sobol")); //points of a scrambled Sobol sequence fill the distribution evenly
+		pBunch.setPosition(pOrigin,pSpread);
+		pBunch.setVelocity(pDirn,pDirnSpread,pEnergy,pESpread);
+		return pBunch;
+	}
+
+	/**
+	* Copy a bunch into the primitive arrays it is pushed in: doubles, or with precision float a CompactBunch
+	* @param bunch the bunch to copy
+	* @return the arrays
+	*/
+	public BunchArrays createArrays(Bunch<? extends ChargedParticle> bunch){
+		if(precision.equals("float")){
+			return new CompactBunch(bunch); //a third less memory per proton, the updates are still done in double
+		}
+		return new ChargedBunch(bunch);
+	}
+
+	/**
+	* Run the time loop for one update method until the bunch has completed maxRev orbits or maxTime has passed.
+	* The orbits are counted by unwrapping the direction of motion, of each proton as it is pushed
+	* (stopOn leading or all) or of the bunch as a whole (stopOn centroid), which turns once each revolution.
+	* @param pArrays the bunch to push, updated in place
+	* @param method the update method (1 => Euler, 2 => Euler-Cromer, 3 => Runge-Kutta 4, 4 => Boris, 5 => Dormand-Prince)
+	* @param nThreads the number of threads the bunch is pushed on
+	* @param fileName the trajectory file to write, or with section the file of crossings of the section plane (null => neither)
+	* @param recordParticles true to write every particle's x, y, vx and vy as well as the centroid
+	* @param log where each gap crossing is reported (null => not reported)
+	* @return the summary of the run
+	*/
+	public Result run(BunchArrays pArrays, int method, int nThreads, String fileName, boolean recordParticles, PrintStream log)
+		throws IOException
+	{
+		ArrayList<GeneralEMField> fields = createFields();
+		double L = getGap();
+		double time=0.0; // set simulation time
+		double angle=0.0; // angle the average velocity of the bunch has turned through
+		PhysicsVector oldVelocity = pArrays.getVelocity();
+		int nRev=0; // number of orbits the proton completes
+		boolean inZone = false; //boolean to check if the bunch is in the accelerating field
+		double kE1 = 0;
+		double kE2 = 0; //variables to store the bunches kE at the start and end of accelerating field
+		double totalKE = 0;
+		int timesCrossed = 0;//number of times the bunch has crossed the gap
+
+		BunchPusher pusher = new BunchPusher(fields, method, nThreads); //pushes the particles, split across nThreads threads
+		if(gapEvents){
+			pusher.setGap(L, gapStep); //steps are split where a particle crosses an edge of the gap, so none can jump it
+		}
+		if(stopOn.equals("leading") || stopOn.equals("all")){
+			pusher.setCountTurns(true); //each proton's turns are counted as it is pushed
+		}else if(!stopOn.equals("centroid")){
+			throw new IllegalArgumentException("stopOn should be leading, all or centroid, not " + stopOn);
+		}
+		if(drift){
+			if(!gapEvents || fieldMap != null || !spaceCharge.equals("none")){
+				throw new IllegalArgumentException("drift needs gapEvents, the uniform B field and no space charge");
+			}
+			pusher.setDrift(new PhysicsVector(0,0,mag)); //outside the gap the orbits are exact circles, only the gap is integrated
+		}
+		double stepTime = timeStep; //time between checks of the bunch
+		if(method ==5){
+			stepTime = timeStep*timeMeasure; //the adaptive method takes its own steps within each interval
+		}
+		//continue from the last checkpoint of this method if there is one
+		Checkpoint resumed = null;
+		int part = 0; //number of times the run has been continued
+		CheckpointWriter saver = null;
+		if(checkpoint != null){
+			String checkpointName = getCheckpointName(method);
+			if(new File(checkpointName).exists()){
+				resumed = Checkpoint.read(checkpointName);
+				if(resumed.getMethod() != method || resumed.stepTime != stepTime || resumed.getConfig() != getConfigHash()){
+					throw new IllegalArgumentException(checkpointName + " is from a run with different parameters, delete it to start again");
+				}
+				part = resumed.part + 1;
+				time = resumed.time;
+				nRev = resumed.nRev;
+				timesCrossed = resumed.timesCrossed;
+				totalKE = resumed.totalKE;
+				inZone = resumed.inZone;
+				kE1 = resumed.kE1;
+				angle = resumed.angle;
+				oldVelocity = new PhysicsVector(resumed.velocity[0], resumed.velocity[1], resumed.velocity[2]);
+				if(fileName != null){
+					fileName = getPartName(fileName, part); //the output up to the checkpoint is kept
+				}
+				if(log != null){
+					log.println("Continuing from " + checkpointName + " at " + time + "s, writing to " + fileName);
+				}
+			}
+			saver = new CheckpointWriter(checkpointName);
+		}
+		//trajectory written in binary on its own thread, convert with: java TrajectoryReader <file.traj> <file.csv>
+		TrajectoryWriter output = null;
+		PoincareSection crossings = null;
+		if(fileName != null && section){
+			//each proton is written once per turn as it crosses the plane, at the exact time it crosses
+			crossings = new PoincareSection(fileName, sectionPoint, sectionNormal, getFrequency(), phase, pArrays.size());
+			pusher.setSection(crossings);
+		}else if(fileName != null){
+			output = new TrajectoryWriter(fileName, timeStep*timeMeasure, pArrays.size(), recordParticles, 1024);
+		}
+		if(resumed != null){
+			resumed.restore(pArrays, pusher, crossings);
+		}
+		long steps = 0; //steps taken since the run started or was continued
+
+		try {
+			while(nRev<maxRev && time<maxTime){// Loop over time
+				try {
+					pusher.step(pArrays, time, stepTime); //the fields are evaluated from the start of the step
+				} catch (UncheckedIOException e) {
+					throw e.getCause(); //the section file could not be written
+				}
+				time+=stepTime;
+
+				if(gapEvents){
+					//each particle's passes through the gap are found by the pusher, the bunch has crossed once every particle
+					//has made that pass, and only the gains of the passes of that number count towards the crossing
+					while(pusher.getCrossings() > timesCrossed){
+						timesCrossed = timesCrossed + 1;
+						double gain = pusher.getCrossingGain(timesCrossed);
+						if(log != null){
+							log.println("Bunch has crossed gap: " + timesCrossed  + " times");
+							log.println("Difference in KE between start and end of gap: " + gain + "J");
+							log.println("\n");
+						}
+						totalKE = totalKE + gain;
+					}
+				}else{
+					//Check to see if bunch is in gap and check for the change in KE between start and end
+					double y = pArrays.getPosition().getY();
+					if(inZone == false){
+						if(y <= L && y >= -L){
+							inZone = true;
+							kE1 = pArrays.getTotalKE();
+						}
+					}
+
+					if(inZone == true){
+						if(y >= L || y <= -L){
+							inZone = false;
+							timesCrossed = timesCrossed + 1;
+							kE2 = pArrays.getTotalKE();
+							totalKE = totalKE + Math.abs(kE2-kE1);
+							if(log != null){
+								log.println("Bunch has crossed gap: " + timesCrossed  + " times");
+								log.println("Difference in KE between start and end of gap: " + Math.abs(kE2-kE1) + "J");
+								log.println("\n");
+							}
+						}
+					}
+				}
+
+				if(stopOn.equals("leading")){
+					nRev = (int)pusher.getLeadingTurns();
+				}else if(stopOn.equals("all")){
+					nRev = (int)pusher.getTrailingTurns();
+				}else{
+					PhysicsVector velocity = pArrays.getVelocity();
+					double cross = oldVelocity.getX()*velocity.getY() - oldVelocity.getY()*velocity.getX();
+					double dot = oldVelocity.getX()*velocity.getX() + oldVelocity.getY()*velocity.getY();
+					if(cross != 0.0 || dot != 0.0){
+						angle += Math.atan2(cross, dot);
+					}
+					oldVelocity = velocity;
+					nRev = (int)(Math.abs(angle)/(2.0*Math.PI));
+				}
+
+				if(output != null && (method ==5 || (int)(time/timeStep) % timeMeasure == 0)){ //outputs average position after a certain number of iterations to not spam data
+					output.record(time, pArrays);
+				}
+
+				if(saver != null && ++steps % checkpointEvery == 0){
+					Checkpoint state = saver.next(); //copied here between steps, written on the checkpoint thread
+					if(state != null){
+						state.config = getConfigHash();
+						state.method = method;
+						state.part = part;
+						state.time = time;
+						state.stepTime = stepTime;
+						state.nRev = nRev;
+						state.timesCrossed = timesCrossed;
+						state.totalKE = totalKE;
+						state.inZone = inZone;
+						state.kE1 = kE1;
+						state.angle = angle;
+						state.velocity[0] = oldVelocity.getX();
+						state.velocity[1] = oldVelocity.getY();
+						state.velocity[2] = oldVelocity.getZ();
+						state.capture(pArrays, pusher, crossings);
+						saver.save(state);
+					}
+				}
+			}
+		} finally {
+			pusher.shutdown();
+			if(saver != null){
+				saver.close();
+			}
+			if(output != null){
+				output.close();
+			}
+			if(crossings != null){
+				crossings.close();
+			}
+		}
+		if(saver != null){
+			//the run is complete, so there is nothing left to continue
+			new File(saver.fileName).delete();
+			if(log != null){
+				log.println("Run complete, deleted " + saver.fileName);
+			}
+		}
+		return new Result(method, timesCrossed, totalKE, pArrays.getSpreadKE(), pArrays.getAvgKE());
+	}
+
+	/**
+	* Return the name of an update method
+	* @param method the update method
+	* @return the name of the method
+	*/
+	public static String getMethodName(int method){
+		if(method ==1){
+			return "Euler";
+		}else if(method ==2){
+			return "Euler-Cromer";
+		}else if(method ==4){
+			return "Boris";
+		}else if(method ==5){
+			return "Dormand-Prince";
+		}
+		return "Runge-Kutta 4";
+	}
+
+	/**
+	* Return the name of the trajectory file written for an update method
+	* @param method the update method
+	* @return the file name
+	*/
+	public static String getFileName(int method){
+		if(method ==1){
+			return "plotEuler.traj";
+		}else if(method ==2){
+			return "plotEulerCrom.traj";
+		}else if(method ==4){
+			return "plotBoris.traj";
+		}else if(method ==5){
+			return "plotDormandPrince.traj";
+		}
+		return "plotRK4.traj";
+	}
+
+	/**
+	* Return the name of the checkpoint file written for an update method
+	* @param method the update method
+	* @return the file name
+	*/
+	public String getCheckpointName(int method){
+		return checkpoint + "." + method + ".ckpt";
+	}
+
+	/**
+	* Return the name of the output file of a run continued from a checkpoint, so the output before it is kept
+	* @param fileName the output file of the run
+	* @param part the number of times the run has been continued
+	* @return the file name with the part number before its extension, such as plotBoris.part1.traj
+	*/
+	public static String getPartName(String fileName, int part){
+		int dot = fileName.lastIndexOf('.');
+		if(dot <= fileName.lastIndexOf(File.separatorChar)){
+			return fileName + ".part" + part;
+		}
+		return fileName.substring(0, dot) + ".part" + part + fileName.substring(dot);
+	}
+
+	/**
+	* The summary of one run of the simulation
+	*/
+	public static class Result {
+		protected final int method; // the update method used
+		protected final int timesCrossed; // number of times the bunch crossed the gap
+		protected final double totalGain; // sum of the change in KE over every crossing in J
+		protected final double spreadKE; // spread in KE at the end of the run in J
+		protected final double avgKE; // average KE at the end of the run in J
+
+		public Result(int method, int timesCrossed, double totalGain, double spreadKE, double avgKE){
+			this.method = method;
+			this.timesCrossed = timesCrossed;
+			this.totalGain = totalGain;
+			this.spreadKE = spreadKE;
+			this.avgKE = avgKE;
+		}
+
+		public int getMethod(){
+			return method;
+		}
+
+		public int getTimesCrossed(){
+			return timesCrossed;
+		}
+
+		/**
+		* Return the average change in the bunch's KE over one crossing of the gap
+		* @return the average change in KE in J (0 if the bunch never crossed)
+		*/
+		public double getMeanGain(){
+			return (timesCrossed == 0) ? 0.0 : totalGain/timesCrossed;
+		}
+
+		public double getSpreadKE(){
+			return spreadKE;
+		}
+
+		public double getAvgKE(){
+			return avgKE;
+		}
+
+		/**
+		* Return the ratio of the spread in KE to the final KE
+		* @return the ratio
+		*/
+		public double getSpreadRatio(){
+			return spreadKE/avgKE;
+		}
+
+		public String toString(){
+			return "Average difference in KE: " + getMeanGain() + "J\n"
+				+ "Spread in KE " + spreadKE + "J\n"
+				+ "Ratio of KeSpread to final KE " + getSpreadRatio();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+import java.util.*;
+/**
+* An adaptive embedded Runge-Kutta integrator (Dormand-Prince 5(4)) for a charged particle.
+* Each step is advanced with the fifth order solution and the difference to the embedded
+* fourth order solution is used as the error estimate. Steps whose error is larger than the
+* tolerance are rejected and retried with a smaller step; accepted steps let the step grow again,
+* so the particle only takes small steps while it is in a region such as the accelerating gap.
+* <p>
+* The state is held as a primitive array {x, y, z, vx, vy, vz}. An integrator keeps its own
+* scratch space, so each thread needs its own instance.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class DormandPrince {
+
+	// Butcher tableau of the Dormand-Prince 5(4) method
+	private static final double C2=1.0/5.0, C3=3.0/10.0, C4=4.0/5.0, C5=8.0/9.0;
+	private static final double A21=1.0/5.0;
+	private static final double A31=3.0/40.0, A32=9.0/40.0;
+	private static final double A41=44.0/45.0, A42=-56.0/15.0, A43=32.0/9.0;
+	private static final double A51=19372.0/6561.0, A52=-25360.0/2187.0, A53=64448.0/6561.0, A54=-212.0/729.0;
+	private static final double A61=9017.0/3168.0, A62=-355.0/33.0, A63=46732.0/5247.0, A64=49.0/176.0, A65=-5103.0/18656.0;
+	private static final double A71=35.0/384.0, A73=500.0/1113.0, A74=125.0/192.0, A75=-2187.0/6784.0, A76=11.0/84.0;
+	// difference between the fifth and fourth order weights
+	private static final double E1=71.0/57600.0, E3=-71.0/16695.0, E4=71.0/1920.0, E5=-17253.0/339200.0, E6=22.0/525.0, E7=-1.0/40.0;
+
+	private static final double SAFETY=0.9; // safety factor on the predicted step
+	private static final double MIN_FACTOR=0.2; // smallest factor the step is shrunk by after one attempt
+	private static final double MAX_FACTOR=5.0; // largest factor the step may grow by after one step
+
+	protected double absTol=1.0e-15; // absolute tolerance on each component (SI units)
+	protected double relTol=1.0e-9; // relative tolerance on each component
+	protected int accepted=0, rejected=0; // step counters since the integrator was created
+
+	private final double[][] k = new double[7][6]; // stage derivatives
+	private final double[] stage = new double[6]; // state at the current stage
+	private final double[] trial = new double[6]; // fifth order solution of the trial step
+	private final ChargedParticle probe = new ChargedParticle(); // particle used to evaluate the fields at each stage
+	private final PhysicsVector acceleration = new PhysicsVector();
+
+	/**
+	* Default constructor using the default tolerances
+	*/
+	public DormandPrince(){
+	}
+
+	/**
+	* Constructor with the absolute and relative tolerances
+	* @param absTol absolute tolerance on each position (m) and velocity (m/s) component
+	* @param relTol relative tolerance on each component
+	*/
+	public DormandPrince(double absTol, double relTol){
+		this.absTol = absTol;
+		this.relTol = relTol;
+	}
+
+	/**
+	* Return the number of accepted steps
+	* @return accepted steps
+	*/
+	public int getAccepted(){
+		return accepted;
+	}
+
+	/**
+	* Return the number of rejected steps
+	* @return rejected steps
+	*/
+	public int getRejected(){
+		return rejected;
+	}
+
+	/**
+	* Advance the state of a particle from time to time+deltaTime with as many adaptive steps as needed.
+	* A step whose error is not finite (the state or the fields are not) throws an IllegalStateException.
+	* @param state the position and velocity {x, y, z, vx, vy, vz}, overwritten with the new state
+	* @param mass the mass of the particle
+	* @param charge the charge of the particle
+	* @param fields the fields acting on the particle
+	* @param time the time at the start of the interval
+	* @param deltaTime the length of the interval
+	* @param stepSize the step to try first (0 => try deltaTime)
+	* @return the step size to try first on the next interval
+	*/
+	public double advance(double[] state, double mass, double charge, ArrayList<GeneralEMField> fields,
+			double time, double deltaTime, double stepSize){
+		probe.setMass(mass);
+		probe.setCharge(charge);
+		double end = time + deltaTime;
+		double h = (stepSize > 0.0) ? stepSize : deltaTime;
+		double next = h;
+		double minStep = Math.ulp(end)*16.0;
+
+		while(time < end){
+			boolean last = false;
+			if(time + h >= end){
+				h = end - time;
+				last = true;
+			}
+			double err = attempt(state, fields, time, h);
+			if(!Double.isFinite(err)){
+				// neither test below holds for NaN, and the step it scales to would never end the interval
+				throw new IllegalStateException("The Dormand-Prince error estimate is " + err + " for a step of " + h + " s at t = " + time + " s");
+			}
+			double factor = (err == 0.0) ? MAX_FACTOR : SAFETY*Math.pow(err, -0.2);
+
+			if(err <= 1.0 || h <= minStep){
+				accepted++;
+				System.arraycopy(trial, 0, state, 0, 6);
+				time = last ? end : time + h;
+				// a step truncated to hit the end of the interval says nothing about the next one
+				if(!last || h >= next){
+					next = h*Math.min(MAX_FACTOR, factor);
+				}
+				h = next;
+			}else{
+				rejected++;
+				h = h*Math.max(MIN_FACTOR, factor);
+				next = h;
+			}
+		}
+		return next;
+	}
+
+	/**
+	* Take one trial step, leaving the fifth order solution in trial
+	* @return the error of the step relative to the tolerance (accept if at most 1)
+	*/
+	private double attempt(double[] state, ArrayList<GeneralEMField> fields, double t, double h){
+		derivative(fields, t, state, k[0]);
+		for (int j=0; j<6; j++) stage[j] = state[j] + h*(A21*k[0][j]);
+		derivative(fields, t + C2*h, stage, k[1]);
+		for (int j=0; j<6; j++) stage[j] = state[j] + h*(A31*k[0][j] + A32*k[1][j]);
+		derivative(fields, t + C3*h, stage, k[2]);
+		for (int j=0; j<6; j++) stage[j] = state[j] + h*(A41*k[0][j] + A42*k[1][j] + A43*k[2][j]);
+		derivative(fields, t + C4*h, stage, k[3]);
+		for (int j=0; j<6; j++) stage[j] = state[j] + h*(A51*k[0][j] + A52*k[1][j] + A53*k[2][j] + A54*k[3][j]);
+		derivative(fields, t + C5*h, stage, k[4]);
+		for (int j=0; j<6; j++) stage[j] = state[j] + h*(A61*k[0][j] + A62*k[1][j] + A63*k[2][j] + A64*k[3][j] + A65*k[4][j]);
+		derivative(fields, t + h, stage, k[5]);
+		for (int j=0; j<6; j++) trial[j] = state[j] + h*(A71*k[0][j] + A73*k[2][j] + A74*k[3][j] + A75*k[4][j] + A76*k[5][j]);
+		derivative(fields, t + h, trial, k[6]);
+
+		double sum = 0.0;
+		for (int j=0; j<6; j++){
+			double e = h*(E1*k[0][j] + E3*k[2][j] + E4*k[3][j] + E5*k[4][j] + E6*k[5][j] + E7*k[6][j]);
+			double scale = absTol + relTol*Math.max(Math.abs(state[j]), Math.abs(trial[j]));
+			sum += (e/scale)*(e/scale);
+		}
+		return Math.sqrt(sum/6.0);
+	}
+
+	/**
+	* Evaluate the derivative {v, a} of a state, with the fields evaluated at the state's position
+	*/
+	private void derivative(ArrayList<GeneralEMField> fields, double t, double[] y, double[] dydt){
+		probe.position.setVector(y[0], y[1], y[2]);
+		probe.velocity.setVector(y[3], y[4], y[5]);
+		acceleration.setVector(0,0,0);
+		for (GeneralEMField field : fields){
+			field.addAcceleration(probe, t, acceleration);
+		}
+		dydt[0] = y[3];
+		dydt[1] = y[4];
+		dydt[2] = y[5];
+		dydt[3] = acceleration.getX();
+		dydt[4] = acceleration.getY();
+		dydt[5] = acceleration.getZ();
+	}
+}
@@ -118,4 +118,50 @@ public class EMField extends GeneralEMField{
  		
  	}
  	
+ 	/**
+ 	* Adds the scaled Lorentz acceleration in the uniform field to an existing vector,
+ 	* reading the stored field vectors directly rather than through copies.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param velocity - the velocity of the particle
+ 	* @param scale - factor multiplying the acceleration
+ 	* @param out - the vector the scaled acceleration is added to
+ 	*/
+ 	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out){
+ 		double qOverM = scale*theParticle.getCharge()/theParticle.getMass();
+ 		out.addScaled(qOverM, electric); // E
+ 		out.addCrossScaled(qOverM, velocity, magnetic); //+ v cross B
+ 	}
+ 	
+ 	/**
+ 	* Adds the scaled uniform electric field strength and magnetic flux density to existing vectors.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param scale - factor multiplying both fields
+ 	* @param electricOut - the vector the scaled electric field strength is added to
+ 	* @param magneticOut - the vector the scaled magnetic flux density is added to
+ 	*/
+ 	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut){
+ 		electricOut.addScaled(scale, electric);
+ 		magneticOut.addScaled(scale, magnetic);
+ 	}
+ 	
+ 	/**
+ 	* Adds the scaled Lorentz acceleration in the uniform field of every particle in a slice to the acceleration arrays.
+ 	* The field components are read once for the whole slice.
+ 	*/
+ 	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+ 		double[] mass, double[] charge, double t, double scale, double[] weight,
+ 		double[] ax, double[] ay, double[] az, int from, int to){
+ 		double ex = electric.getX(), ey = electric.getY(), ez = electric.getZ();
+ 		double bx = magnetic.getX(), by = magnetic.getY(), bz = magnetic.getZ();
+ 		for (int i=from; i<to; i++){
+ 			double w = (weight == null) ? scale : scale*weight[i-from];
+ 			double qOverM = w*charge[i]/mass[i];
+ 			ax[i] += qOverM*(ex + (vy[i]*bz - vz[i]*by)); // E + v cross B
+ 			ay[i] += qOverM*(ey + (vz[i]*bx - vx[i]*bz));
+ 			az[i] += qOverM*(ez + (vx[i]*by - vy[i]*bx));
+ 		}
+ 	}
+ 	
 }
@@ -0,0 +1,113 @@
+import java.util.stream.IntStream;
+/**
+* A Class which performs fast Fourier transforms of complex data held as separate real and imaginary arrays.
+* One dimensional transforms use the iterative radix-2 Cooley-Tukey method, so lengths must be powers of two.
+* Three dimensional transforms are done as one dimensional transforms along each axis in turn,
+* with the lines of each axis shared between threads.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class FFT {
+
+	/**
+	* Return whether a length can be transformed
+	* @param n the length
+	* @return true if n is a power of two
+	*/
+	public static boolean isPowerOfTwo(int n){
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+
+	/**
+	* Transform one line of complex data in place
+	* @param re the real parts
+	* @param im the imaginary parts
+	* @param inverse true for the inverse transform (without the 1/n factor)
+	*/
+	public static void transform(double[] re, double[] im, boolean inverse){
+		int n = re.length;
+		if(!isPowerOfTwo(n)){
+			throw new IllegalArgumentException("FFT length must be a power of two, not " + n);
+		}
+		// bit reversal permutation
+		for (int i=1, j=0; i<n; i++){
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1){
+				j ^= bit;
+			}
+			j ^= bit;
+			if(i < j){
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		double sign = inverse ? 1.0 : -1.0;
+		for (int length=2; length<=n; length<<=1){
+			double angle = sign*2.0*Math.PI/length;
+			double wRe = Math.cos(angle), wIm = Math.sin(angle);
+			int half = length >> 1;
+			for (int start=0; start<n; start+=length){
+				double uRe = 1.0, uIm = 0.0;
+				for (int k=0; k<half; k++){
+					int a = start + k, b = a + half;
+					double tRe = re[b]*uRe - im[b]*uIm;
+					double tIm = re[b]*uIm + im[b]*uRe;
+					re[b] = re[a] - tRe;
+					im[b] = im[a] - tIm;
+					re[a] += tRe;
+					im[a] += tIm;
+					double next = uRe*wRe - uIm*wIm;
+					uIm = uRe*wIm + uIm*wRe;
+					uRe = next;
+				}
+			}
+		}
+	}
+
+	/**
+	* Transform a three dimensional grid of complex data in place. Point (i, j, k) is at index (i*ny + j)*nz + k.
+	* Axes of length 1 are left alone.
+	* @param re the real parts
+	* @param im the imaginary parts
+	* @param nx, ny, nz the number of points along each axis (each 1 or a power of two)
+	* @param inverse true for the inverse transform (without the 1/(nx*ny*nz) factor)
+	*/
+	public static void transform(final double[] re, final double[] im, final int nx, final int ny, final int nz, final boolean inverse){
+		if(nz > 1){
+			axis(re, im, nx*ny, nz, 1, (line) -> line*nz, inverse);
+		}
+		if(ny > 1){
+			axis(re, im, nx*nz, ny, nz, (line) -> (line/nz)*ny*nz + line%nz, inverse);
+		}
+		if(nx > 1){
+			axis(re, im, ny*nz, nx, ny*nz, (line) -> line, inverse);
+		}
+	}
+
+	/**
+	* Transform every line along one axis
+	* @param lines the number of lines
+	* @param n the length of each line
+	* @param stride the distance in the arrays between neighbouring points of a line
+	* @param first gives the index of the first point of each line
+	*/
+	private static void axis(final double[] re, final double[] im, int lines, final int n, final int stride,
+		final java.util.function.IntUnaryOperator first, final boolean inverse)
+	{
+		IntStream.range(0, lines).parallel().forEach((line) -> {
+			double[] lineRe = new double[n];
+			double[] lineIm = new double[n];
+			int start = first.applyAsInt(line);
+			for (int i=0; i<n; i++){
+				lineRe[i] = re[start + i*stride];
+				lineIm[i] = im[start + i*stride];
+			}
+			transform(lineRe, lineIm, inverse);
+			for (int i=0; i<n; i++){
+				re[start + i*stride] = lineRe[i];
+				im[start + i*stride] = lineIm[i];
+			}
+		});
+	}
+}
@@ -0,0 +1,325 @@
+import java.nio.DoubleBuffer;
+import java.util.stream.IntStream;
+
+public class FieldMap extends GeneralEMField{
+	/**
+	* Represents a field given by its values on a regular grid, interpolated between the grid points.
+	* A map can be sampled once from any other field (or composition of fields), which is then answered
+	* by interpolation however expensive the original was, or can be given its values directly.
+	* The values are held in one flat buffer, which may be on the heap or off it (such as a mapped file),
+	* in the order ((i*ny + j)*nz + k)*components + c, with the components being Ex, Ey, Ez and/or Bx, By, Bz.
+	* <p>
+	* Interpolation is trilinear (order 1) or tricubic through the 4x4x4 nearest points with Catmull-Rom
+	* weights (order 3), which is continuous in the field and its first derivatives. An axis with a single
+	* point is taken to be constant along that axis, so a map of the median plane needs only nz = 1.
+	* Outside the grid the field is zero. The map does not depend on time; a time dependence can be added
+	* by wrapping it, for example in an OscillatingField.
+	*
+	* @author Jake Murkin
+	* @version 1.0
+	*/
+
+	protected final double x0, y0, z0; // position of grid point (0, 0, 0)
+	protected final double hx, hy, hz; // grid spacing
+	protected final int nx, ny, nz; // grid points along each axis
+	protected final boolean hasElectric, hasMagnetic; // which fields are stored
+	protected final int components; // values stored per grid point (3 or 6)
+	protected final int order; // 1 => trilinear, 3 => tricubic
+	protected final DoubleBuffer data; // the values at the grid points
+
+	/**
+	* Constructor which samples a field onto a grid at one time
+	* @param field the field to sample
+	* @param t the time the field is sampled at
+	* @param min the position of the first grid point
+	* @param max the position of the last grid point
+	* @param nx, ny, nz the number of grid points along each axis
+	* @param order the interpolation order (1 => trilinear, 3 => tricubic)
+	*/
+	public FieldMap(final GeneralEMField field, final double t, PhysicsVector min, PhysicsVector max, int nx, int ny, int nz, int order){
+		this(DoubleBuffer.allocate(6*nx*ny*nz), true, true, min.getX(), min.getY(), min.getZ(),
+			spacing(min.getX(), max.getX(), nx), spacing(min.getY(), max.getY(), ny), spacing(min.getZ(), max.getZ(), nz),
+			nx, ny, nz, order);
+		IntStream.range(0, nx).parallel().forEach((i) -> {
+			for (int j=0; j<this.ny; j++){
+				for (int k=0; k<this.nz; k++){
+					PhysicsVector position = new PhysicsVector(x0 + i*hx, y0 + j*hy, z0 + k*hz);
+					PhysicsVector electric = field.getElectric(position, t);
+					PhysicsVector magnetic = field.getMagnetic(position, t);
+					int p = ((i*this.ny + j)*this.nz + k)*6;
+					data.put(p, electric.getX());
+					data.put(p + 1, electric.getY());
+					data.put(p + 2, electric.getZ());
+					data.put(p + 3, magnetic.getX());
+					data.put(p + 4, magnetic.getY());
+					data.put(p + 5, magnetic.getZ());
+				}
+			}
+		});
+	}
+
+	/**
+	* Constructor for a map whose values are already in a buffer
+	* @param data the values, in the order described above
+	* @param hasElectric true if the values include Ex, Ey and Ez
+	* @param hasMagnetic true if the values include Bx, By and Bz (after E if both are stored)
+	* @param x0, y0, z0 the position of the first grid point
+	* @param hx, hy, hz the grid spacing
+	* @param nx, ny, nz the number of grid points along each axis
+	* @param order the interpolation order (1 => trilinear, 3 => tricubic)
+	*/
+	public FieldMap(DoubleBuffer data, boolean hasElectric, boolean hasMagnetic, double x0, double y0, double z0,
+		double hx, double hy, double hz, int nx, int ny, int nz, int order)
+	{
+		if(order != 1 && order != 3){
+			throw new IllegalArgumentException("Interpolation order must be 1 (trilinear) or 3 (tricubic), not " + order);
+		}
+		if(!hasElectric && !hasMagnetic){
+			throw new IllegalArgumentException("A field map needs an electric or a magnetic field");
+		}
+		if(nx < 1 || ny < 1 || nz < 1){
+			throw new IllegalArgumentException("A field map needs at least one point along each axis");
+		}
+		this.hasElectric = hasElectric;
+		this.hasMagnetic = hasMagnetic;
+		this.components = (hasElectric && hasMagnetic) ? 6 : 3;
+		if(data.capacity() < (long)components*nx*ny*nz){
+			throw new IllegalArgumentException("The buffer holds " + data.capacity() + " values, not " + (long)components*nx*ny*nz);
+		}
+		this.data = data;
+		this.x0 = x0;
+		this.y0 = y0;
+		this.z0 = z0;
+		this.hx = hx;
+		this.hy = hy;
+		this.hz = hz;
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+		this.order = order;
+	}
+
+	private static double spacing(double min, double max, int n){
+		return (n > 1) ? (max - min)/(n - 1) : 1.0;
+	}
+
+	/**
+	* Return the interpolation order
+	* @return 1 for trilinear, 3 for tricubic
+	*/
+	public int getOrder(){
+		return order;
+	}
+
+	/**
+	* Find the grid points and tricubic weights along one axis
+	* @param f the position in grid units
+	* @param n the number of grid points along the axis
+	* @param index filled with the grid points (clamped to the grid)
+	* @param weight filled with their weights
+	* @return the number of points, or 0 if the position is outside the grid
+	*/
+	private int stencil(double f, int n, int[] index, double[] weight){
+		if(n == 1){
+			index[0] = 0;
+			weight[0] = 1.0;
+			return 1;
+		}
+		if(!(f >= 0.0 && f <= n - 1)){
+			return 0;
+		}
+		int i = Math.min((int)f, n - 2);
+		double t = f - i;
+		double t2 = t*t, t3 = t2*t;
+		index[0] = Math.max(i - 1, 0);
+		index[1] = i;
+		index[2] = i + 1;
+		index[3] = Math.min(i + 2, n - 1);
+		weight[0] = 0.5*(-t3 + 2.0*t2 - t);
+		weight[1] = 0.5*(3.0*t3 - 5.0*t2 + 2.0);
+		weight[2] = 0.5*(-3.0*t3 + 4.0*t2 + t);
+		weight[3] = 0.5*(t3 - t2);
+		return 4;
+	}
+
+	/**
+	* Interpolate the stored fields at a position
+	* @param px, py, pz the position
+	* @param out {Ex, Ey, Ez, Bx, By, Bz}, overwritten (zero for a field which is not stored)
+	*/
+	protected void interpolate(double px, double py, double pz, double[] out){
+		if(order == 1){
+			interpolateLinear(px, py, pz, out);
+			return;
+		}
+		int[] ix = new int[4], iy = new int[4], iz = new int[4];
+		double[] wx = new double[4], wy = new double[4], wz = new double[4];
+		for (int c=0; c<6; c++){
+			out[c] = 0.0;
+		}
+		int mx = stencil((px - x0)/hx, nx, ix, wx);
+		int my = stencil((py - y0)/hy, ny, iy, wy);
+		int mz = stencil((pz - z0)/hz, nz, iz, wz);
+		if(mx == 0 || my == 0 || mz == 0){
+			return;
+		}
+		int offset = hasElectric ? 0 : 3;
+		for (int a=0; a<mx; a++){
+			for (int b=0; b<my; b++){
+				int row = (ix[a]*ny + iy[b])*nz;
+				double wab = wx[a]*wy[b];
+				for (int c=0; c<mz; c++){
+					double w = wab*wz[c];
+					int p = (row + iz[c])*components;
+					for (int m=0; m<components; m++){
+						out[offset + m] += w*data.get(p + m);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	* Trilinear interpolation, written out so that no scratch space is needed
+	*/
+	private void interpolateLinear(double px, double py, double pz, double[] out){
+		for (int c=0; c<6; c++){
+			out[c] = 0.0;
+		}
+		double fx = (px - x0)/hx, fy = (py - y0)/hy, fz = (pz - z0)/hz;
+		int i = 0, j = 0, k = 0, di = 0, dj = 0, dk = 0; // lower corner and step to the upper corner
+		double tx = 0.0, ty = 0.0, tz = 0.0;
+		if(nx > 1){
+			if(!(fx >= 0.0 && fx <= nx - 1)) return;
+			i = Math.min((int)fx, nx - 2);
+			tx = fx - i;
+			di = ny*nz*components;
+		}
+		if(ny > 1){
+			if(!(fy >= 0.0 && fy <= ny - 1)) return;
+			j = Math.min((int)fy, ny - 2);
+			ty = fy - j;
+			dj = nz*components;
+		}
+		if(nz > 1){
+			if(!(fz >= 0.0 && fz <= nz - 1)) return;
+			k = Math.min((int)fz, nz - 2);
+			tz = fz - k;
+			dk = components;
+		}
+		int p = ((i*ny + j)*nz + k)*components;
+		double w000 = (1-tx)*(1-ty)*(1-tz), w001 = (1-tx)*(1-ty)*tz, w010 = (1-tx)*ty*(1-tz), w011 = (1-tx)*ty*tz;
+		double w100 = tx*(1-ty)*(1-tz), w101 = tx*(1-ty)*tz, w110 = tx*ty*(1-tz), w111 = tx*ty*tz;
+		int offset = hasElectric ? 0 : 3;
+		for (int m=0; m<components; m++){
+			int q = p + m;
+			out[offset + m] = w000*data.get(q) + w001*data.get(q + dk) + w010*data.get(q + dj) + w011*data.get(q + dj + dk)
+				+ w100*data.get(q + di) + w101*data.get(q + di + dk) + w110*data.get(q + di + dj) + w111*data.get(q + di + dj + dk);
+		}
+	}
+
+	/**
+ 	*  Return the electric field strength at a position
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(PhysicsVector aPosition, double t){
+		double[] field = new double[6];
+		interpolate(aPosition.getX(), aPosition.getY(), aPosition.getZ(), field);
+		return new PhysicsVector(field[0], field[1], field[2]);
+	}
+
+	/**
+ 	*  Get the magnetic flux density at a position
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(PhysicsVector aPosition, double t){
+		double[] field = new double[6];
+		interpolate(aPosition.getX(), aPosition.getY(), aPosition.getZ(), field);
+		return new PhysicsVector(field[3], field[4], field[5]);
+	}
+
+	/**
+ 	*  Return the electric field strength being experienced by a particle
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(Particle aParticle, double t){
+		return getElectric(aParticle.position, t);
+	}
+
+	/**
+ 	*  Get the magnetic flux density being experienced by a particle
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(Particle aParticle, double t){
+		return getMagnetic(aParticle.position, t);
+	}
+
+	/**
+ 	*  Get the potential energy of a particle (the potential is not stored, so zero)
+ 	*
+ 	* @return The potential energy in J
+ 	*/
+	public double getPotentialE(ChargedParticle aParticle, double t){
+		return 0.0;
+	}
+
+	/**
+ 	* Adds the scaled Lorentz acceleration to an existing vector, interpolating E and B together
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+	* @param velocity - the velocity of the particle
+	* @param scale - factor multiplying the acceleration
+	* @param out - the vector the scaled acceleration is added to
+ 	*/
+	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
+	{
+		double[] f = new double[6];
+		interpolate(theParticle.position.getX(), theParticle.position.getY(), theParticle.position.getZ(), f);
+		double vx = velocity.getX(), vy = velocity.getY(), vz = velocity.getZ();
+		double qOverM = scale*theParticle.getCharge()/theParticle.getMass();
+		out.setVector(out.getX() + qOverM*(f[0] + (vy*f[5] - vz*f[4])), // E + v cross B
+			out.getY() + qOverM*(f[1] + (vz*f[3] - vx*f[5])),
+			out.getZ() + qOverM*(f[2] + (vx*f[4] - vy*f[3])));
+	}
+
+	/**
+ 	* Adds the scaled fields to existing vectors, interpolating E and B together
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+	* @param scale - factor multiplying both fields
+	* @param electricOut - the vector the scaled electric field strength is added to
+	* @param magneticOut - the vector the scaled magnetic flux density is added to
+ 	*/
+	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
+	{
+		double[] f = new double[6];
+		interpolate(theParticle.position.getX(), theParticle.position.getY(), theParticle.position.getZ(), f);
+		electricOut.setVector(electricOut.getX() + scale*f[0], electricOut.getY() + scale*f[1], electricOut.getZ() + scale*f[2]);
+		magneticOut.setVector(magneticOut.getX() + scale*f[3], magneticOut.getY() + scale*f[4], magneticOut.getZ() + scale*f[5]);
+	}
+
+	/**
+ 	* Adds the scaled Lorentz acceleration for a slice of particles
+ 	*/
+	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] mass, double[] charge, double t, double scale, double[] weight,
+		double[] ax, double[] ay, double[] az, int from, int to)
+	{
+		double[] f = new double[6];
+		for (int i=from; i<to; i++){
+			double w = (weight == null) ? scale : scale*weight[i-from];
+			if(w == 0.0){
+				continue;
+			}
+			interpolate(x[i], y[i], z[i], f);
+			double qOverM = w*charge[i]/mass[i];
+			ax[i] += qOverM*(f[0] + (vy[i]*f[5] - vz[i]*f[4])); // E + v cross B
+			ay[i] += qOverM*(f[1] + (vz[i]*f[3] - vx[i]*f[5]));
+			az[i] += qOverM*(f[2] + (vx[i]*f[4] - vy[i]*f[3]));
+		}
+	}
+}
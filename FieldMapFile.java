@@ -0,0 +1,282 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+* A Class which stores field maps in binary grid files and opens them by memory-mapping.
+* Opening a file reads only its header: the values are served to the FieldMap straight from the mapped
+* file, so nothing is parsed or copied onto the heap, and every simulation which opens the same file,
+* in this JVM or another, shares the same pages of the operating system's cache.
+* <p>
+* Survey exports are converted once from text with convert (or by running this class), and any FieldMap,
+* such as one sampled from an expensive field, can be saved with write.
+* <p>
+* File layout (little-endian): a 128 byte header holding long magic, int version, int flags
+* (1 => electric field stored, 2 => magnetic field stored), int nx, ny, nz, 4 bytes of padding and
+* double x0, y0, z0, hx, hy, hz, followed by the values in the order used by FieldMap.
+* A file may hold at most 2 GB of values.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class FieldMapFile {
+
+	public static final long MAGIC = 0x43594346504D4150L; // "CYCFPMAP"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 128;
+	private static final int ELECTRIC = 1, MAGNETIC = 2;
+
+	private static final ConcurrentHashMap<Path, ByteBuffer> mapped = new ConcurrentHashMap<Path, ByteBuffer>(); // files already mapped
+
+	/**
+	* Open a field map file, mapping it into memory (once per file, however many maps are opened from it)
+	* @param fileName the file
+	* @param order the interpolation order (1 => trilinear, 3 => tricubic)
+	* @return the field map, reading its values from the mapped file
+	*/
+	public static FieldMap open(String fileName, int order) throws IOException {
+		Path path = Paths.get(fileName).toRealPath();
+		ByteBuffer file = mapped.get(path);
+		if(file == null){
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+				if(channel.size() > Integer.MAX_VALUE){
+					throw new IOException(fileName + " is larger than 2 GB");
+				}
+				file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			ByteBuffer previous = mapped.putIfAbsent(path, file);
+			if(previous != null){
+				file = previous;
+			}
+		}
+		ByteBuffer header = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if(header.capacity() < HEADER_SIZE || header.getLong(0) != MAGIC){
+			throw new IOException(fileName + " is not a field map file");
+		}
+		if(header.getInt(8) != VERSION){
+			throw new IOException("Unsupported field map file version " + header.getInt(8));
+		}
+		int flags = header.getInt(12);
+		int nx = header.getInt(16), ny = header.getInt(20), nz = header.getInt(24);
+		double x0 = header.getDouble(32), y0 = header.getDouble(40), z0 = header.getDouble(48);
+		double hx = header.getDouble(56), hy = header.getDouble(64), hz = header.getDouble(72);
+		header.position(HEADER_SIZE);
+		DoubleBuffer values = header.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		return new FieldMap(values, (flags & ELECTRIC) != 0, (flags & MAGNETIC) != 0, x0, y0, z0, hx, hy, hz, nx, ny, nz, order);
+	}
+
+	/**
+	* Save a field map to a file
+	* @param map the field map
+	* @param fileName the file to write
+	*/
+	public static void write(FieldMap map, String fileName) throws IOException {
+		long count = (long)map.components*map.nx*map.ny*map.nz;
+		try (FileChannel channel = create(fileName, map.hasElectric, map.hasMagnetic, map.x0, map.y0, map.z0,
+			map.hx, map.hy, map.hz, map.nx, map.ny, map.nz))
+		{
+			DoubleBuffer values = values(channel, count);
+			for (int p=0; p<count; p++){
+				values.put(p, map.data.get(p));
+			}
+		}
+	}
+
+	/**
+	* Convert a text export of a field map on a regular grid to a field map file.
+	* Each line holds the position and field at one grid point, separated by commas, spaces or tabs,
+	* in any order. The first line may name the columns (x, y, z, ex, ey, ez, bx, by, bz in any order and case);
+	* otherwise the columns are x, y, z, bx, by, bz. Units in brackets after a name are ignored.
+	* Lines starting with # are skipped.
+	* @param input the text file
+	* @param fileName the field map file to write
+	* @param lengthScale factor converting the positions to m (such as 0.001 for mm)
+	* @param fieldScale factor converting the fields to SI units (such as 1e-4 for Gauss)
+	* @return the number of grid points with no line in the export (left as zero)
+	*/
+	public static long convert(String input, String fileName, double lengthScale, double fieldScale) throws IOException {
+		// first pass: the columns and the coordinates of the grid
+		int[] column = null; // column of x, y, z, ex, ey, ez, bx, by, bz (-1 => absent)
+		TreeSet<Double> xs = new TreeSet<Double>(), ys = new TreeSet<Double>(), zs = new TreeSet<Double>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(input), 1 << 16)){
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] parts = split(line);
+				if(parts == null){
+					continue;
+				}
+				if(column == null){
+					column = columns(parts);
+					if(Character.isLetter(parts[0].charAt(0))){
+						continue; // the names of the columns
+					}
+				}
+				xs.add(Double.parseDouble(parts[column[0]]));
+				ys.add(Double.parseDouble(parts[column[1]]));
+				zs.add(Double.parseDouble(parts[column[2]]));
+			}
+		}
+		if(column == null){
+			throw new IOException(input + " holds no grid points");
+		}
+		boolean hasElectric = column[3] >= 0, hasMagnetic = column[6] >= 0;
+		double[] x = axis(xs, "x"), y = axis(ys, "y"), z = axis(zs, "z");
+		int nx = xs.size(), ny = ys.size(), nz = zs.size();
+		int components = (hasElectric && hasMagnetic) ? 6 : 3;
+		long count = (long)components*nx*ny*nz;
+		boolean[] seen = new boolean[nx*ny*nz];
+
+		// second pass: the values, placed at their grid points
+		try (FileChannel channel = create(fileName, hasElectric, hasMagnetic, lengthScale*x[0], lengthScale*y[0], lengthScale*z[0],
+				lengthScale*x[1], lengthScale*y[1], lengthScale*z[1], nx, ny, nz);
+			BufferedReader reader = new BufferedReader(new FileReader(input), 1 << 16))
+		{
+			DoubleBuffer values = values(channel, count);
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] parts = split(line);
+				if(parts == null || Character.isLetter(parts[0].charAt(0))){
+					continue;
+				}
+				int i = index(Double.parseDouble(parts[column[0]]), x);
+				int j = index(Double.parseDouble(parts[column[1]]), y);
+				int k = index(Double.parseDouble(parts[column[2]]), z);
+				int point = (i*ny + j)*nz + k;
+				seen[point] = true;
+				int p = point*components;
+				for (int c=3; c<9; c++){
+					if(column[c] >= 0){
+						values.put(p++, fieldScale*Double.parseDouble(parts[column[c]]));
+					}
+				}
+			}
+		}
+		long missing = 0;
+		for (boolean s : seen){
+			if(!s) missing++;
+		}
+		return missing;
+	}
+
+	/**
+	* Split a line of the export into its fields
+	* @return the fields, or null for a blank line or comment
+	*/
+	private static String[] split(String line){
+		line = line.trim();
+		if(line.isEmpty() || line.startsWith("#")){
+			return null;
+		}
+		return line.split("[,;\\s]+");
+	}
+
+	/**
+	* Find the columns from the first line of the export
+	*/
+	private static int[] columns(String[] first) throws IOException {
+		String[] names = {"x", "y", "z", "ex", "ey", "ez", "bx", "by", "bz"};
+		int[] column = new int[names.length];
+		if(!Character.isLetter(first[0].charAt(0))){
+			if(first.length < 6){
+				throw new IOException("Expected the columns x, y, z, bx, by, bz");
+			}
+			return new int[]{0, 1, 2, -1, -1, -1, 3, 4, 5};
+		}
+		for (int c=0; c<names.length; c++){
+			column[c] = -1;
+			for (int i=0; i<first.length; i++){
+				if(first[i].split("[\\[(]")[0].replaceAll("[^A-Za-z]", "").equalsIgnoreCase(names[c])){ // ignore units such as x[mm]
+					column[c] = i;
+				}
+			}
+		}
+		if(column[0] < 0 || column[1] < 0 || column[2] < 0){
+			throw new IOException("The export must have x, y and z columns");
+		}
+		for (int f=3; f<9; f+=3){
+			boolean any = column[f] >= 0 || column[f+1] >= 0 || column[f+2] >= 0;
+			boolean all = column[f] >= 0 && column[f+1] >= 0 && column[f+2] >= 0;
+			if(any && !all){
+				throw new IOException("The export must have all three components of " + ((f == 3) ? "E" : "B"));
+			}
+		}
+		if(column[3] < 0 && column[6] < 0){
+			throw new IOException("The export must have an electric or magnetic field");
+		}
+		return column;
+	}
+
+	/**
+	* Check the coordinates along an axis are evenly spaced
+	* @return {first coordinate, spacing} (spacing 1 for a single coordinate)
+	*/
+	private static double[] axis(TreeSet<Double> values, String name) throws IOException {
+		double first = values.first(), last = values.last();
+		int n = values.size();
+		double spacing = (n > 1) ? (last - first)/(n - 1) : 1.0;
+		int i = 0;
+		for (double value : values){
+			if(Math.abs(value - (first + i*spacing)) > 1e-6*spacing){
+				throw new IOException("The " + name + " coordinates are not evenly spaced near " + value);
+			}
+			i++;
+		}
+		return new double[]{first, spacing};
+	}
+
+	private static int index(double value, double[] axis){
+		return (int)Math.round((value - axis[0])/axis[1]);
+	}
+
+	/**
+	* Create a field map file and write its header
+	*/
+	private static FileChannel create(String fileName, boolean hasElectric, boolean hasMagnetic, double x0, double y0, double z0,
+		double hx, double hy, double hz, int nx, int ny, int nz) throws IOException
+	{
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(0, MAGIC);
+		header.putInt(8, VERSION);
+		header.putInt(12, (hasElectric ? ELECTRIC : 0) | (hasMagnetic ? MAGNETIC : 0));
+		header.putInt(16, nx);
+		header.putInt(20, ny);
+		header.putInt(24, nz);
+		header.putDouble(32, x0);
+		header.putDouble(40, y0);
+		header.putDouble(48, z0);
+		header.putDouble(56, hx);
+		header.putDouble(64, hy);
+		header.putDouble(72, hz);
+		channel.write(header, 0);
+		return channel;
+	}
+
+	/**
+	* Map the values of a new field map file for writing
+	*/
+	private static DoubleBuffer values(FileChannel channel, long count) throws IOException {
+		if(8*count > Integer.MAX_VALUE - HEADER_SIZE){
+			throw new IOException("A field map file may hold at most 2 GB of values");
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, 8*count).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+	/**
+	* Convert a text export of a field map to a field map file
+	* @param args the export, the file to write and optionally the length and field scale factors
+	*/
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2){
+			System.out.println("Usage: java FieldMapFile <export.csv> <map.fmap> [length scale to m] [field scale to SI]");
+			return;
+		}
+		double lengthScale = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+		double fieldScale = (args.length > 3) ? Double.parseDouble(args[3]) : 1.0;
+		long missing = convert(args[0], args[1], lengthScale, fieldScale);
+		System.out.println("Wrote " + args[1] + ((missing > 0) ? ", " + missing + " grid points were missing and are zero" : ""));
+	}
+}
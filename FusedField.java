@@ -0,0 +1,314 @@
+import java.util.*;
+
+public class FusedField extends GeneralEMField{
+	/**
+	* Represents a list of fields compiled into a single field which is evaluated in one pass.
+	* Every field built from an EMField wrapped in any number of OscillatingFields and BoundFields
+	* is flattened into one term holding its E and B, its oscillation factors and its bounds.
+	* Uniform fields without oscillation or bounds are folded into a single constant E and B,
+	* the sin(frequency*t + phase) factors are computed once per time rather than once per particle,
+	* and the bounds are tested inline. Fields of any other type are kept and evaluated as they are.
+	* <p>
+	* The field vectors are copied when the field is compiled, so later changes to the original
+	* fields are not seen.
+	*
+	* @author Jake Murkin
+	* @version 1.0
+	*/
+
+	protected double[] constantE = new double[3]; // sum of the uniform electric fields
+	protected double[] constantB = new double[3]; // sum of the uniform magnetic fields
+	protected int nTerms; // number of oscillating and/or bound terms
+	protected double[] termE, termB; // E and B of each term, three components per term
+	protected double[][] termFrequency, termPhase; // oscillation factors of each term
+	protected double[] termXBounds, termYBounds; // bounds of each term (infinite if unbound)
+	protected ArrayList<GeneralEMField> otherFields = new ArrayList<GeneralEMField>(); // fields which could not be compiled
+
+	private volatile Weights recent, previous; // time factors of the terms for the two most recent times
+
+	/**
+ 	*  Constructor which compiles a list of fields
+ 	*
+ 	* @param fields The fields to fuse
+ 	*/
+	public FusedField(ArrayList<GeneralEMField> fields){
+		ArrayList<double[]> es = new ArrayList<double[]>();
+		ArrayList<double[]> bs = new ArrayList<double[]>();
+		ArrayList<double[]> frequencies = new ArrayList<double[]>();
+		ArrayList<double[]> phases = new ArrayList<double[]>();
+		ArrayList<double[]> bounds = new ArrayList<double[]>();
+
+		for (GeneralEMField field : fields){
+			ArrayList<Double> frequency = new ArrayList<Double>();
+			ArrayList<Double> phase = new ArrayList<Double>();
+			double xBounds = Double.POSITIVE_INFINITY;
+			double yBounds = Double.POSITIVE_INFINITY;
+
+			// unwrap the oscillating and bound fields down to the uniform field
+			GeneralEMField inner = field;
+			while(inner instanceof OscillatingField || inner instanceof BoundField){
+				if(inner instanceof OscillatingField){
+					OscillatingField osc = (OscillatingField)inner;
+					frequency.add(osc.frequency);
+					phase.add(osc.phase);
+					inner = osc.otherField;
+				}else{
+					BoundField bound = (BoundField)inner;
+					xBounds = Math.min(xBounds, bound.xBounds);
+					yBounds = Math.min(yBounds, bound.yBounds);
+					inner = bound.otherField;
+				}
+			}
+
+			if(!(inner instanceof EMField)){
+				otherFields.add(field);
+				continue;
+			}
+			EMField uniform = (EMField)inner;
+			double[] e = {uniform.electric.getX(), uniform.electric.getY(), uniform.electric.getZ()};
+			double[] b = {uniform.magnetic.getX(), uniform.magnetic.getY(), uniform.magnetic.getZ()};
+
+			if(frequency.isEmpty() && xBounds == Double.POSITIVE_INFINITY && yBounds == Double.POSITIVE_INFINITY){
+				for (int i=0; i<3; i++){
+					constantE[i] += e[i];
+					constantB[i] += b[i];
+				}
+			}else{
+				es.add(e);
+				bs.add(b);
+				frequencies.add(toArray(frequency));
+				phases.add(toArray(phase));
+				bounds.add(new double[]{xBounds, yBounds});
+			}
+		}
+
+		nTerms = es.size();
+		termE = new double[3*nTerms];
+		termB = new double[3*nTerms];
+		termFrequency = new double[nTerms][];
+		termPhase = new double[nTerms][];
+		termXBounds = new double[nTerms];
+		termYBounds = new double[nTerms];
+		for (int k=0; k<nTerms; k++){
+			System.arraycopy(es.get(k), 0, termE, 3*k, 3);
+			System.arraycopy(bs.get(k), 0, termB, 3*k, 3);
+			termFrequency[k] = frequencies.get(k);
+			termPhase[k] = phases.get(k);
+			termXBounds[k] = bounds.get(k)[0];
+			termYBounds[k] = bounds.get(k)[1];
+		}
+	}
+
+	private static double[] toArray(ArrayList<Double> list){
+		double[] array = new double[list.size()];
+		for (int i=0; i<array.length; i++){
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	* Return the number of fields which could not be compiled and are evaluated as they are
+	*
+	* @return the number of uncompiled fields
+	*/
+	public int getUncompiledCount(){
+		return otherFields.size();
+	}
+
+	/**
+	* Return the time factor of every term, computing them only when the time changes.
+	* The last two times are kept since the update methods alternate between the start and end of a step.
+	*/
+	private double[] weights(double t){
+		Weights w = recent;
+		if(w != null && w.time == t){
+			return w.factors;
+		}
+		Weights p = previous;
+		if(p != null && p.time == t){
+			return p.factors;
+		}
+		double[] factors = new double[nTerms];
+		for (int k=0; k<nTerms; k++){
+			double factor = 1.0;
+			for (int j=0; j<termFrequency[k].length; j++){
+				factor *= Math.sin((termFrequency[k][j]*t) + termPhase[k][j]);
+			}
+			factors[k] = factor;
+		}
+		previous = w;
+		recent = new Weights(t, factors);
+		return factors;
+	}
+
+	/**
+ 	*  Return the electric field strength at a position
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(PhysicsVector aPosition, double t){
+		ChargedParticle probe = new ChargedParticle(0.0, 0.0, aPosition, new PhysicsVector());
+		PhysicsVector electric = new PhysicsVector();
+		addFields(probe, t, 1.0, electric, new PhysicsVector());
+		return electric;
+	}
+
+	/**
+ 	*  Get the magnetic flux density at a position
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(PhysicsVector aPosition, double t){
+		ChargedParticle probe = new ChargedParticle(0.0, 0.0, aPosition, new PhysicsVector());
+		PhysicsVector magnetic = new PhysicsVector();
+		addFields(probe, t, 1.0, new PhysicsVector(), magnetic);
+		return magnetic;
+	}
+
+	/**
+ 	*  Return the electric field strength being experienced by a particle
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(Particle aParticle, double t){
+		return getElectric(aParticle.position, t);
+	}
+
+ 	/**
+ 	*  Get the magnetic flux density being experienced by a particle
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(Particle aParticle, double t){
+		return getMagnetic(aParticle.position, t);
+	}
+
+ 	/**
+ 	*  Get the potential energy of a particle due to the uncompiled fields (the uniform fields contribute zero)
+ 	*
+ 	* @return The potential energy in J
+ 	*/
+	public double getPotentialE(ChargedParticle aParticle, double t){
+		double energy = 0.0;
+		for (GeneralEMField field : otherFields){
+			energy += field.getPotentialE(aParticle, t);
+		}
+		return energy;
+	}
+
+	/**
+ 	* Adds the scaled Lorentz acceleration of all the fused fields to an existing vector in one pass
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+	* @param velocity - the velocity of the particle
+	* @param scale - factor multiplying the acceleration
+	* @param out - the vector the scaled acceleration is added to
+ 	*/
+	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
+	{
+		double[] factors = weights(t);
+		double x = Math.abs(theParticle.position.getX()), y = Math.abs(theParticle.position.getY());
+		double ex = constantE[0], ey = constantE[1], ez = constantE[2];
+		double bx = constantB[0], by = constantB[1], bz = constantB[2];
+		for (int k=0; k<nTerms; k++){
+			double w = (x <= termXBounds[k] & y <= termYBounds[k]) ? factors[k] : 0.0;
+			ex += w*termE[3*k];
+			ey += w*termE[3*k+1];
+			ez += w*termE[3*k+2];
+			bx += w*termB[3*k];
+			by += w*termB[3*k+1];
+			bz += w*termB[3*k+2];
+		}
+		double vx = velocity.getX(), vy = velocity.getY(), vz = velocity.getZ();
+		double qOverM = scale*theParticle.getCharge()/theParticle.getMass();
+		out.setVector(out.getX() + qOverM*(ex + (vy*bz - vz*by)), // E + v cross B
+			out.getY() + qOverM*(ey + (vz*bx - vx*bz)),
+			out.getZ() + qOverM*(ez + (vx*by - vy*bx)));
+
+		for (GeneralEMField field : otherFields){
+			field.addAcceleration(theParticle, t, velocity, scale, out);
+		}
+	}
+
+	/**
+ 	* Adds the scaled fields of all the fused fields to existing vectors in one pass
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+	* @param scale - factor multiplying both fields
+	* @param electricOut - the vector the scaled electric field strength is added to
+	* @param magneticOut - the vector the scaled magnetic flux density is added to
+ 	*/
+	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
+	{
+		double[] factors = weights(t);
+		double x = Math.abs(theParticle.position.getX()), y = Math.abs(theParticle.position.getY());
+		double ex = constantE[0], ey = constantE[1], ez = constantE[2];
+		double bx = constantB[0], by = constantB[1], bz = constantB[2];
+		for (int k=0; k<nTerms; k++){
+			double w = (x <= termXBounds[k] & y <= termYBounds[k]) ? factors[k] : 0.0;
+			ex += w*termE[3*k];
+			ey += w*termE[3*k+1];
+			ez += w*termE[3*k+2];
+			bx += w*termB[3*k];
+			by += w*termB[3*k+1];
+			bz += w*termB[3*k+2];
+		}
+		electricOut.setVector(electricOut.getX() + scale*ex, electricOut.getY() + scale*ey, electricOut.getZ() + scale*ez);
+		magneticOut.setVector(magneticOut.getX() + scale*bx, magneticOut.getY() + scale*by, magneticOut.getZ() + scale*bz);
+
+		for (GeneralEMField field : otherFields){
+			field.addFields(theParticle, t, scale, electricOut, magneticOut);
+		}
+	}
+
+	/**
+ 	* Adds the scaled Lorentz acceleration of all the fused fields for a slice of particles.
+ 	* The time factors are looked up once for the whole slice, and the slice is evaluated by BunchKernel,
+ 	* several particles per instruction when the Vector API is available.
+ 	*/
+	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] mass, double[] charge, double t, double scale, double[] weight,
+		double[] ax, double[] ay, double[] az, int from, int to)
+	{
+		BunchKernel.lorentz(x, y, vx, vy, vz, mass, charge, scale, weight, constantE, constantB, weights(t),
+			termE, termB, termXBounds, termYBounds, ax, ay, az, from, to);
+
+		for (GeneralEMField field : otherFields){
+			field.addAccelerations(x, y, z, vx, vy, vz, mass, charge, t, scale, weight, ax, ay, az, from, to);
+		}
+	}
+
+	/**
+ 	* Lets the fields which could not be compiled update themselves from the bunch before a step
+ 	*/
+	public void prepare(BunchArrays bunch, double t){
+		for (GeneralEMField field : otherFields){
+			field.prepare(bunch, t);
+		}
+	}
+
+	/**
+	* Add the held accelerations of the fields which are found from the particles
+	*/
+	public boolean addKicks(BunchArrays bunch, double t, double[] ax, double[] ay, double[] az){
+		boolean added = false;
+		for (GeneralEMField field : otherFields){
+			added |= field.addKicks(bunch, t, ax, ay, az);
+		}
+		return added;
+	}
+
+	/**
+	* The time factors of the terms at one time. Immutable, so it can be shared between threads.
+	*/
+	private static final class Weights {
+		final double time;
+		final double[] factors;
+
+		Weights(double time, double[] factors){
+			this.time = time;
+			this.factors = factors;
+		}
+	}
+}
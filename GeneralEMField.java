@@ -6,7 +6,8 @@ public abstract class GeneralEMField{
 	* @version 1.0
 	*/
 
- 	
+	private final ThreadLocal<ChargedParticle> probe = ThreadLocal.withInitial(ChargedParticle::new); // each thread's particle for the default slice evaluation
+	private final ThreadLocal<PhysicsVector> acceleration = ThreadLocal.withInitial(PhysicsVector::new); // each thread's sum of the acceleration of that particle
  
  	/**
  	*  Return the electric field strength being experienced by a particle
@@ -51,11 +52,8 @@ public abstract class GeneralEMField{
  	*/
  	public PhysicsVector getAcceleration(ChargedParticle theParticle, double t)
  	{
- 		PhysicsVector electric = this.getElectric(theParticle, t);
- 		PhysicsVector magnetic = this.getMagnetic(theParticle, t);
- 		PhysicsVector lorentz=new PhysicsVector(electric); // E
- 		lorentz.increaseBy(PhysicsVector.cross(theParticle.getVelocity(),magnetic)); //+ v cross B
- 		lorentz.scale(theParticle.getCharge()/theParticle.getMass()); // multiply by charge divided by mass
+ 		PhysicsVector lorentz=new PhysicsVector();
+ 		this.addAcceleration(theParticle, t, theParticle.velocity, 1.0, lorentz);
  		return lorentz;
  		
  	}
@@ -67,14 +65,164 @@ public abstract class GeneralEMField{
  	*/
 		public PhysicsVector getAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity)
  	{
- 		PhysicsVector electric = this.getElectric(theParticle, t);
- 		PhysicsVector magnetic = this.getMagnetic(theParticle, t);
- 		PhysicsVector lorentz=new PhysicsVector(electric); // E
- 		lorentz.increaseBy(PhysicsVector.cross(velocity,magnetic)); //+ v cross B
- 		lorentz.scale(theParticle.getCharge()/theParticle.getMass()); // multiply by charge divided by mass
+ 		PhysicsVector lorentz=new PhysicsVector();
+ 		this.addAcceleration(theParticle, t, velocity, 1.0, lorentz);
 		return lorentz;
  		
  	}
  	
+ 	/**
+ 	* Adds the acceleration experienced by a charged particle according to the Lorentz force law (non-relativistic)
+ 	* to an existing vector, so that the contributions of several fields can be summed without allocating.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param out - the vector the acceleration (qE + vXB / m) is added to
+ 	*/
+ 	public void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector out)
+ 	{
+ 		this.addAcceleration(theParticle, t, theParticle.velocity, 1.0, out);
+ 	}
+ 	
+ 	/**
+ 	* Adds the acceleration experienced by a charged particle according to the Lorentz force law (non-relativistic)
+ 	* to an existing vector, so that the contributions of several fields can be summed without allocating.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param velocity - the velocity of the particle
+ 	* @param out - the vector the acceleration (qE + vXB / m) is added to
+ 	*/
+ 	public void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, PhysicsVector out)
+ 	{
+ 		this.addAcceleration(theParticle, t, velocity, 1.0, out);
+ 	}
+ 	
+ 	/**
+ 	* Adds a scaled Lorentz acceleration to an existing vector. Fields which wrap another field override this
+ 	* and pass their own factor (e.g. the oscillation) down to the wrapped field.
+ 	* This default evaluates getElectric and getMagnetic, so subclasses should override it to avoid the copies.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param velocity - the velocity of the particle
+ 	* @param scale - factor multiplying the acceleration
+ 	* @param out - the vector the scaled acceleration is added to
+ 	*/
+ 	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
+ 	{
+ 		double qOverM = scale*theParticle.getCharge()/theParticle.getMass();
+ 		out.addScaled(qOverM, this.getElectric(theParticle, t)); // E
+ 		out.addCrossScaled(qOverM, velocity, this.getMagnetic(theParticle, t)); //+ v cross B
+ 	}
+ 	
+ 	/**
+ 	* Adds the electric field strength and magnetic flux density experienced by a charged particle
+ 	* to existing vectors, for update methods which need E and B separately rather than the acceleration.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param electricOut - the vector the electric field strength is added to
+ 	* @param magneticOut - the vector the magnetic flux density is added to
+ 	*/
+ 	public void addFields(ChargedParticle theParticle, double t, PhysicsVector electricOut, PhysicsVector magneticOut)
+ 	{
+ 		this.addFields(theParticle, t, 1.0, electricOut, magneticOut);
+ 	}
+ 	
+ 	/**
+ 	* Adds the scaled electric field strength and magnetic flux density to existing vectors.
+ 	* This default evaluates getElectric and getMagnetic, so subclasses should override it to avoid the copies.
+ 	* @param theParticle - the charged particle moving in the field
+ 	* @param t - time
+ 	* @param scale - factor multiplying both fields
+ 	* @param electricOut - the vector the scaled electric field strength is added to
+ 	* @param magneticOut - the vector the scaled magnetic flux density is added to
+ 	*/
+ 	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
+ 	{
+ 		electricOut.addScaled(scale, this.getElectric(theParticle, t));
+ 		magneticOut.addScaled(scale, this.getMagnetic(theParticle, t));
+ 	}
+ 	
+ 	/**
+ 	* Adds the Lorentz acceleration of every particle in a slice of primitive arrays to the acceleration arrays.
+ 	* Terms which only depend on time are computed once for the whole slice rather than once per particle.
+ 	* @param x, y, z - the position components of the particles
+ 	* @param vx, vy, vz - the velocity components of the particles
+ 	* @param mass - the mass of each particle
+ 	* @param charge - the charge of each particle
+ 	* @param t - time
+ 	* @param ax, ay, az - the acceleration components the accelerations are added to
+ 	* @param from - the index of the first particle in the slice
+ 	* @param to - one past the index of the last particle in the slice
+ 	*/
+ 	public void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+ 		double[] mass, double[] charge, double t, double[] ax, double[] ay, double[] az, int from, int to)
+ 	{
+ 		this.addAccelerations(x, y, z, vx, vy, vz, mass, charge, t, 1.0, null, ax, ay, az, from, to);
+ 	}
+ 	
+ 	/**
+ 	* Adds the scaled Lorentz acceleration of every particle in a slice to the acceleration arrays.
+ 	* The factor applied to particle i is scale*weight[i-from], or scale if weight is null.
+ 	* This default evaluates the particles one at a time through addAcceleration, so subclasses
+ 	* should override it to hoist the work shared by the slice.
+ 	* @param x, y, z - the position components of the particles
+ 	* @param vx, vy, vz - the velocity components of the particles
+ 	* @param mass - the mass of each particle
+ 	* @param charge - the charge of each particle
+ 	* @param t - time
+ 	* @param scale - factor multiplying every acceleration
+ 	* @param weight - factor multiplying the acceleration of each particle in the slice (null => 1)
+ 	* @param ax, ay, az - the acceleration components the accelerations are added to
+ 	* @param from - the index of the first particle in the slice
+ 	* @param to - one past the index of the last particle in the slice
+ 	*/
+ 	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+ 		double[] mass, double[] charge, double t, double scale, double[] weight,
+ 		double[] ax, double[] ay, double[] az, int from, int to)
+ 	{
+ 		ChargedParticle probe = this.probe.get();
+ 		PhysicsVector acceleration = this.acceleration.get();
+ 		for (int i=from; i<to; i++){
+ 			double w = (weight == null) ? scale : scale*weight[i-from];
+ 			if(w == 0.0){
+ 				continue;
+ 			}
+ 			probe.setMass(mass[i]);
+ 			probe.setCharge(charge[i]);
+ 			probe.position.setVector(x[i], y[i], z[i]);
+ 			probe.velocity.setVector(vx[i], vy[i], vz[i]);
+ 			acceleration.setVector(0,0,0);
+ 			this.addAcceleration(probe, t, probe.velocity, w, acceleration);
+ 			ax[i] += acceleration.getX();
+ 			ay[i] += acceleration.getY();
+ 			az[i] += acceleration.getZ();
+ 		}
+ 	}
+ 	
+	/**
+ 	* Called by BunchPusher once per step, while no particle is being pushed (before the first step, and after each
+ 	* step whose fields gave kicks), so a field which depends on the bunch itself (such as space charge) can update
+ 	* itself from the particles' current positions.
+ 	* Fields which only depend on position and time do nothing.
+ 	* @param bunch - the bunch about to be pushed
+ 	* @param t - time
+ 	*/
+ 	public void prepare(BunchArrays bunch, double t)
+ 	{
+ 	}
+
+	/**
+ 	* Called by BunchPusher after prepare, so a field found from the particles themselves can give the acceleration
+ 	* of each particle at the positions it was prepared from. The positions the update methods evaluate within a
+ 	* step are not those, so such a field adds nothing there, and BunchPusher gives the acceleration added here as
+ 	* kicks to the velocities between steps instead. Other fields add nothing.
+ 	* @param bunch - the bunch prepared from
+ 	* @param t - time
+ 	* @param ax, ay, az - the acceleration components of each particle, indexed as in the bunch
+ 	* @return true if anything was added
+ 	*/
+ 	public boolean addKicks(BunchArrays bunch, double t, double[] ax, double[] ay, double[] az)
+ 	{
+ 		return false;
+ 	}
  	
 }
@@ -0,0 +1,423 @@
+import java.util.stream.IntStream;
+
+public class GridSpaceChargeField extends GeneralEMField{
+	/**
+	* Represents the electric field of the particles of a bunch acting on each other (space charge),
+	* found with the particle-in-cell method. Before every step (see prepare) the charge of the particles
+	* is spread onto a grid around the bunch with cloud-in-cell weighting, the potential is found by
+	* convolving the charge with the open-boundary Green's function 1/(4 pi epsilon_0 r) using FFTs on a
+	* grid of twice the size (Hockney's method), and the electric field is found on the grid by central
+	* differences. The field at a particle is interpolated from the grid with the same cloud-in-cell weights.
+	* <p>
+	* The charge is spread on several threads, each onto its own grid, and the grids are summed; the
+	* field is interpolated at each particle in parallel, so the cost grows linearly with the number
+	* of particles. A grid with one point in z is a single plane, suitable for flat bunches.
+	* The field acts on the particles only through addKicks, at the positions the grid was filled from, which
+	* BunchPusher gives as kicks between steps: a particle moved within a step would otherwise feel the charge
+	* it left on the grid. The per-particle and slice evaluations add nothing.
+	* Outside the grid the bunch is treated as a point charge at its centre.
+	* The field is electrostatic, so the magnetic field of the moving charges is neglected.
+	*
+	* @author Jake Murkin
+	* @version 1.0
+	*/
+
+	public static final double COULOMB = 8.9875517923e9; // 1/(4 pi epsilon_0) in N m^2 C^-2
+	private static final int PAD = 2; // empty cells kept around the bunch on each side
+	private static final double SELF = 2.3800772; // potential at the centre of a uniformly charged cube of side 1
+
+	protected final int nx, ny, nz; // grid points along each axis
+	protected int nThreads; // number of grids the charge is spread onto in parallel
+
+	protected double x0, y0, z0; // position of grid point (0, 0, 0)
+	protected double hx, hy, hz; // grid spacing (hz is unused with one point in z)
+	protected double[] rho; // charge at each grid point, point (i, j, k) at index (i*ny + j)*nz + k
+	protected double[] phi, ex, ey, ez; // potential and electric field at each grid point
+	protected double totalCharge, cx, cy, cz; // total charge and centre of charge, used outside the grid
+
+	private double[][] partial; // per-thread charge grids
+	private double[] greenRe, greenIm; // transform of the Green's function on the doubled grid
+	private double greenHx, greenHy, greenHz; // spacing the Green's function was found for
+	private boolean ready = false; // true once a bunch has been prepared
+
+	/**
+	* Constructor with the size of the grid
+	* @param nx, ny, nz the number of grid points along each axis (each 1 or a power of two, at least 8 if not 1)
+	*/
+	public GridSpaceChargeField(int nx, int ny, int nz){
+		this(nx, ny, nz, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	* Constructor with the size of the grid and the number of threads the charge is spread on
+	* @param nx, ny, nz the number of grid points along each axis (each 1 or a power of two, at least 8 if not 1)
+	* @param nThreads the number of threads (and grids) the charge is spread on
+	*/
+	public GridSpaceChargeField(int nx, int ny, int nz, int nThreads){
+		for (int n : new int[]{nx, ny, nz}){
+			if(n != 1 && (!FFT.isPowerOfTwo(n) || n < 4*PAD)){
+				throw new IllegalArgumentException("Grid sizes must be 1 or a power of two of at least " + 4*PAD + ", not " + n);
+			}
+		}
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+		this.nThreads = Math.max(1, nThreads);
+		int size = nx*ny*nz;
+		rho = new double[size];
+		phi = new double[size];
+		ex = new double[size];
+		ey = new double[size];
+		ez = new double[size];
+		partial = new double[this.nThreads][size];
+	}
+
+	/**
+	* Spread the charge of the bunch onto the grid and solve for the field
+	* @param bunch - the bunch about to be pushed
+	* @param t - time
+	*/
+	public void prepare(final BunchArrays bunch, double t){
+		final int n = bunch.size();
+		if(n == 0){
+			ready = false;
+			return;
+		}
+		placeGrid(bunch);
+
+		// cloud-in-cell deposition, one grid per thread
+		final int chunk = (n + nThreads - 1)/nThreads;
+		IntStream.range(0, nThreads).parallel().forEach((c) -> {
+			double[] grid = partial[c];
+			double[] state = new double[6];
+			java.util.Arrays.fill(grid, 0.0);
+			int end = Math.min(n, (c+1)*chunk);
+			for (int i=c*chunk; i<end; i++){
+				bunch.getState(i, state);
+				deposit(grid, state[0], state[1], state[2], bunch.charge[i]);
+			}
+		});
+		// reduction
+		IntStream.range(0, nx).parallel().forEach((i) -> {
+			int from = i*ny*nz, to = from + ny*nz;
+			for (int p=from; p<to; p++){
+				double sum = 0.0;
+				for (double[] grid : partial){
+					sum += grid[p];
+				}
+				rho[p] = sum;
+			}
+		});
+
+		solve();
+		gradient();
+		ready = true;
+	}
+
+	/**
+	* Centre the grid on the bunch, keeping the spacing unless the bunch has outgrown it or shrunk to under half of it
+	*/
+	private void placeGrid(BunchArrays bunch){
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		double q = 0.0, sx = 0.0, sy = 0.0, sz = 0.0, w = 0.0;
+		double[] state = new double[6];
+		for (int i=0; i<bunch.size(); i++){
+			bunch.getState(i, state);
+			minX = Math.min(minX, state[0]);
+			maxX = Math.max(maxX, state[0]);
+			minY = Math.min(minY, state[1]);
+			maxY = Math.max(maxY, state[1]);
+			minZ = Math.min(minZ, state[2]);
+			maxZ = Math.max(maxZ, state[2]);
+			double a = Math.abs(bunch.charge[i]);
+			q += bunch.charge[i];
+			w += a;
+			sx += a*state[0];
+			sy += a*state[1];
+			sz += a*state[2];
+		}
+		totalCharge = q;
+		cx = (w > 0.0) ? sx/w : 0.5*(minX + maxX);
+		cy = (w > 0.0) ? sy/w : 0.5*(minY + maxY);
+		cz = (w > 0.0) ? sz/w : 0.5*(minZ + maxZ);
+
+		double largest = Math.max(maxX - minX, Math.max(maxY - minY, (nz > 1) ? maxZ - minZ : 0.0));
+		if(largest == 0.0){
+			largest = 1.0e-6; // a single point: any size will do
+		}
+		hx = spacing(hx, maxX - minX, largest, nx);
+		hy = spacing(hy, maxY - minY, largest, ny);
+		hz = (nz > 1) ? spacing(hz, maxZ - minZ, largest, nz) : 1.0;
+		x0 = 0.5*(minX + maxX) - 0.5*(nx - 1)*hx;
+		y0 = 0.5*(minY + maxY) - 0.5*(ny - 1)*hy;
+		z0 = (nz > 1) ? 0.5*(minZ + maxZ) - 0.5*(nz - 1)*hz : 0.5*(minZ + maxZ);
+	}
+
+	private static double spacing(double current, double extent, double largest, int n){
+		if(n == 1){
+			return 1.0;
+		}
+		extent = Math.max(extent, 1.0e-3*largest); // a flat axis still needs a spacing
+		double cells = n - 1 - 2*PAD;
+		if(current > 0.0 && extent <= cells*current && extent >= 0.5*cells*current){
+			return current;
+		}
+		return 1.1*extent/cells; // room to grow before the Green's function has to be found again
+	}
+
+	/**
+	* Spread a charge onto the eight (or four, with one point in z) nearest grid points
+	*/
+	private void deposit(double[] grid, double px, double py, double pz, double q){
+		double fx = (px - x0)/hx, fy = (py - y0)/hy;
+		int i = (int)Math.floor(fx), j = (int)Math.floor(fy);
+		double wx = fx - i, wy = fy - j;
+		if(i < 0 || j < 0 || i >= nx-1 || j >= ny-1){
+			return;
+		}
+		if(nz == 1){
+			int p = i*ny + j;
+			grid[p] += q*(1-wx)*(1-wy);
+			grid[p + 1] += q*(1-wx)*wy;
+			grid[p + ny] += q*wx*(1-wy);
+			grid[p + ny + 1] += q*wx*wy;
+			return;
+		}
+		double fz = (pz - z0)/hz;
+		int k = (int)Math.floor(fz);
+		double wz = fz - k;
+		if(k < 0 || k >= nz-1){
+			return;
+		}
+		int p = (i*ny + j)*nz + k;
+		int sj = nz, si = ny*nz;
+		grid[p] += q*(1-wx)*(1-wy)*(1-wz);
+		grid[p + 1] += q*(1-wx)*(1-wy)*wz;
+		grid[p + sj] += q*(1-wx)*wy*(1-wz);
+		grid[p + sj + 1] += q*(1-wx)*wy*wz;
+		grid[p + si] += q*wx*(1-wy)*(1-wz);
+		grid[p + si + 1] += q*wx*(1-wy)*wz;
+		grid[p + si + sj] += q*wx*wy*(1-wz);
+		grid[p + si + sj + 1] += q*wx*wy*wz;
+	}
+
+	/**
+	* Find the potential on the grid by convolving the charge with the Green's function on the doubled grid
+	*/
+	private void solve(){
+		int mx = doubled(nx), my = doubled(ny), mz = doubled(nz);
+		if(greenRe == null || hx != greenHx || hy != greenHy || hz != greenHz){
+			green(mx, my, mz);
+		}
+		double[] re = new double[mx*my*mz];
+		double[] im = new double[mx*my*mz];
+		for (int i=0; i<nx; i++){
+			for (int j=0; j<ny; j++){
+				System.arraycopy(rho, (i*ny + j)*nz, re, (i*my + j)*mz, nz);
+			}
+		}
+		FFT.transform(re, im, mx, my, mz, false);
+		for (int p=0; p<re.length; p++){
+			double a = re[p]*greenRe[p] - im[p]*greenIm[p];
+			im[p] = re[p]*greenIm[p] + im[p]*greenRe[p];
+			re[p] = a;
+		}
+		FFT.transform(re, im, mx, my, mz, true);
+		double norm = 1.0/re.length;
+		for (int i=0; i<nx; i++){
+			for (int j=0; j<ny; j++){
+				for (int k=0; k<nz; k++){
+					phi[(i*ny + j)*nz + k] = norm*re[(i*my + j)*mz + k];
+				}
+			}
+		}
+	}
+
+	private static int doubled(int n){
+		return (n == 1) ? 1 : 2*n;
+	}
+
+	/**
+	* Find the transform of the Green's function for the current spacing
+	*/
+	private void green(int mx, int my, int mz){
+		greenRe = new double[mx*my*mz];
+		greenIm = new double[mx*my*mz];
+		double cell = (nz == 1) ? Math.sqrt(hx*hy) : Math.cbrt(hx*hy*hz);
+		for (int i=0; i<mx; i++){
+			double dx = Math.min(i, mx - i)*hx;
+			for (int j=0; j<my; j++){
+				double dy = Math.min(j, my - j)*hy;
+				for (int k=0; k<mz; k++){
+					double dz = Math.min(k, mz - k)*hz;
+					double r = Math.sqrt(dx*dx + dy*dy + ((mz == 1) ? 0.0 : dz*dz));
+					greenRe[(i*my + j)*mz + k] = COULOMB*((r == 0.0) ? SELF/cell : 1.0/r);
+				}
+			}
+		}
+		FFT.transform(greenRe, greenIm, mx, my, mz, false);
+		greenHx = hx;
+		greenHy = hy;
+		greenHz = hz;
+	}
+
+	/**
+	* Find the electric field on the grid from the potential by central differences (one sided at the edges)
+	*/
+	private void gradient(){
+		IntStream.range(0, nx).parallel().forEach((i) -> {
+			for (int j=0; j<ny; j++){
+				for (int k=0; k<nz; k++){
+					int p = (i*ny + j)*nz + k;
+					ex[p] = -difference(phi, p, i, nx, ny*nz, hx);
+					ey[p] = -difference(phi, p, j, ny, nz, hy);
+					ez[p] = (nz == 1) ? 0.0 : -difference(phi, p, k, nz, 1, hz);
+				}
+			}
+		});
+	}
+
+	private static double difference(double[] f, int p, int index, int n, int stride, double h){
+		if(index == 0){
+			return (f[p + stride] - f[p])/h;
+		}else if(index == n-1){
+			return (f[p] - f[p - stride])/h;
+		}
+		return (f[p + stride] - f[p - stride])/(2.0*h);
+	}
+
+	/**
+	* Add the space charge electric field and potential at a point
+	* @param px, py, pz the point
+	* @param out {Ex, Ey, Ez, potential} the field and potential are added to
+	*/
+	protected void evaluate(double px, double py, double pz, double[] out){
+		if(!ready){
+			return;
+		}
+		double fx = (px - x0)/hx, fy = (py - y0)/hy, fz = (nz == 1) ? 0.0 : (pz - z0)/hz;
+		int i = (int)Math.floor(fx), j = (int)Math.floor(fy), k = (int)Math.floor(fz);
+		if(i < 0 || j < 0 || k < 0 || i >= nx-1 || j >= ny-1 || (nz > 1 && k >= nz-1)){
+			// outside the grid: the bunch as a point charge at its centre
+			double dx = px - cx, dy = py - cy, dz = pz - cz;
+			double r2 = dx*dx + dy*dy + dz*dz;
+			double r = Math.sqrt(r2);
+			double f = COULOMB*totalCharge/(r2*r);
+			out[0] += f*dx;
+			out[1] += f*dy;
+			out[2] += f*dz;
+			out[3] += COULOMB*totalCharge/r;
+			return;
+		}
+		double wx = fx - i, wy = fy - j, wz = fz - k;
+		int si = ny*nz, sj = nz;
+		int corners = (nz == 1) ? 4 : 8;
+		for (int c=0; c<corners; c++){
+			int di = c & 1, dj = (c >> 1) & 1, dk = (c >> 2) & 1;
+			double w = ((di == 1) ? wx : 1-wx)*((dj == 1) ? wy : 1-wy)*((nz == 1) ? 1.0 : ((dk == 1) ? wz : 1-wz));
+			int p = (i + di)*si + (j + dj)*sj + k + dk;
+			out[0] += w*ex[p];
+			out[1] += w*ey[p];
+			out[2] += w*ez[p];
+			out[3] += w*phi[p];
+		}
+	}
+
+	/**
+ 	*  Return the space charge electric field strength at a position
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(PhysicsVector aPosition, double t){
+		double[] field = new double[4];
+		evaluate(aPosition.getX(), aPosition.getY(), aPosition.getZ(), field);
+		return new PhysicsVector(field[0], field[1], field[2]);
+	}
+
+	/**
+ 	*  Get the magnetic flux density at a position (neglected, so zero)
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(PhysicsVector aPosition, double t){
+		return new PhysicsVector();
+	}
+
+	/**
+ 	*  Return the space charge electric field strength being experienced by a particle
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(Particle aParticle, double t){
+		return getElectric(aParticle.position, t);
+	}
+
+	/**
+ 	*  Get the magnetic flux density being experienced by a particle (neglected, so zero)
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(Particle aParticle, double t){
+		return new PhysicsVector();
+	}
+
+	/**
+ 	*  Get the potential energy of a particle due to the bunch
+ 	*
+ 	* @return The potential energy in J
+ 	*/
+	public double getPotentialE(ChargedParticle aParticle, double t){
+		double[] field = new double[4];
+		evaluate(aParticle.position.getX(), aParticle.position.getY(), aParticle.position.getZ(), field);
+		return aParticle.getCharge()*field[3];
+	}
+
+	/**
+	* Add the acceleration of each particle of the bunch the grid was filled from, at the position it was filled from.
+	* The particles are evaluated in parallel on large bunches, each by itself, so the result does not depend on the threads.
+	* @param bunch - the bunch the grid was prepared from
+	* @param t - time
+	* @param ax, ay, az - the acceleration components of each particle, indexed as in the bunch
+	* @return true
+	*/
+	public boolean addKicks(final BunchArrays bunch, double t, final double[] ax, final double[] ay, final double[] az){
+		IntStream particles = IntStream.range(0, bunch.size());
+		if(bunch.size() > 4096){
+			particles = particles.parallel();
+		}
+		particles.forEach((i) -> {
+			double[] state = new double[6], field = new double[4];
+			bunch.getState(i, state);
+			evaluate(state[0], state[1], state[2], field);
+			double qOverM = bunch.charge[i]/bunch.mass[i];
+			ax[i] += qOverM*field[0];
+			ay[i] += qOverM*field[1];
+			az[i] += qOverM*field[2];
+		});
+		return true;
+	}
+
+	/**
+ 	* Adds nothing: the space charge acts through addKicks
+ 	*/
+	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
+	{
+	}
+
+	/**
+ 	* Adds nothing: the space charge acts through addKicks
+ 	*/
+	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
+	{
+	}
+
+	/**
+ 	* Adds nothing: the space charge acts through addKicks
+ 	*/
+	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] mass, double[] charge, double t, double scale, double[] weight,
+		double[] ax, double[] ay, double[] az, int from, int to)
+	{
+	}
+}
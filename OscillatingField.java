@@ -81,43 +81,49 @@ public class OscillatingField extends GeneralEMField{
 	}
  	
  	/**
- 	* Returns the acceleration experienced by a charged particle according to the Lorentz force law (non-relativistic).
-	* as its an oscillating field it takes into account the frequency
+ 	* Adds the acceleration of the wrapped field to an existing vector, scaled by sin(frequency*t + phase)
+ 	* as its an oscillating field
  	* @param theParticle - the charged particle moving in the field
  	* @param t - Time
-	* @return the acceleration calculated from (qE + vXB / m)
+	* @param velocity - the velocity of the particle
+	* @param scale - factor multiplying the acceleration
+	* @param out - the vector the scaled acceleration is added to
  	*/
- 	public PhysicsVector getAcceleration(ChargedParticle theParticle, double t)
+ 	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
  	{
- 		PhysicsVector electric = otherField.getElectric(theParticle, t);
-		electric.scale(Math.sin(frequency*t));
- 		PhysicsVector magnetic = otherField.getMagnetic(theParticle, t);
-		magnetic.scale(Math.sin(frequency*t));
- 		PhysicsVector lorentz=new PhysicsVector(electric); // E
- 		lorentz.increaseBy(PhysicsVector.cross(theParticle.getVelocity(),magnetic)); //+ v cross B
- 		lorentz.scale(theParticle.getCharge()/theParticle.getMass()); // multiply by charge divided by mass
-		return lorentz;
- 		
+ 		otherField.addAcceleration(theParticle, t, velocity, scale*Math.sin((frequency*t) + phase), out);
  	}
 	
 	/**
- 	* Returns the acceleration experienced by a charged particle according to the Lorentz force law (non-relativistic).
-	* as its an oscillating field it takes into account the frequency
+ 	* Adds the fields of the wrapped field to existing vectors, scaled by sin(frequency*t + phase)
  	* @param theParticle - the charged particle moving in the field
  	* @param t - Time
-	* @param velocity - the velocity of the particle
-	* @return the acceleration calculated from (qE + vXB / m)
+	* @param scale - factor multiplying both fields
+	* @param electricOut - the vector the scaled electric field strength is added to
+	* @param magneticOut - the vector the scaled magnetic flux density is added to
  	*/
-	public PhysicsVector getAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity)
+ 	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
  	{
- 		PhysicsVector electric = this.getElectric(theParticle, t);
-		electric.scale(Math.sin((frequency*t) + phase));
- 		PhysicsVector magnetic = this.getMagnetic(theParticle, t);
-		magnetic.scale(Math.sin((frequency*t)) + phase);
- 		PhysicsVector lorentz=new PhysicsVector(electric); // E
- 		lorentz.increaseBy(PhysicsVector.cross(velocity,magnetic)); //+ v cross B
- 		lorentz.scale(theParticle.getCharge()/theParticle.getMass()); // multiply by charge divided by mass
-		return lorentz;
- 		
+ 		otherField.addFields(theParticle, t, scale*Math.sin((frequency*t) + phase), electricOut, magneticOut);
  	}
-}
\ No newline at end of file
+	
+	/**
+ 	* Adds the accelerations of the wrapped field for a slice of particles, scaled by sin(frequency*t + phase)
+ 	* which is computed once for the whole slice.
+ 	*/
+ 	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+ 		double[] mass, double[] charge, double t, double scale, double[] weight,
+ 		double[] ax, double[] ay, double[] az, int from, int to)
+ 	{
+ 		otherField.addAccelerations(x, y, z, vx, vy, vz, mass, charge, t, scale*Math.sin((frequency*t) + phase), weight,
+ 			ax, ay, az, from, to);
+ 	}
+	
+	/**
+ 	* Lets the wrapped field update itself from the bunch before a step
+ 	*/
+	public void prepare(BunchArrays bunch, double t)
+	{
+		otherField.prepare(bunch, t);
+	}
+}
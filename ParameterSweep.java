@@ -0,0 +1,195 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+/**
+* A Class which runs the cyclotron simulation over a grid of parameters.
+* The RF phase, the magnetic flux density, the half-width of the accelerating gap and the spreads in
+* position and energy of the bunch can each be given as a range; every combination is a point of the grid.
+* The points are independent, so they are run in parallel on a work-stealing ForkJoinPool, and each point
+* writes one summary row (mean KE gain per crossing, spread in KE and the ratio of spread to KE) as it finishes.
+* Every point starts from the same initial bunch, generated from one seed written at the top of the output,
+* so the rows differ only by the swept parameters and not by the random sampling of the bunch.
+* <p>
+* Usage: java ParameterSweep [config=file] [threads=n] [method=4] [out=sweep.csv] key=start:end:count ...
+* where key is phase, mag, gapWidth, positionSpread or energySpread. A single value fixes the parameter,
+* and any other simulation parameter (see CyclotronSimulation.configure) can be set as in Cyclotron.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class ParameterSweep {
+
+	public static final String[] SWEPT = {"phase", "mag", "gapWidth", "positionSpread", "energySpread"}; // parameters which may be given as ranges
+
+	protected Properties base; // settings shared by every point
+	protected double[][] values; // values of each swept parameter, in the order of SWEPT
+	protected int method = 4; // the update method used at every point
+	protected long seed; // seed of the initial bunch at every point (drawn once for the sweep unless set)
+
+	/**
+	* Constructor which reads the ranges of the swept parameters from the settings
+	* @param settings the settings; swept parameters may be ranges start:end:count
+	*/
+	public ParameterSweep(Properties settings){
+		base = new Properties();
+		base.putAll(settings);
+		method = Integer.parseInt(settings.getProperty("method", String.valueOf(method)));
+		seed = Long.parseLong(settings.getProperty("seed", "0"));
+		while(seed == 0){
+			seed = new SplittableRandom().nextLong(); //0 would give each point a bunch of its own
+		}
+		base.setProperty("seed", String.valueOf(seed));
+		values = new double[SWEPT.length][];
+		CyclotronSimulation defaults = new CyclotronSimulation();
+		for (int k=0; k<SWEPT.length; k++){
+			String range = settings.getProperty(SWEPT[k]);
+			values[k] = (range == null) ? new double[]{defaultValue(defaults, k)} : parseRange(range);
+			base.remove(SWEPT[k]);
+		}
+	}
+
+	private static double defaultValue(CyclotronSimulation simulation, int k){
+		switch(k){
+			case 0: return simulation.phase;
+			case 1: return simulation.mag;
+			case 2: return simulation.gapWidth;
+			case 3: return simulation.positionSpread;
+			default: return simulation.energySpread;
+		}
+	}
+
+	/**
+	* Parse a range start:end:count into count evenly spaced values from start to end, or a single value
+	* @param range the range
+	* @return the values
+	*/
+	public static double[] parseRange(String range){
+		String[] parts = range.split(":");
+		if(parts.length == 1){
+			return new double[]{Double.parseDouble(parts[0].trim())};
+		}
+		if(parts.length != 3){
+			throw new IllegalArgumentException("Expected start:end:count but found " + range);
+		}
+		double start = Double.parseDouble(parts[0].trim());
+		double end = Double.parseDouble(parts[1].trim());
+		int count = Integer.parseInt(parts[2].trim());
+		if(count < 1){
+			throw new IllegalArgumentException("A range needs at least one value: " + range);
+		}
+		double[] spaced = new double[count];
+		for (int i=0; i<count; i++){
+			spaced[i] = (count == 1) ? start : start + (end - start)*i/(count - 1);
+		}
+		return spaced;
+	}
+
+	/**
+	* Return the number of points in the grid
+	* @return the number of points
+	*/
+	public int size(){
+		int n = 1;
+		for (double[] v : values){
+			n *= v.length;
+		}
+		return n;
+	}
+
+	/**
+	* Return the values of the swept parameters at a point of the grid
+	* @param point the index of the point
+	* @return the values, in the order of SWEPT
+	*/
+	public double[] getPoint(int point){
+		double[] p = new double[SWEPT.length];
+		for (int k=SWEPT.length-1; k>=0; k--){
+			p[k] = values[k][point % values[k].length];
+			point /= values[k].length;
+		}
+		return p;
+	}
+
+	/**
+	* Run the simulation at one point of the grid on the calling thread
+	* @param point the index of the point
+	* @return the summary of the run
+	*/
+	public CyclotronSimulation.Result runPoint(int point) throws IOException {
+		double[] p = getPoint(point);
+		Properties settings = new Properties();
+		settings.putAll(base);
+		for (int k=0; k<SWEPT.length; k++){
+			settings.setProperty(SWEPT[k], String.valueOf(p[k]));
+		}
+		CyclotronSimulation simulation = new CyclotronSimulation();
+		simulation.configure(settings);
+		return simulation.run(simulation.createArrays(simulation.createBunch()), method, 1, null, false, null);
+	}
+
+	/**
+	* Run every point of the grid on a pool of threads, writing a row for each point as it finishes
+	* @param nThreads the number of threads
+	* @param output where the rows are written
+	*/
+	public void run(int nThreads, final PrintWriter output) throws IOException {
+		output.println("# seed " + seed);
+		output.println("point," + String.join(",", SWEPT) + ",crossings,meanGain,spreadKE,spreadRatio");
+		output.flush();
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		final int n = size();
+		for (int i=0; i<n; i++){
+			final int point = i;
+			tasks.add(pool.submit(new Callable<Void>(){
+				public Void call() throws IOException {
+					CyclotronSimulation.Result result = runPoint(point);
+					StringBuilder row = new StringBuilder().append(point);
+					for (double value : getPoint(point)){
+						row.append(',').append(value);
+					}
+					row.append(',').append(result.getTimesCrossed()).append(',').append(result.getMeanGain())
+						.append(',').append(result.getSpreadKE()).append(',').append(result.getSpreadRatio());
+					synchronized(output){
+						output.println(row);
+						output.flush();
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (ForkJoinTask<?> task : tasks){
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the sweep");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	* Run a sweep described by the program arguments
+	* @param args key=value settings, see the class description
+	*/
+	public static void main(String[] args) throws IOException {
+		Properties settings = Cyclotron.readSettings(args);
+		int nThreads = Integer.parseInt(settings.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		String out = settings.getProperty("out", "sweep.csv");
+		ParameterSweep sweep = new ParameterSweep(settings);
+		System.out.println("Running " + sweep.size() + " points with the " + CyclotronSimulation.getMethodName(sweep.method)
+			+ " method on " + nThreads + " threads with seed " + sweep.seed + ", writing to " + out);
+		long start = System.nanoTime();
+		try (PrintWriter output = new PrintWriter(new BufferedWriter(new FileWriter(out)))){
+			sweep.run(nThreads, output);
+		}
+		System.out.println("Finished in " + ((System.nanoTime() - start)/1.0e9) + "s");
+	}
+}
@@ -308,6 +308,36 @@ public class PhysicsVector {
         }
     }
     
+    /**
+     * Add a scaled vector <b>s*v</b> to the original vector without
+     * creating any intermediate vectors.
+     *
+     * @param s the factor to scale <b>v</b> by before adding it
+     * @param v vector to be scaled and added to original vector.
+     **/
+    public void addScaled(double s, PhysicsVector v) {
+        for (int i = 0; i < vectorComponents.length; i++) {
+            vectorComponents[i] += s * v.vectorComponents[i];
+        }
+    }
+    
+    /**
+     * Add the scaled cross product <b>s*(v x u)</b> to the original
+     * vector without creating any intermediate vectors.
+     *
+     * @param s the factor to scale the cross product by
+     * @param v first vector in product
+     * @param u second vector in product
+     **/
+    public void addCrossScaled(double s, PhysicsVector v, PhysicsVector u) {
+        double x = v.vectorComponents[1] * u.vectorComponents[2] - v.vectorComponents[2] * u.vectorComponents[1];
+        double y = v.vectorComponents[2] * u.vectorComponents[0] - v.vectorComponents[0] * u.vectorComponents[2];
+        double z = v.vectorComponents[0] * u.vectorComponents[1] - v.vectorComponents[1] * u.vectorComponents[0];
+        vectorComponents[0] += s * x;
+        vectorComponents[1] += s * y;
+        vectorComponents[2] += s * z;
+    }
+    
     /**
      * returns the magnitude of the vector. If the vector is given by
      * <b>xi +yj +zk</b> Then the magnitude is Math.sqrt(x*x + y*y + zz)
@@ -403,6 +433,21 @@ public class PhysicsVector {
   
     }
 	
+    /**
+     * cross product stored in an existing vector. <b>out</b> may be
+     * the same object as <b>v</b> or <b>u</b>.
+     *
+     * @param v first vector in product
+     * @param u second vector in product
+     * @param out the vector which is set to the cross product
+     **/
+    public static void crossInto(PhysicsVector v, PhysicsVector u, PhysicsVector out) {
+        out.setVector(
+            v.vectorComponents[1] * u.vectorComponents[2] - v.vectorComponents[2] * u.vectorComponents[1],
+            v.vectorComponents[2] * u.vectorComponents[0] - v.vectorComponents[0] * u.vectorComponents[2],
+            v.vectorComponents[0] * u.vectorComponents[1] - v.vectorComponents[1] * u.vectorComponents[0]);
+    }
+	
     /**
      * standard vector addition. If <b> v = xi + yj</b>
      * and <b>u = wi + zy</b>, then the addition returns a vector
@@ -0,0 +1,93 @@
+import java.io.*;
+/**
+* A Class which records the particles of a bunch as they cross a plane, for turn by turn (Poincare section) studies.
+* BunchPusher finds the exact time each particle crosses the plane in the direction of its normal, by
+* repeating the particle's step to the crossing, and hands the particle's state at that time to record.
+* Each crossing is one row of a trajectory file holding the particle's index, its number of crossings so far,
+* the time, the phase of the accelerating field and the particle's position and velocity, so the output grows
+* with the number of turns rather than with the number of steps.
+* Convert the file to CSV with: java TrajectoryReader section.traj section.csv
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class PoincareSection implements Closeable {
+
+	public static final String[] COLUMNS = {"particle", "crossing", "time", "rf phase", "x", "y", "z", "vx", "vy", "vz"};
+
+	protected final double px, py, pz; // a point on the plane in m
+	protected final double nx, ny, nz; // unit normal of the plane, the direction it is crossed in
+	protected final double frequency, phase; // angular frequency in rad/s and phase of the accelerating field
+	protected final int[] crossings; // number of times each particle has crossed the plane
+	private final TrajectoryWriter output;
+
+	/**
+	* Constructor which creates the file the crossings are written to
+	* @param fileName the file to write
+	* @param point a point on the plane
+	* @param normal the normal of the plane; particles are recorded when they cross it in this direction
+	* @param frequency the angular frequency of the accelerating field in rad/s
+	* @param phase the phase of the accelerating field, which goes as sin(frequency*t + phase)
+	* @param nParticles the number of particles in the bunch
+	*/
+	public PoincareSection(String fileName, PhysicsVector point, PhysicsVector normal, double frequency, double phase,
+		int nParticles) throws IOException
+	{
+		double size = normal.magnitude();
+		if(size == 0.0){
+			throw new IllegalArgumentException("The normal of the section plane must not be zero");
+		}
+		px = point.getX();
+		py = point.getY();
+		pz = point.getZ();
+		nx = normal.getX()/size;
+		ny = normal.getY()/size;
+		nz = normal.getZ()/size;
+		this.frequency = frequency;
+		this.phase = phase;
+		crossings = new int[nParticles];
+		output = new TrajectoryWriter(fileName, 0.0, nParticles, COLUMNS, 1024);
+	}
+
+	/**
+	* Return the signed distance of a position from the plane
+	* @param x, y, z the position
+	* @return the distance in m, positive on the side the normal points to
+	*/
+	public double distance(double x, double y, double z){
+		return (x - px)*nx + (y - py)*ny + (z - pz)*nz;
+	}
+
+	/**
+	* Record a particle crossing the plane. Called from the threads pushing the bunch;
+	* each particle is only ever recorded by the thread pushing it.
+	* @param i the index of the particle in the bunch
+	* @param time the time of the crossing
+	* @param bunch the bunch holding the particle's state at the crossing
+	* @param j the index in that bunch of the particle's state
+	*/
+	public void record(int i, double time, ChargedBunch bunch, int j) throws IOException {
+		double rf = (frequency*time + phase) % (2.0*Math.PI);
+		if(rf < 0.0){
+			rf += 2.0*Math.PI;
+		}
+		output.record(new double[]{i, ++crossings[i], time, rf,
+			bunch.x[j], bunch.y[j], bunch.z[j], bunch.vx[j], bunch.vy[j], bunch.vz[j]});
+	}
+
+	/**
+	* Return the number of times a particle has crossed the plane
+	* @param i the index of the particle
+	* @return the number of crossings
+	*/
+	public int getCrossings(int i){
+		return crossings[i];
+	}
+
+	/**
+	* Write the remaining crossings and close the file
+	*/
+	public void close() throws IOException {
+		output.close();
+	}
+}
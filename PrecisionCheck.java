@@ -0,0 +1,137 @@
+import java.util.*;
+import java.io.*;
+/**
+* A Class which checks the single precision storage of CompactBunch against the double precision of ChargedBunch.
+* The same initial bunch is pushed three times side by side through the cyclotron: stored in doubles, in floats
+* with the compensated positions of CompactBunch, and in plain floats. After each turn of the leading proton
+* the two float bunches are compared with the double one, proton by proton: the largest difference in position
+* and in the radius of the orbit (from the speed in the x-y plane), both as a fraction of the initial orbit radius,
+* and the difference in the average kinetic energy as a fraction of it.
+* <p>
+* Usage: java PrecisionCheck [config=file] [method=4] [tolerance=1e-6] key=value ...
+* The run is the standard one at phase pi/4 (phase=0.785) unless the settings say otherwise, and any simulation
+* parameter (see CyclotronSimulation.configure) can be set as in Cyclotron; maxRev sets the number of turns.
+* The check fails (exit status 1) if the compensated positions end further than tolerance from the double ones.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class PrecisionCheck {
+
+	protected CyclotronSimulation simulation; // the simulation whose bunch and fields are used
+	protected int method = 4; // the update method
+	protected double tolerance = 1.0e-6; // largest difference in position allowed for the compensated floats, as a fraction of the orbit radius
+
+	/**
+	* Constructor which reads the simulation parameters, the method and the tolerance from the settings
+	* @param settings the settings
+	*/
+	public PrecisionCheck(Properties settings){
+		Properties standard = new Properties();
+		standard.setProperty("phase", "0.785");
+		standard.putAll(settings);
+		simulation = new CyclotronSimulation();
+		simulation.configure(standard);
+		method = Integer.parseInt(settings.getProperty("method", String.valueOf(method)));
+		tolerance = Double.parseDouble(settings.getProperty("tolerance", String.valueOf(tolerance)));
+	}
+
+	/**
+	* Push the three bunches until the leading proton of the double one has made maxRev turns, writing a row each turn
+	* @param output where the rows are written
+	* @return true if the compensated positions stayed within the tolerance
+	*/
+	public boolean run(PrintStream output) throws IOException {
+		Bunch<ChargedParticle> initial = simulation.createBunch();
+		CompactBunch plain = new CompactBunch(16);
+		plain.setCompensated(false); //set before the particles are added, so none of their positions is compensated
+		Iterator<ChargedParticle> initialIt = initial.iterator();
+		while(initialIt.hasNext()){
+			plain.addParticle(initialIt.next());
+		}
+		BunchArrays[] bunches = {new ChargedBunch(initial), new CompactBunch(initial), plain};
+
+		ArrayList<GeneralEMField> fields = simulation.createFields();
+		BunchPusher[] pushers = new BunchPusher[bunches.length];
+		for (int k=0; k<bunches.length; k++){
+			pushers[k] = new BunchPusher(fields, method, 1);
+			if(simulation.gapEvents){
+				pushers[k].setGap(simulation.getGap(), simulation.gapStep);
+			}
+		}
+		pushers[0].setCountTurns(true);
+		double stepTime = (method == 5) ? simulation.timeStep*simulation.timeMeasure : simulation.timeStep;
+		double radius = simulation.getRadius();
+
+		output.println(CyclotronSimulation.getMethodName(method) + " method, " + bunches[0].size() + " protons, phase " + simulation.phase);
+		output.println("turn,time,position,radius,meanKE,floatPosition,floatRadius,floatMeanKE");
+		double time = 0.0;
+		double worst = 0.0;
+		int turn = 0;
+		try {
+			while(turn < simulation.maxRev && time < simulation.maxTime){
+				for (int k=0; k<bunches.length; k++){
+					pushers[k].step(bunches[k], time, stepTime);
+				}
+				time += stepTime;
+				if((int)pushers[0].getLeadingTurns() > turn){
+					turn = (int)pushers[0].getLeadingTurns();
+					double[] compensated = compare(bunches[0], bunches[1], radius);
+					double[] rounded = compare(bunches[0], bunches[2], radius);
+					worst = Math.max(worst, compensated[0]);
+					output.println(turn + "," + time + "," + compensated[0] + "," + compensated[1] + "," + compensated[2]
+						+ "," + rounded[0] + "," + rounded[1] + "," + rounded[2]);
+				}
+			}
+		} finally {
+			for (BunchPusher pusher : pushers){
+				pusher.shutdown();
+			}
+		}
+		boolean passed = worst <= tolerance;
+		output.println((passed ? "PASS" : "FAIL") + ": compensated float positions within " + worst + " of double (tolerance " + tolerance + ")");
+		return passed;
+	}
+
+	/**
+	* Compare a bunch with the one pushed in double precision
+	* @param reference the bunch stored in doubles
+	* @param bunch the bunch to compare
+	* @param radius the initial orbit radius in m
+	* @return the largest difference in position and in orbit radius as fractions of the initial radius,
+	* and the difference in the average kinetic energy as a fraction of it
+	*/
+	protected double[] compare(BunchArrays reference, BunchArrays bunch, double radius){
+		double[] a = new double[6], b = new double[6];
+		double position = 0.0, orbit = 0.0;
+		for (int i=0; i<reference.size(); i++){
+			reference.getState(i, a);
+			bunch.getState(i, b);
+			double dx = a[0] - b[0], dy = a[1] - b[1], dz = a[2] - b[2];
+			position = Math.max(position, Math.sqrt(dx*dx + dy*dy + dz*dz)/radius);
+			double ra = orbitRadius(reference, i, a), rb = orbitRadius(bunch, i, b);
+			orbit = Math.max(orbit, Math.abs(ra - rb)/radius);
+		}
+		double meanKE = Math.abs(bunch.getAvgKE() - reference.getAvgKE())/reference.getAvgKE();
+		return new double[]{position, orbit, meanKE};
+	}
+
+	/**
+	* Return the radius of a proton's orbit in the uniform magnetic field, m v/(q B) with v its speed in the x-y plane
+	*/
+	private double orbitRadius(BunchArrays bunch, int i, double[] state){
+		double speed = Math.sqrt(state[3]*state[3] + state[4]*state[4]);
+		return bunch.mass[i]*speed/(Math.abs(bunch.charge[i])*simulation.mag);
+	}
+
+	/**
+	* Run the check from the command line
+	* @param args the settings as key=value
+	*/
+	public static void main(String[] args) throws IOException {
+		PrecisionCheck check = new PrecisionCheck(Cyclotron.readSettings(args));
+		if(!check.run(System.out)){
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+import java.util.random.RandomGenerator;
+/**
+* A Class which gives the points of a scrambled Sobol sequence, a low-discrepancy (quasi-random) sequence
+* which fills the unit cube far more evenly than random points, so averages over N of its points converge
+* nearly as 1/N rather than 1/sqrt(N).
+* Any point can be found from its index alone, so the points of a bunch can be generated in parallel.
+* Each dimension is scrambled with the hash-based nested uniform (Owen) scramble of Laine and Karras,
+* keyed by the seed, which keeps the points evenly spread while making them unbiased.
+* The direction numbers are those of Joe and Kuo, for up to 8 dimensions.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class SobolSequence {
+
+	// degree s, coefficients a and initial direction numbers m of the primitive polynomial of each dimension after the first
+	private static final int[] DEGREE = {1, 2, 3, 3, 4, 4, 5};
+	private static final int[] COEFFICIENTS = {0, 1, 1, 2, 1, 4, 2};
+	private static final int[][] INITIAL = {{1}, {1, 3}, {1, 3, 1}, {1, 1, 1}, {1, 1, 3, 3}, {1, 3, 5, 13}, {1, 1, 5, 5, 17}};
+	public static final int MAX_DIMENSIONS = DEGREE.length + 1;
+
+	protected final int dimensions; // number of coordinates of each point
+	protected final int[][] direction; // 32 direction numbers of each dimension
+	protected final int[] scramble; // seed of the scramble of each dimension
+
+	/**
+	* Constructor for a sequence of points with a number of coordinates
+	* @param dimensions the number of coordinates of each point (at most MAX_DIMENSIONS)
+	* @param seed the seed of the scramble (the same seed gives the same points)
+	*/
+	public SobolSequence(int dimensions, long seed){
+		if(dimensions < 1 || dimensions > MAX_DIMENSIONS){
+			throw new IllegalArgumentException("A Sobol sequence can have 1 to " + MAX_DIMENSIONS + " dimensions, not " + dimensions);
+		}
+		this.dimensions = dimensions;
+		direction = new int[dimensions][32];
+		for (int k=0; k<32; k++){
+			direction[0][k] = 1 << (31 - k);
+		}
+		for (int d=1; d<dimensions; d++){
+			int s = DEGREE[d-1], a = COEFFICIENTS[d-1];
+			int[] v = direction[d];
+			for (int k=0; k<32; k++){
+				if(k < s){
+					v[k] = INITIAL[d-1][k] << (31 - k);
+				}else{
+					v[k] = v[k-s] ^ (v[k-s] >>> s);
+					for (int j=1; j<s; j++){
+						if(((a >>> (s - 1 - j)) & 1) != 0){
+							v[k] ^= v[k-j];
+						}
+					}
+				}
+			}
+		}
+		scramble = new int[dimensions];
+		java.util.SplittableRandom random = new java.util.SplittableRandom(seed);
+		for (int d=0; d<dimensions; d++){
+			scramble[d] = random.nextInt();
+		}
+	}
+
+	/**
+	* Return one coordinate of a point of the sequence
+	* @param index the index of the point
+	* @param dimension the coordinate (0 to dimensions-1)
+	* @return the coordinate, strictly between 0 and 1
+	*/
+	public double get(int index, int dimension){
+		int[] v = direction[dimension];
+		int x = 0;
+		for (int k=0; index != 0; k++, index >>>= 1){
+			if((index & 1) != 0){
+				x ^= v[k];
+			}
+		}
+		x = Integer.reverse(x);
+		x += scramble[dimension];
+		x ^= x*0x6c50b47c;
+		x ^= x*0xb82f1e52;
+		x ^= x*0xc7afe638;
+		x ^= x*0x8d22f6e6;
+		x = Integer.reverse(x);
+		return ((x & 0xFFFFFFFFL) + 0.5)/4294967296.0;
+	}
+
+	/**
+	* Return a point of the sequence as a generator whose successive numbers are its coordinates,
+	* so it can be drawn from like a random number generator
+	* @param index the index of the point
+	* @param firstDimension the coordinate the first number is taken from
+	* @return the generator of the point's coordinates
+	*/
+	public RandomGenerator point(int index, int firstDimension){
+		return new Point(index, firstDimension);
+	}
+
+	/**
+	* Return the value below which a fraction p of a standard normal distribution lies,
+	* by the rational approximation of Acklam (relative error below 1.2e-9)
+	* @param p the fraction, strictly between 0 and 1
+	* @return the inverse of the normal cumulative distribution at p
+	*/
+	public static double inverseNormal(double p){
+		final double a1=-3.969683028665376e+01, a2=2.209460984245205e+02, a3=-2.759285104469687e+02,
+			a4=1.383577518672690e+02, a5=-3.066479806614716e+01, a6=2.506628277459239e+00;
+		final double b1=-5.447609879822406e+01, b2=1.615858368580409e+02, b3=-1.556989798598866e+02,
+			b4=6.680131188771972e+01, b5=-1.328068155288572e+01;
+		final double c1=-7.784894002430293e-03, c2=-3.223964580411365e-01, c3=-2.400758277161838e+00,
+			c4=-2.549732539343734e+00, c5=4.374664141464968e+00, c6=2.938163982698783e+00;
+		final double d1=7.784695709041462e-03, d2=3.224671290700398e-01, d3=2.445134137142996e+00, d4=3.754408661907416e+00;
+		final double low = 0.02425;
+		if(p < low){
+			double q = Math.sqrt(-2.0*Math.log(p));
+			return (((((c1*q + c2)*q + c3)*q + c4)*q + c5)*q + c6)/((((d1*q + d2)*q + d3)*q + d4)*q + 1.0);
+		}else if(p > 1.0 - low){
+			double q = Math.sqrt(-2.0*Math.log(1.0 - p));
+			return -(((((c1*q + c2)*q + c3)*q + c4)*q + c5)*q + c6)/((((d1*q + d2)*q + d3)*q + d4)*q + 1.0);
+		}
+		double q = p - 0.5, r = q*q;
+		return (((((a1*r + a2)*r + a3)*r + a4)*r + a5)*r + a6)*q/(((((b1*r + b2)*r + b3)*r + b4)*r + b5)*r + 1.0);
+	}
+
+	/**
+	* The coordinates of one point, handed out in turn. Uniform numbers are the coordinates themselves
+	* and Gaussian numbers are found from them by the inverse normal distribution, so each number uses one coordinate.
+	*/
+	private class Point implements RandomGenerator {
+		private final int index;
+		private int next; // the coordinate handed out next
+
+		Point(int index, int firstDimension){
+			this.index = index;
+			this.next = firstDimension;
+		}
+
+		@Override
+		public double nextDouble(){
+			if(next == dimensions){
+				throw new IllegalStateException("All " + dimensions + " coordinates of the Sobol point have been used");
+			}
+			return get(index, next++);
+		}
+
+		@Override
+		public double nextGaussian(){
+			return inverseNormal(nextDouble());
+		}
+
+		@Override
+		public long nextLong(){
+			return (long)(nextDouble()*0x1p63);
+		}
+	}
+}
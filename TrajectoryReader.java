@@ -0,0 +1,147 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+/**
+* A Class which reads a trajectory file written by TrajectoryWriter one block at a time.
+* Run on its own it converts a trajectory file to the CSV of centroid x,y the simulation used to write:
+* java TrajectoryReader plotRK4.traj plotRK4.csv
+* Any other file of single value columns, such as a Poincare section, is converted to a CSV of all its columns
+* with their names on the first line.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class TrajectoryReader implements Closeable {
+
+	protected double samplingInterval; // simulated time between samples in s
+	protected int nParticles; // particles recorded per sample (0 => centroid only)
+	protected int blockRows; // largest number of samples in a block
+	protected String[] columnNames;
+	protected int[] columnWidths;
+	private final DataInputStream input;
+
+	/**
+	* Constructor which opens a trajectory file and reads its header
+	* @param fileName the file to read
+	*/
+	public TrajectoryReader(String fileName) throws IOException {
+		input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+		if(input.readLong() != TrajectoryWriter.MAGIC){
+			input.close();
+			throw new IOException(fileName + " is not a trajectory file");
+		}
+		int version = input.readInt();
+		if(version != TrajectoryWriter.VERSION){
+			input.close();
+			throw new IOException("Unsupported trajectory file version " + version);
+		}
+		samplingInterval = input.readDouble();
+		nParticles = input.readInt();
+		blockRows = input.readInt();
+		int nColumns = input.readInt();
+		columnNames = new String[nColumns];
+		columnWidths = new int[nColumns];
+		for (int c=0; c<nColumns; c++){
+			columnWidths[c] = input.readInt();
+			byte[] name = new byte[input.readInt()];
+			input.readFully(name);
+			columnNames[c] = new String(name, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	* Return the simulated time between samples
+	* @return the sampling interval in s
+	*/
+	public double getSamplingInterval(){
+		return samplingInterval;
+	}
+
+	/**
+	* Return the number of particles recorded in each sample
+	* @return the number of particles (0 => centroid only)
+	*/
+	public int getParticleCount(){
+		return nParticles;
+	}
+
+	/**
+	* Return the names of the columns
+	* @return the column names
+	*/
+	public String[] getColumnNames(){
+		return columnNames.clone();
+	}
+
+	/**
+	* Return the number of values each column holds per sample
+	* @return the column widths
+	*/
+	public int[] getColumnWidths(){
+		return columnWidths.clone();
+	}
+
+	/**
+	* Read the next block of samples
+	* @return one array per column holding rows*width values, or null at the end of the file
+	*/
+	public double[][] readBlock() throws IOException {
+		int rows;
+		try {
+			rows = input.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		double[][] block = new double[columnWidths.length][];
+		for (int c=0; c<columnWidths.length; c++){
+			block[c] = new double[rows*columnWidths[c]];
+			for (int i=0; i<block[c].length; i++){
+				block[c][i] = input.readDouble();
+			}
+		}
+		return block;
+	}
+
+	/**
+	* Close the file
+	*/
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	* Convert a trajectory file to a CSV of the centroid x,y, or of every column if it is not a trajectory of the centroid
+	* @param args the trajectory file and the CSV file to write
+	*/
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2){
+			System.out.println("Usage: java TrajectoryReader <trajectory file> <csv file>");
+			return;
+		}
+		try (TrajectoryReader reader = new TrajectoryReader(args[0]);
+			PrintWriter output = new PrintWriter(new BufferedWriter(new FileWriter(args[1])))){
+			boolean centroid = reader.columnNames.length > 2 && reader.columnNames[1].equals("x") && reader.columnNames[2].equals("y");
+			int columns = 0; // leading columns of one value each, written when the file is not a trajectory
+			while(!centroid && columns < reader.columnWidths.length && reader.columnWidths[columns] == 1){
+				columns++;
+			}
+			if(!centroid){
+				output.println(String.join(",", java.util.Arrays.copyOf(reader.columnNames, columns)));
+			}
+			double[][] block;
+			while((block = reader.readBlock()) != null){
+				for (int i=0; i<block[0].length; i++){
+					if(centroid){
+						output.println(block[1][i] + "," + block[2][i]);
+					}else{
+						StringBuilder row = new StringBuilder();
+						for (int c=0; c<columns; c++){
+							if(c > 0) row.append(',');
+							row.append(block[c][i]);
+						}
+						output.println(row);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+/**
+* A Class which writes the trajectory of a bunch to a binary columnar file.
+* The simulation thread copies each sample into a buffer and hands it over a bounded queue
+* to a writer thread, which gathers the samples into blocks and copies each block, column by column,
+* into a memory-mapped region of the file. The simulation thread never waits for the disk; it only
+* waits if the writer falls a whole queue behind.
+* <p>
+* File layout (big-endian):
+* <pre>
+* header: long magic, int version, double sampling interval (s), int number of particles,
+*         int rows per block, int number of columns, then for each column:
+*         int width (1, or the number of particles), int name length, UTF-8 name
+* blocks: int rows, then for each column rows*width doubles (row by row within the column)
+* </pre>
+* The columns are time, the centroid x, y and z and, if particles are recorded, the x, y, vx and vy
+* of every particle. A writer can also be given its own columns of one value each and fed whole rows,
+* as PoincareSection does.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class TrajectoryWriter implements Closeable {
+
+	public static final long MAGIC = 0x4359434C5452414AL; // "CYCLTRAJ"
+	public static final int VERSION = 1;
+	private static final long REGION_SIZE = 64L << 20; // bytes mapped at a time
+	private static final double[] END = new double[0]; // tells the writer thread to finish
+
+	protected final int nParticles; // particles recorded per sample (0 => centroid only)
+	protected final int blockRows; // samples per block
+	protected final String[] columnNames;
+	protected final int[] columnWidths;
+	private final int sampleSize; // doubles per sample
+	private final double[] state = new double[6]; // position and velocity of the particle being sampled, on the simulation thread
+	private final ArrayBlockingQueue<double[]> queue; // samples waiting to be written
+	private final ArrayBlockingQueue<double[]> spare; // written samples ready for reuse
+	private final Thread writer;
+	private volatile IOException failure; // error on the writer thread, rethrown to the simulation
+	private long stalls = 0; // number of times the simulation waited for the writer
+
+	// owned by the writer thread
+	private final FileChannel channel;
+	private MappedByteBuffer region; // the currently mapped part of the file
+	private long written; // bytes written to the file so far
+	private final double[][] block; // samples of the current block, one array per column
+	private int rows; // samples in the current block
+
+	/**
+	* Constructor which creates the file and starts the writer thread
+	* @param fileName the file to write
+	* @param samplingInterval the simulated time between samples in s (stored in the header)
+	* @param nParticles the number of particles in the bunch
+	* @param recordParticles true to record the x, y, vx and vy of every particle as well as the centroid
+	* @param capacity the number of samples the queue between the simulation and the writer can hold
+	*/
+	public TrajectoryWriter(String fileName, double samplingInterval, int nParticles, boolean recordParticles, int capacity)
+		throws IOException
+	{
+		this(fileName, samplingInterval, recordParticles ? nParticles : 0,
+			recordParticles ? new String[]{"time", "x", "y", "z", "particle x", "particle y", "particle vx", "particle vy"}
+				: new String[]{"time", "x", "y", "z"},
+			recordParticles ? new int[]{1, 1, 1, 1, nParticles, nParticles, nParticles, nParticles} : new int[]{1, 1, 1, 1},
+			capacity);
+	}
+
+	/**
+	* Constructor for a file of rows with one value in each column, written with record(double[])
+	* @param fileName the file to write
+	* @param samplingInterval the simulated time between rows in s (0 => rows are not evenly spaced)
+	* @param nParticles the number of particles in the bunch (stored in the header)
+	* @param columnNames the names of the columns
+	* @param capacity the number of rows the queue between the simulation and the writer can hold
+	*/
+	public TrajectoryWriter(String fileName, double samplingInterval, int nParticles, String[] columnNames, int capacity)
+		throws IOException
+	{
+		this(fileName, samplingInterval, nParticles, columnNames.clone(), ones(columnNames.length), capacity);
+	}
+
+	private TrajectoryWriter(String fileName, double samplingInterval, int nParticles, String[] columnNames, int[] columnWidths,
+		int capacity) throws IOException
+	{
+		this.nParticles = nParticles;
+		this.columnNames = columnNames;
+		this.columnWidths = columnWidths;
+		int size = 0;
+		for (int width : columnWidths){
+			size += width;
+		}
+		sampleSize = size;
+		blockRows = Math.max(1, Math.min(4096, (1 << 20)/sampleSize)); // blocks of about 8 MB at most
+		block = new double[columnWidths.length][];
+		for (int c=0; c<columnWidths.length; c++){
+			block[c] = new double[blockRows*columnWidths[c]];
+		}
+
+		queue = new ArrayBlockingQueue<double[]>(capacity);
+		spare = new ArrayBlockingQueue<double[]>(capacity + 1);
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		writeHeader(samplingInterval);
+
+		writer = new Thread(this::drain, "trajectory-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private static int[] ones(int n){
+		int[] widths = new int[n];
+		java.util.Arrays.fill(widths, 1);
+		return widths;
+	}
+
+	/**
+	* Record a sample of the bunch. Called from the simulation thread between steps.
+	* @param time the simulation time
+	* @param bunch the bunch to sample
+	*/
+	public void record(double time, BunchArrays bunch) throws IOException {
+		if(failure != null){
+			throw failure;
+		}
+		double[] sample = spare.poll();
+		if(sample == null){
+			sample = new double[sampleSize];
+		}
+		PhysicsVector centroid = bunch.getPosition();
+		sample[0] = time;
+		sample[1] = centroid.getX();
+		sample[2] = centroid.getY();
+		sample[3] = centroid.getZ();
+		if(nParticles > 0){
+			for (int i=0; i<nParticles; i++){
+				bunch.getState(i, state);
+				sample[4 + i] = state[0];
+				sample[4 + nParticles + i] = state[1];
+				sample[4 + 2*nParticles + i] = state[3];
+				sample[4 + 3*nParticles + i] = state[4];
+			}
+		}
+		if(!queue.offer(sample)){
+			stalls++;
+			put(sample);
+		}
+	}
+
+	/**
+	* Record a row of a file with one value in each column. Can be called from several threads at once.
+	* @param values the value of each column, copied before this returns
+	*/
+	public synchronized void record(double[] values) throws IOException {
+		if(failure != null){
+			throw failure;
+		}
+		double[] sample = spare.poll();
+		if(sample == null){
+			sample = new double[sampleSize];
+		}
+		System.arraycopy(values, 0, sample, 0, sampleSize);
+		if(!queue.offer(sample)){
+			stalls++;
+			put(sample);
+		}
+	}
+
+	/**
+	* Return the number of times record had to wait for the writer thread
+	* @return the number of stalls
+	*/
+	public long getStalls(){
+		return stalls;
+	}
+
+	/**
+	* Write the remaining samples, trim the file to its length and stop the writer thread
+	*/
+	public void close() throws IOException {
+		if(failure == null){
+			put(END);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing trajectory file");
+		}
+		region = null;
+		channel.truncate(written);
+		channel.close();
+		if(failure != null){
+			throw failure;
+		}
+	}
+
+	private void put(double[] sample) throws IOException {
+		try {
+			queue.put(sample);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing a trajectory sample");
+		}
+	}
+
+	/**
+	* Body of the writer thread: gather samples into blocks until told to finish
+	*/
+	private void drain(){
+		try {
+			while(true){
+				double[] sample = queue.take();
+				if(sample == END){
+					break;
+				}
+				int offset = 0;
+				for (int c=0; c<columnWidths.length; c++){
+					System.arraycopy(sample, offset, block[c], rows*columnWidths[c], columnWidths[c]);
+					offset += columnWidths[c];
+				}
+				spare.offer(sample);
+				if(++rows == blockRows){
+					writeBlock();
+				}
+			}
+			if(rows > 0){
+				writeBlock();
+			}
+		} catch (IOException e) {
+			failure = e;
+			queue.clear(); // let a waiting simulation thread through to see the failure
+		} catch (InterruptedException e) {
+			failure = new InterruptedIOException("Trajectory writer interrupted");
+		}
+	}
+
+	private void writeHeader(double samplingInterval) throws IOException {
+		byte[][] names = new byte[columnNames.length][];
+		int bytes = 8 + 4 + 8 + 4 + 4 + 4;
+		for (int c=0; c<columnNames.length; c++){
+			names[c] = columnNames[c].getBytes(StandardCharsets.UTF_8);
+			bytes += 4 + 4 + names[c].length;
+		}
+		ByteBuffer buffer = reserve(bytes);
+		buffer.putLong(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putDouble(samplingInterval);
+		buffer.putInt(nParticles);
+		buffer.putInt(blockRows);
+		buffer.putInt(columnNames.length);
+		for (int c=0; c<columnNames.length; c++){
+			buffer.putInt(columnWidths[c]);
+			buffer.putInt(names[c].length);
+			buffer.put(names[c]);
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		ByteBuffer buffer = reserve(4 + 8L*rows*sampleSize);
+		buffer.putInt(rows);
+		for (int c=0; c<columnWidths.length; c++){
+			int n = rows*columnWidths[c];
+			buffer.asDoubleBuffer().put(block[c], 0, n);
+			buffer.position(buffer.position() + 8*n);
+		}
+		rows = 0;
+	}
+
+	/**
+	* Make sure the mapped region has room for a number of bytes and move the write position past them
+	* @return the mapped region, positioned at the start of the reserved bytes
+	*/
+	private ByteBuffer reserve(long bytes) throws IOException {
+		if(region == null || region.remaining() < bytes){
+			region = channel.map(FileChannel.MapMode.READ_WRITE, written, Math.max(REGION_SIZE, bytes));
+		}
+		written += bytes;
+		return region;
+	}
+}
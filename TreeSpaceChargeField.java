@@ -0,0 +1,485 @@
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+public class TreeSpaceChargeField extends GeneralEMField{
+	/**
+	* Represents the electric field of the particles of a bunch acting on each other (space charge),
+	* found with a Barnes-Hut octree. The tree is rebuilt from the bunch between steps (see prepare).
+	* <p>
+	* The field acts on the particles only through addKicks: each particle's acceleration is found at the position
+	* the tree was built from, leaving out the particle's own slot, and BunchPusher gives it as kicks between steps.
+	* Evaluated at the positions the update methods move the particles to within a step, the tree would still hold
+	* a copy of each particle where it started, which pushes it away without limit, so the per-particle and slice
+	* evaluations add nothing. getElectric still gives the field at any point.
+	* <p>
+	* Each cell of the tree holds the monopole, dipole and quadrupole moments of its charges about their
+	* centre. A cell whose size divided by its distance from the field point is below the opening angle
+	* is treated as its multipole expansion; otherwise its children are opened, down to the leaves,
+	* whose charges are summed directly. An opening angle of 0 gives the exact pairwise sum.
+	* The tree is built in parallel, and the field is evaluated in parallel by the threads of the BunchPusher.
+	* The field is electrostatic, so the magnetic field of the moving charges is neglected.
+	*
+	* @author Jake Murkin
+	* @version 1.0
+	*/
+
+	public static final double COULOMB = 8.9875517923e9; // 1/(4 pi epsilon_0) in N m^2 C^-2
+	private static final int LEAF_SIZE = 8; // most particles in a leaf
+	private static final int MAX_DEPTH = 48; // depth below which cells are not split (coincident particles)
+	private static final int PARALLEL_SIZE = 4096; // number of particles below which a cell is built on one thread
+
+	protected double theta = 0.5; // opening angle
+	protected double softening = 0.0; // length added in quadrature to every direct separation, in m
+
+	// positions and charges of the particles when the tree was built, ordered so each cell's particles are contiguous
+	protected double[] x = new double[0], y = new double[0], z = new double[0], charge = new double[0];
+	protected int[] index = new int[0]; // the index in the bunch of the particle in each slot of the ordered arrays
+	protected Cell root; // null until the first bunch is prepared
+	private final ThreadLocal<Cell[]> stack = ThreadLocal.withInitial(() -> new Cell[8*MAX_DEPTH + 8]); // each thread's cells still to be visited
+	private final ThreadLocal<double[]> field = ThreadLocal.withInitial(() -> new double[4]); // each thread's field and potential at a point
+
+	/**
+	* Default constructor with an opening angle of 0.5
+	*/
+	public TreeSpaceChargeField(){
+	}
+
+	/**
+	* Constructor with an opening angle and softening length
+	* @param theta the opening angle (0 => exact pairwise sum)
+	* @param softening length added in quadrature to the separation of two particles, in m
+	*/
+	public TreeSpaceChargeField(double theta, double softening){
+		this.theta = theta;
+		this.softening = softening;
+	}
+
+	/**
+	* Rebuild the tree from the current positions of the particles
+	* @param bunch - the bunch about to be pushed
+	* @param t - time
+	*/
+	public void prepare(BunchArrays bunch, double t){
+		int n = bunch.size();
+		if(x.length != n){
+			x = new double[n];
+			y = new double[n];
+			z = new double[n];
+			charge = new double[n];
+			index = new int[n];
+		}
+		if(n == 0){
+			root = null;
+			return;
+		}
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		double[] state = new double[6];
+		for (int i=0; i<n; i++){
+			bunch.getState(i, state);
+			x[i] = state[0];
+			y[i] = state[1];
+			z[i] = state[2];
+			charge[i] = bunch.charge[i];
+			index[i] = i;
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+			minZ = Math.min(minZ, z[i]);
+			maxZ = Math.max(maxZ, z[i]);
+		}
+		double half = 0.5*Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+		if(half == 0.0){
+			half = 1.0; // a single point: any size will do
+		}
+		Cell cell = new Cell(0.5*(minX + maxX), 0.5*(minY + maxY), 0.5*(minZ + maxZ), half*(1.0 + 1e-12), 0, n);
+		if(n > PARALLEL_SIZE){
+			ForkJoinPool.commonPool().invoke(new BuildTask(cell, 0));
+		}else{
+			build(cell, 0);
+		}
+		root = cell;
+	}
+
+	/**
+	* Split a cell into octants, recursively, and find its moments from those of its children
+	*/
+	private void build(Cell cell, int depth){
+		if(!split(cell, depth)){
+			cell.leafMoments();
+			return;
+		}
+		for (Cell child : cell.children){
+			build(child, depth+1);
+		}
+		cell.mergeMoments();
+	}
+
+	/**
+	* Reorder the particles of a cell by octant and create its non-empty children
+	* @return false if the cell is a leaf
+	*/
+	private boolean split(Cell cell, int depth){
+		if(cell.end - cell.start <= LEAF_SIZE || depth >= MAX_DEPTH){
+			return false;
+		}
+		int[] count = new int[8];
+		for (int i=cell.start; i<cell.end; i++){
+			count[cell.octant(x[i], y[i], z[i])]++;
+		}
+		int[] next = new int[8];
+		int[] first = new int[9];
+		first[0] = cell.start;
+		for (int o=0; o<8; o++){
+			first[o+1] = first[o] + count[o];
+			next[o] = first[o];
+		}
+		// in-place cycle sort into octants
+		for (int o=0; o<8; o++){
+			while(next[o] < first[o+1]){
+				int i = next[o];
+				int target = cell.octant(x[i], y[i], z[i]);
+				if(target == o){
+					next[o]++;
+				}else{
+					swap(i, next[target]++);
+				}
+			}
+		}
+		int nChildren = 0;
+		for (int o=0; o<8; o++){
+			if(count[o] > 0) nChildren++;
+		}
+		cell.children = new Cell[nChildren];
+		double h = 0.5*cell.half;
+		int c = 0;
+		for (int o=0; o<8; o++){
+			if(count[o] > 0){
+				cell.children[c++] = new Cell(cell.cx + (((o & 1) != 0) ? h : -h), cell.cy + (((o & 2) != 0) ? h : -h),
+					cell.cz + (((o & 4) != 0) ? h : -h), h, first[o], first[o+1]);
+			}
+		}
+		return true;
+	}
+
+	private void swap(int i, int j){
+		double t;
+		t = x[i]; x[i] = x[j]; x[j] = t;
+		t = y[i]; y[i] = y[j]; y[j] = t;
+		t = z[i]; z[i] = z[j]; z[j] = t;
+		t = charge[i]; charge[i] = charge[j]; charge[j] = t;
+		int k = index[i]; index[i] = index[j]; index[j] = k;
+	}
+
+	/**
+	* Add the space charge electric field and potential at a point
+	* @param px, py, pz the point
+	* @param self the slot of a particle left out of the sum, the one at the point (-1 => none)
+	* @param out {Ex, Ey, Ez, potential} the field and potential are added to
+	*/
+	protected void evaluate(double px, double py, double pz, int self, double[] out){
+		if(root == null){
+			return;
+		}
+		double eps2 = softening*softening;
+		double theta2 = theta*theta;
+		Cell[] stack = this.stack.get();
+		int top = 0;
+		stack[top++] = root;
+		double ex = 0.0, ey = 0.0, ez = 0.0, phi = 0.0;
+		while(top > 0){
+			Cell cell = stack[--top];
+			double dx = px - cell.qx, dy = py - cell.qy, dz = pz - cell.qz;
+			double r2 = dx*dx + dy*dy + dz*dz;
+			double size = 2.0*cell.half;
+			boolean outside = Math.abs(px - cell.cx) > cell.half || Math.abs(py - cell.cy) > cell.half || Math.abs(pz - cell.cz) > cell.half;
+			if(outside && size*size < theta2*r2){
+				// far enough for the multipole expansion about the centre of the cell's charge
+				double r = Math.sqrt(r2);
+				double inv2 = 1.0/r2, inv3 = inv2/r, inv5 = inv3*inv2, inv7 = inv5*inv2;
+				double pr = cell.px*dx + cell.py*dy + cell.pz*dz;
+				double qrx = cell.qxx*dx + cell.qxy*dy + cell.qxz*dz;
+				double qry = cell.qxy*dx + cell.qyy*dy + cell.qyz*dz;
+				double qrz = cell.qxz*dx + cell.qyz*dy + cell.qzz*dz;
+				double rqr = dx*qrx + dy*qry + dz*qrz;
+				double radial = cell.q*inv3 + 3.0*pr*inv5 + 2.5*rqr*inv7;
+				ex += radial*dx - cell.px*inv3 - qrx*inv5;
+				ey += radial*dy - cell.py*inv3 - qry*inv5;
+				ez += radial*dz - cell.pz*inv3 - qrz*inv5;
+				phi += cell.q/r + pr*inv3 + 0.5*rqr*inv5;
+			}else if(cell.children == null){
+				for (int j=cell.start; j<cell.end; j++){
+					double sx = px - x[j], sy = py - y[j], sz = pz - z[j];
+					double s2 = sx*sx + sy*sy + sz*sz;
+					if(j == self || s2 == 0.0){
+						continue; // the particle itself, or one on top of the point, whose force has no direction
+					}
+					s2 += eps2;
+					double inv = 1.0/Math.sqrt(s2);
+					double f = charge[j]*inv*inv*inv;
+					ex += f*sx;
+					ey += f*sy;
+					ez += f*sz;
+					phi += charge[j]*inv;
+				}
+			}else{
+				for (Cell child : cell.children){
+					stack[top++] = child;
+				}
+			}
+		}
+		out[0] += COULOMB*ex;
+		out[1] += COULOMB*ey;
+		out[2] += COULOMB*ez;
+		out[3] += COULOMB*phi;
+	}
+
+	/**
+	* Return the space charge electric field and potential at a point, in the calling thread's buffer
+	* @param px, py, pz the point
+	* @return {Ex, Ey, Ez, potential}, overwritten by the thread's next call
+	*/
+	private double[] field(double px, double py, double pz){
+		double[] field = this.field.get();
+		field[0] = field[1] = field[2] = field[3] = 0.0;
+		evaluate(px, py, pz, -1, field);
+		return field;
+	}
+
+	/**
+	* Add the acceleration of each particle of the bunch the tree was built from, at the position it was built from
+	* and without the particle's own charge. The particles are evaluated in parallel on large bunches, each by itself,
+	* so the result does not depend on the threads.
+	* @param bunch - the bunch the tree was prepared from
+	* @param t - time
+	* @param ax, ay, az - the acceleration components of each particle, indexed as in the bunch
+	* @return true
+	*/
+	public boolean addKicks(final BunchArrays bunch, double t, final double[] ax, final double[] ay, final double[] az){
+		IntStream slots = IntStream.range(0, x.length);
+		if(x.length > PARALLEL_SIZE){
+			slots = slots.parallel();
+		}
+		slots.forEach((s) -> {
+			double[] field = this.field.get();
+			field[0] = field[1] = field[2] = field[3] = 0.0;
+			evaluate(x[s], y[s], z[s], s, field);
+			int i = index[s];
+			double qOverM = bunch.charge[i]/bunch.mass[i];
+			ax[i] += qOverM*field[0];
+			ay[i] += qOverM*field[1];
+			az[i] += qOverM*field[2];
+		});
+		return true;
+	}
+
+	/**
+ 	*  Return the space charge electric field strength at a position
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(PhysicsVector aPosition, double t){
+		double[] field = field(aPosition.getX(), aPosition.getY(), aPosition.getZ());
+		return new PhysicsVector(field[0], field[1], field[2]);
+	}
+
+	/**
+ 	*  Get the magnetic flux density at a position (neglected, so zero)
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(PhysicsVector aPosition, double t){
+		return new PhysicsVector();
+	}
+
+	/**
+ 	*  Return the space charge electric field strength being experienced by a particle
+ 	*
+ 	* @return The electric field strength
+ 	*/
+	public PhysicsVector getElectric(Particle aParticle, double t){
+		return getElectric(aParticle.position, t);
+	}
+
+	/**
+ 	*  Get the magnetic flux density being experienced by a particle (neglected, so zero)
+ 	*
+ 	* @return The magnetic flux density
+ 	*/
+	public PhysicsVector getMagnetic(Particle aParticle, double t){
+		return new PhysicsVector();
+	}
+
+	/**
+ 	*  Get the potential energy of a particle due to the rest of the bunch
+ 	*
+ 	* @return The potential energy in J
+ 	*/
+	public double getPotentialE(ChargedParticle aParticle, double t){
+		double[] field = field(aParticle.position.getX(), aParticle.position.getY(), aParticle.position.getZ());
+		return aParticle.getCharge()*field[3];
+	}
+
+	/**
+ 	* Adds nothing: the space charge acts through addKicks
+ 	*/
+	protected void addAcceleration(ChargedParticle theParticle, double t, PhysicsVector velocity, double scale, PhysicsVector out)
+	{
+	}
+
+	/**
+ 	* Adds nothing: the space charge acts through addKicks
+ 	*/
+	protected void addFields(ChargedParticle theParticle, double t, double scale, PhysicsVector electricOut, PhysicsVector magneticOut)
+	{
+	}
+
+	/**
+ 	* Adds nothing: the space charge acts through addKicks
+ 	*/
+	protected void addAccelerations(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] mass, double[] charge, double t, double scale, double[] weight,
+		double[] ax, double[] ay, double[] az, int from, int to)
+	{
+	}
+
+	/**
+	* A cube of the tree: its geometry, its particles and the moments of their charge
+	*/
+	protected final class Cell {
+		final double cx, cy, cz, half; // centre and half the side of the cube
+		final int start, end; // range of the cell's particles in the ordered arrays
+		Cell[] children; // non-empty octants (null => leaf)
+		double q; // total charge
+		double strength; // total |charge|
+		double qx, qy, qz; // centre the moments are taken about (weighted by |charge|)
+		double px, py, pz; // dipole moment
+		double qxx, qyy, qzz, qxy, qxz, qyz; // traceless quadrupole moment
+
+		Cell(double cx, double cy, double cz, double half, int start, int end){
+			this.cx = cx;
+			this.cy = cy;
+			this.cz = cz;
+			this.half = half;
+			this.start = start;
+			this.end = end;
+		}
+
+		int octant(double px, double py, double pz){
+			return ((px >= cx) ? 1 : 0) | ((py >= cy) ? 2 : 0) | ((pz >= cz) ? 4 : 0);
+		}
+
+		/**
+		* Moments of a leaf, straight from its particles
+		*/
+		void leafMoments(){
+			double w = 0.0, sx = 0.0, sy = 0.0, sz = 0.0;
+			for (int i=start; i<end; i++){
+				double a = Math.abs(charge[i]);
+				w += a;
+				sx += a*x[i];
+				sy += a*y[i];
+				sz += a*z[i];
+				q += charge[i];
+			}
+			centre(w, sx, sy, sz);
+			for (int i=start; i<end; i++){
+				addPoint(charge[i], x[i] - qx, y[i] - qy, z[i] - qz);
+			}
+		}
+
+		/**
+		* Moments of a cell from those of its children, shifted to the cell's centre
+		*/
+		void mergeMoments(){
+			double w = 0.0, sx = 0.0, sy = 0.0, sz = 0.0;
+			for (Cell child : children){
+				double a = child.strength;
+				w += a;
+				sx += a*child.qx;
+				sy += a*child.qy;
+				sz += a*child.qz;
+				q += child.q;
+			}
+			centre(w, sx, sy, sz);
+			for (Cell child : children){
+				double dx = child.qx - qx, dy = child.qy - qy, dz = child.qz - qz;
+				// dipole of the child about this centre: its own dipole plus its charge at the offset
+				px += child.px;
+				py += child.py;
+				pz += child.pz;
+				addPoint(child.q, dx, dy, dz);
+				// the quadrupole of the child's dipole about this centre
+				double pd = child.px*dx + child.py*dy + child.pz*dz;
+				qxx += child.qxx + 3.0*(2.0*child.px*dx) - 2.0*pd;
+				qyy += child.qyy + 3.0*(2.0*child.py*dy) - 2.0*pd;
+				qzz += child.qzz + 3.0*(2.0*child.pz*dz) - 2.0*pd;
+				qxy += child.qxy + 1.5*(2.0*(child.px*dy + child.py*dx));
+				qxz += child.qxz + 1.5*(2.0*(child.px*dz + child.pz*dx));
+				qyz += child.qyz + 1.5*(2.0*(child.py*dz + child.pz*dy));
+			}
+		}
+
+		private void centre(double w, double sx, double sy, double sz){
+			strength = w;
+			if(w > 0.0){
+				qx = sx/w;
+				qy = sy/w;
+				qz = sz/w;
+			}else{
+				qx = cx;
+				qy = cy;
+				qz = cz;
+			}
+		}
+
+		/**
+		* Add a point charge at an offset from the centre to the dipole and quadrupole moments
+		*/
+		private void addPoint(double c, double dx, double dy, double dz){
+			double d2 = dx*dx + dy*dy + dz*dz;
+			px += c*dx;
+			py += c*dy;
+			pz += c*dz;
+			qxx += c*(3.0*dx*dx - d2);
+			qyy += c*(3.0*dy*dy - d2);
+			qzz += c*(3.0*dz*dz - d2);
+			qxy += c*3.0*dx*dy;
+			qxz += c*3.0*dx*dz;
+			qyz += c*3.0*dy*dz;
+		}
+	}
+
+	/**
+	* Task which builds the children of a large cell on separate threads
+	*/
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Cell cell;
+		private final int depth;
+
+		BuildTask(Cell cell, int depth){
+			this.cell = cell;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute(){
+			if(cell.end - cell.start <= PARALLEL_SIZE){
+				build(cell, depth);
+				return;
+			}
+			if(!split(cell, depth)){
+				cell.leafMoments();
+				return;
+			}
+			BuildTask[] tasks = new BuildTask[cell.children.length];
+			for (int c=0; c<tasks.length; c++){
+				tasks[c] = new BuildTask(cell.children[c], depth+1);
+			}
+			invokeAll(tasks);
+			cell.mergeMoments();
+		}
+	}
+}
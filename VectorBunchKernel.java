@@ -0,0 +1,134 @@
+import jdk.incubator.vector.*;
+/**
+* A Class holding the Vector API versions of the kernels of BunchKernel, which handle as many particles
+* per instruction as the preferred vector of the hardware holds doubles (4 with AVX2, 8 with AVX-512).
+* The bounds of each field term are tested for all the lanes at once into a mask, which picks the term's
+* time factor or zero, so particles in and out of the gap go through the same instructions.
+* Each method handles the whole vectors of a slice and returns where it stopped, leaving the few particles
+* after the last whole vector to the scalar loops of BunchKernel.
+* Only loaded when the jdk.incubator.vector module is present; use it through BunchKernel.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+final class VectorBunchKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private VectorBunchKernel(){
+	}
+
+	static int lanes(){
+		return SPECIES.length();
+	}
+
+	/**
+	* The Lorentz acceleration of BunchKernel.lorentz for the whole vectors of a slice
+	* @return the index of the first particle not updated
+	*/
+	static int lorentz(double[] x, double[] y, double[] vx, double[] vy, double[] vz, double[] mass, double[] charge,
+		double scale, double[] weight, double[] constantE, double[] constantB, double[] factors, double[] termE, double[] termB,
+		double[] xBounds, double[] yBounds, double[] ax, double[] ay, double[] az, int from, int to)
+	{
+		int end = from + SPECIES.loopBound(to - from);
+		DoubleVector zero = DoubleVector.zero(SPECIES);
+		int i = from;
+		for (; i<end; i+=SPECIES.length()){
+			DoubleVector absX = DoubleVector.fromArray(SPECIES, x, i).abs();
+			DoubleVector absY = DoubleVector.fromArray(SPECIES, y, i).abs();
+			DoubleVector ex = DoubleVector.broadcast(SPECIES, constantE[0]);
+			DoubleVector ey = DoubleVector.broadcast(SPECIES, constantE[1]);
+			DoubleVector ez = DoubleVector.broadcast(SPECIES, constantE[2]);
+			DoubleVector bx = DoubleVector.broadcast(SPECIES, constantB[0]);
+			DoubleVector by = DoubleVector.broadcast(SPECIES, constantB[1]);
+			DoubleVector bz = DoubleVector.broadcast(SPECIES, constantB[2]);
+			for (int k=0; k<factors.length; k++){
+				VectorMask<Double> inside = absX.compare(VectorOperators.LE, xBounds[k]).and(absY.compare(VectorOperators.LE, yBounds[k]));
+				DoubleVector w = zero.blend(factors[k], inside); // the time factor in the bounds, zero outside
+				ex = ex.add(w.mul(termE[3*k]));
+				ey = ey.add(w.mul(termE[3*k+1]));
+				ez = ez.add(w.mul(termE[3*k+2]));
+				bx = bx.add(w.mul(termB[3*k]));
+				by = by.add(w.mul(termB[3*k+1]));
+				bz = bz.add(w.mul(termB[3*k+2]));
+			}
+			DoubleVector s = (weight == null) ? DoubleVector.broadcast(SPECIES, scale)
+				: DoubleVector.fromArray(SPECIES, weight, i - from).mul(scale);
+			DoubleVector qOverM = s.mul(DoubleVector.fromArray(SPECIES, charge, i)).div(DoubleVector.fromArray(SPECIES, mass, i));
+			DoubleVector ux = DoubleVector.fromArray(SPECIES, vx, i);
+			DoubleVector uy = DoubleVector.fromArray(SPECIES, vy, i);
+			DoubleVector uz = DoubleVector.fromArray(SPECIES, vz, i);
+			DoubleVector.fromArray(SPECIES, ax, i).add(qOverM.mul(ex.add(uy.mul(bz).sub(uz.mul(by))))).intoArray(ax, i); // E + v cross B
+			DoubleVector.fromArray(SPECIES, ay, i).add(qOverM.mul(ey.add(uz.mul(bx).sub(ux.mul(bz))))).intoArray(ay, i);
+			DoubleVector.fromArray(SPECIES, az, i).add(qOverM.mul(ez.add(ux.mul(by).sub(uy.mul(bx))))).intoArray(az, i);
+		}
+		return i;
+	}
+
+	/**
+	* The Euler update of BunchKernel.euler for the whole vectors of a slice
+	* @return the index of the first particle not updated
+	*/
+	static int euler(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] ax, double[] ay, double[] az, double deltaTime, int from, int to)
+	{
+		int end = from + SPECIES.loopBound(to - from);
+		double half = 0.5*deltaTime*deltaTime;
+		int i = from;
+		for (; i<end; i+=SPECIES.length()){
+			step(x, vx, ax, deltaTime, half, i);
+			step(y, vy, ay, deltaTime, half, i);
+			step(z, vz, az, deltaTime, half, i);
+		}
+		return i;
+	}
+
+	/**
+	* One component of the Euler update: s += ut, s += 1/2 at**2, v += at
+	*/
+	private static void step(double[] s, double[] v, double[] a, double deltaTime, double half, int i){
+		DoubleVector u = DoubleVector.fromArray(SPECIES, v, i);
+		DoubleVector acc = DoubleVector.fromArray(SPECIES, a, i);
+		DoubleVector.fromArray(SPECIES, s, i).add(u.mul(deltaTime)).add(acc.mul(half)).intoArray(s, i);
+		u.add(acc.mul(deltaTime)).intoArray(v, i);
+	}
+
+	/**
+	* The Euler-Cromer update of BunchKernel.eulerCromer for the whole vectors of a slice
+	* @return the index of the first particle not updated
+	*/
+	static int eulerCromer(double[] x, double[] y, double[] z, double[] vx, double[] vy, double[] vz,
+		double[] ax, double[] ay, double[] az, double deltaTime, int from, int to)
+	{
+		int end = from + SPECIES.loopBound(to - from);
+		int i = from;
+		for (; i<end; i+=SPECIES.length()){
+			kickDrift(x, vx, ax, deltaTime, i);
+			kickDrift(y, vy, ay, deltaTime, i);
+			kickDrift(z, vz, az, deltaTime, i);
+		}
+		return i;
+	}
+
+	/**
+	* One component of the Euler-Cromer update: v += at, s += vt
+	*/
+	private static void kickDrift(double[] s, double[] v, double[] a, double deltaTime, int i){
+		DoubleVector u = DoubleVector.fromArray(SPECIES, v, i).add(DoubleVector.fromArray(SPECIES, a, i).mul(deltaTime));
+		u.intoArray(v, i);
+		DoubleVector.fromArray(SPECIES, s, i).add(u.mul(deltaTime)).intoArray(s, i);
+	}
+
+	/**
+	* out = a + h*b of BunchKernel.axpy for the whole vectors of the range
+	* @return the number of values done
+	*/
+	static int axpy(double[] out, int outFrom, double[] a, int aFrom, double h, double[] b, int bFrom, int n){
+		int end = SPECIES.loopBound(n);
+		int j = 0;
+		for (; j<end; j+=SPECIES.length()){
+			DoubleVector.fromArray(SPECIES, a, aFrom + j).add(DoubleVector.fromArray(SPECIES, b, bFrom + j).mul(h)).intoArray(out, outFrom + j);
+		}
+		return j;
+	}
+}
@@ -0,0 +1,75 @@
+import benchmarks.Kernel;
+import org.openjdk.jmh.infra.Blackhole;
+/**
+* Benchmark fixtures for the sweeps over every particle of a Bunch.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class BunchKernels {
+
+	/**
+	* Build a bunch of protons spread uniformly around the origin, as in Cyclotron.main
+	* @param size the number of protons
+	* @return the bunch
+	*/
+	static Bunch<ChargedParticle> bunch(int size){
+		Bunch<ChargedParticle> pBunch = new Bunch<ChargedParticle>();
+		for (int i=0; i<size; i++){
+			pBunch.addParticle(new ChargedParticle(FieldKernels.pMass, FieldKernels.pCharge));
+		}
+		double spread = FieldKernels.radius/100;
+		pBunch.setPosition(new PhysicsVector(), new PhysicsVector(spread, spread, 0));
+		pBunch.setVelocity(new PhysicsVector(0,1,0), new PhysicsVector(), 0.5*FieldKernels.pMass*FieldKernels.pSpeed*FieldKernels.pSpeed, 0);
+		return pBunch;
+	}
+
+	/**
+	* Kernel for Bunch.getPosition
+	* @param size the number of protons
+	* @return the kernel
+	*/
+	public static Kernel getPosition(int size){
+		final Bunch<ChargedParticle> pBunch = bunch(size);
+		return bh -> {
+			pBunch.markModified(); // measure the sweep rather than the cached statistics
+			bh.consume(pBunch.getPosition());
+		};
+	}
+
+	/**
+	* Kernel for Bunch.getSpreadSD
+	* @param size the number of protons
+	* @return the kernel
+	*/
+	public static Kernel getSpreadSD(int size){
+		final Bunch<ChargedParticle> pBunch = bunch(size);
+		return bh -> {
+			pBunch.markModified(); // measure the sweep rather than the cached statistics
+			bh.consume(pBunch.getSpreadSD());
+		};
+	}
+
+	/**
+	* Kernel for Bunch.toString, which reports six statistics gathered in one pass
+	* @param size the number of protons
+	* @return the kernel
+	*/
+	public static Kernel toString(int size){
+		final Bunch<ChargedParticle> pBunch = bunch(size);
+		return bh -> {
+			pBunch.markModified(); // measure the sweep rather than the cached statistics
+			bh.consume(pBunch.toString());
+		};
+	}
+
+	/**
+	* Kernel for Bunch.getSpreadY
+	* @param size the number of protons
+	* @return the kernel
+	*/
+	public static Kernel getSpreadY(int size){
+		final Bunch<ChargedParticle> pBunch = bunch(size);
+		return bh -> bh.consume(pBunch.getSpreadY());
+	}
+}
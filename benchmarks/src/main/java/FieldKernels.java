@@ -0,0 +1,112 @@
+import java.util.*;
+import benchmarks.Kernel;
+import org.openjdk.jmh.infra.Blackhole;
+/**
+* Benchmark fixtures for the Lorentz acceleration in the fields of the cyclotron.
+* The fields and proton are those set up by Cyclotron.main.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class FieldKernels {
+
+	static final double pMass=1.67262178E-27; // proton mass in kg
+	static final double pCharge=1.60217657e-19; // proton charge in Coulombs
+	static final double Mag=1.0e-7; // magnetic flux density in Tesla
+	static final double pSpeed=1.0e-3; // speed of the proton in ms^-1
+	static final double radius=pMass*pSpeed/(pCharge*Mag); // radius of curvature
+
+	/**
+	* Build the fields of the cyclotron: a uniform B field and a bound oscillating E field
+	* @return the list of fields
+	*/
+	static ArrayList<GeneralEMField> cyclotron(){
+		ArrayList<GeneralEMField> cyclotron = new ArrayList<GeneralEMField>();
+		cyclotron.add(new EMField(new PhysicsVector(), new PhysicsVector(0,0,Mag)));
+		GeneralEMField theEField = new EMField(new PhysicsVector(0,Mag,0), new PhysicsVector());
+		GeneralEMField EOscField = new OscillatingField(theEField, (pCharge*Mag)/pMass, Math.PI/4);
+		cyclotron.add(new BoundField(EOscField, 999, 0.05*radius));
+		return cyclotron;
+	}
+
+	/**
+	* Build a proton inside the accelerating gap
+	* @return the proton
+	*/
+	static ChargedParticle proton(){
+		return new ChargedParticle(pMass, pCharge, new PhysicsVector(radius/100, 0, 0), new PhysicsVector(0, pSpeed, 0));
+	}
+
+	/**
+	* Kernel for GeneralEMField.getAcceleration through BoundField(OscillatingField(EMField))
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel getAcceleration(int size){
+		final GeneralEMField field = cyclotron().get(1);
+		final ChargedParticle proton = proton();
+		return bh -> bh.consume(field.getAcceleration(proton, 0.1));
+	}
+
+	/**
+	* Kernel for GeneralEMField.addAcceleration through BoundField(OscillatingField(EMField))
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel addAcceleration(int size){
+		final GeneralEMField field = cyclotron().get(1);
+		final ChargedParticle proton = proton();
+		final PhysicsVector acceleration = new PhysicsVector();
+		return bh -> {
+			acceleration.setVector(0,0,0);
+			field.addAcceleration(proton, 0.1, acceleration);
+			bh.consume(acceleration);
+		};
+	}
+
+	/**
+	* Kernel for the acceleration of a proton in all the cyclotron fields compiled into a FusedField
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel fusedAcceleration(int size){
+		final GeneralEMField field = new FusedField(cyclotron());
+		final ChargedParticle proton = proton();
+		final PhysicsVector acceleration = new PhysicsVector();
+		return bh -> {
+			acceleration.setVector(0,0,0);
+			field.addAcceleration(proton, 0.1, acceleration);
+			bh.consume(acceleration);
+		};
+	}
+
+	/**
+	* Kernel for the acceleration of a proton in the cyclotron fields sampled onto a trilinear FieldMap
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel mapTrilinear(int size){
+		return mapAcceleration(1);
+	}
+
+	/**
+	* Kernel for the acceleration of a proton in the cyclotron fields sampled onto a tricubic FieldMap
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel mapTricubic(int size){
+		return mapAcceleration(3);
+	}
+
+	private static Kernel mapAcceleration(int order){
+		final GeneralEMField field = new FieldMap(new FusedField(cyclotron()), 0.1, new PhysicsVector(-1.2*radius, -1.2*radius, 0),
+			new PhysicsVector(1.2*radius, 1.2*radius, 0), 241, 241, 1, order);
+		final ChargedParticle proton = proton();
+		final PhysicsVector acceleration = new PhysicsVector();
+		return bh -> {
+			acceleration.setVector(0,0,0);
+			field.addAcceleration(proton, 0.1, acceleration);
+			bh.consume(acceleration);
+		};
+	}
+}
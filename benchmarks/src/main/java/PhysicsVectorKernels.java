@@ -0,0 +1,56 @@
+import benchmarks.Kernel;
+import org.openjdk.jmh.infra.Blackhole;
+/**
+* Benchmark fixtures for the PhysicsVector arithmetic used on the hot path.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class PhysicsVectorKernels {
+
+	/**
+	* Kernel for PhysicsVector.cross of two vectors
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel cross(int size){
+		final PhysicsVector v = new PhysicsVector(1.0e-3, 2.0e-3, 0.0);
+		final PhysicsVector b = new PhysicsVector(0.0, 0.0, 1.0e-7);
+		return bh -> bh.consume(PhysicsVector.cross(v, b));
+	}
+
+	/**
+	* Kernel for the static PhysicsVector.scale
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel scale(int size){
+		final PhysicsVector v = new PhysicsVector(1.0e-3, 2.0e-3, 3.0e-3);
+		return bh -> bh.consume(PhysicsVector.scale(1.0e-5, v));
+	}
+
+	/**
+	* Kernel for PhysicsVector.add of two vectors
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel add(int size){
+		final PhysicsVector v = new PhysicsVector(1.0e-3, 2.0e-3, 3.0e-3);
+		final PhysicsVector u = new PhysicsVector(4.0e-3, 5.0e-3, 6.0e-3);
+		return bh -> bh.consume(PhysicsVector.add(v, u));
+	}
+
+	/**
+	* Kernel for the in-place PhysicsVector.increaseBy
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel increaseBy(int size){
+		final PhysicsVector v = new PhysicsVector();
+		final PhysicsVector u = new PhysicsVector(1.0e-9, 2.0e-9, 3.0e-9);
+		return bh -> {
+			v.increaseBy(u);
+			bh.consume(v);
+		};
+	}
+}
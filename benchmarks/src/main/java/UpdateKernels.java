@@ -0,0 +1,111 @@
+import java.util.*;
+import benchmarks.Kernel;
+import org.openjdk.jmh.infra.Blackhole;
+/**
+* Benchmark fixtures for one update step of a proton in the cyclotron fields.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class UpdateKernels {
+
+	static final double timeStep=0.00001; // time step in seconds, as in Cyclotron.main
+
+	/**
+	* Kernel for one ChargedParticle.rk4 step
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel rk4(int size){
+		final ArrayList<GeneralEMField> cyclotron = FieldKernels.cyclotron();
+		final ChargedParticle proton = FieldKernels.proton();
+		return bh -> {
+			proton.rk4(timeStep, cyclotron, 0.1);
+			bh.consume(proton);
+		};
+	}
+
+	/**
+	* Kernel for the field evaluation and one Particle.updateEuler1 step
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel updateEuler1(int size){
+		final ArrayList<GeneralEMField> cyclotron = FieldKernels.cyclotron();
+		final ChargedParticle proton = FieldKernels.proton();
+		return bh -> {
+			PhysicsVector acceleration = new PhysicsVector();
+			for (GeneralEMField field : cyclotron){
+				acceleration.increaseBy(field.getAcceleration(proton, 0.1));
+			}
+			proton.updateEuler1(timeStep, acceleration);
+			bh.consume(proton);
+		};
+	}
+
+	/**
+	* Kernel for the field evaluation and one Particle.updateEuler2 step
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel updateEuler2(int size){
+		final ArrayList<GeneralEMField> cyclotron = FieldKernels.cyclotron();
+		final ChargedParticle proton = FieldKernels.proton();
+		return bh -> {
+			PhysicsVector acceleration = new PhysicsVector();
+			for (GeneralEMField field : cyclotron){
+				acceleration.increaseBy(field.getAcceleration(proton, 0.1));
+			}
+			proton.updateEuler2(timeStep, acceleration);
+			bh.consume(proton);
+		};
+	}
+
+	/**
+	* Build a bunch of protons spread round the orbit, so some are in the gap and some are not
+	* @param size the number of protons
+	* @return the bunch
+	*/
+	static ChargedBunch bunch(int size){
+		ChargedBunch bunch = new ChargedBunch(size);
+		for (int i=0; i<size; i++){
+			double angle = 2*Math.PI*i/size;
+			double r = FieldKernels.radius;
+			bunch.addParticle(new ChargedParticle(FieldKernels.pMass, FieldKernels.pCharge,
+				new PhysicsVector(r*Math.cos(angle), r*Math.sin(angle), 0),
+				new PhysicsVector(-FieldKernels.pSpeed*Math.sin(angle), FieldKernels.pSpeed*Math.cos(angle), 0)));
+		}
+		return bunch;
+	}
+
+	/**
+	* Kernel for one Euler-Cromer step of a bunch of 1024 protons in the fused cyclotron fields,
+	* run on the Vector API when the jdk.incubator.vector module is present
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel pushEuler2(int size){
+		return push(2);
+	}
+
+	/**
+	* Kernel for one Runge-Kutta 4 step of a bunch of 1024 protons in the fused cyclotron fields,
+	* run on the Vector API when the jdk.incubator.vector module is present
+	* @param size unused
+	* @return the kernel
+	*/
+	public static Kernel pushRk4(int size){
+		return push(3);
+	}
+
+	private static Kernel push(int method){
+		ArrayList<GeneralEMField> fused = new ArrayList<GeneralEMField>();
+		fused.add(new FusedField(FieldKernels.cyclotron()));
+		final BunchPusher pusher = new BunchPusher(fused, method, 1);
+		final ChargedBunch bunch = bunch(1024);
+		return bh -> {
+			pusher.step(bunch, 0.1, timeStep);
+			bh.consume(bunch);
+		};
+	}
+}
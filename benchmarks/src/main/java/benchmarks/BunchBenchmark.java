@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sweeps over every particle of a Bunch.
+ * The kernels are fixtures in {@code BunchKernels}.
+ *
+ * @author Jake Murkin
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BunchBenchmark {
+
+	@Param({"getPosition", "getSpreadSD", "getSpreadY", "toString"})
+	public String kernel;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	private Kernel theKernel;
+
+	@Setup
+	public void setup(){
+		theKernel = Kernels.create("BunchKernels", kernel, size);
+	}
+
+	@Benchmark
+	public void run(Blackhole bh){
+		theKernel.run(bh);
+	}
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lorentz acceleration through the BoundField(OscillatingField(EMField)) chain of the cyclotron,
+ * through all the cyclotron fields compiled into a FusedField, and through those fields sampled onto
+ * a trilinear or tricubic FieldMap.
+ * The kernels are fixtures in {@code FieldKernels}.
+ *
+ * @author Jake Murkin
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldBenchmark {
+
+	@Param({"getAcceleration", "addAcceleration", "fusedAcceleration", "mapTrilinear", "mapTricubic"})
+	public String kernel;
+
+	private Kernel theKernel;
+
+	@Setup
+	public void setup(){
+		theKernel = Kernels.create("FieldKernels", kernel, 1);
+	}
+
+	@Benchmark
+	public void run(Blackhole bh){
+		theKernel.run(bh);
+	}
+}
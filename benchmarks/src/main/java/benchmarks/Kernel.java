@@ -0,0 +1,22 @@
+package benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One call of a hot-path method of the simulation.
+ * JMH does not accept benchmark classes in the default package, and classes in
+ * a named package cannot refer to the simulation classes, so each kernel is
+ * written as a fixture in the default package and handed to the benchmark
+ * through this interface.
+ *
+ * @author Jake Murkin
+ * @version 1.0
+ */
+public interface Kernel {
+
+	/**
+	 * Run the kernel once
+	 * @param bh the blackhole which consumes the result so it is not optimised away
+	 */
+	void run(Blackhole bh);
+}
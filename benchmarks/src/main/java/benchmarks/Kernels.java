@@ -0,0 +1,30 @@
+package benchmarks;
+
+/**
+ * Looks up the kernels of a fixture class in the default package.
+ * A fixture provides one public static method per kernel, taking the problem
+ * size and returning the Kernel ready to run.
+ *
+ * @author Jake Murkin
+ * @version 1.0
+ */
+public final class Kernels {
+
+	private Kernels(){
+	}
+
+	/**
+	 * Create a kernel
+	 * @param fixture the name of the fixture class in the default package
+	 * @param kernel the name of the kernel method of the fixture
+	 * @param size the problem size, e.g. the number of particles
+	 * @return the kernel
+	 */
+	public static Kernel create(String fixture, String kernel, int size){
+		try {
+			return (Kernel) Class.forName(fixture).getMethod(kernel, int.class).invoke(null, size);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("No kernel " + fixture + "." + kernel, e);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * PhysicsVector arithmetic on the hot path.
+ * The kernels are fixtures in {@code PhysicsVectorKernels}.
+ *
+ * @author Jake Murkin
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhysicsVectorBenchmark {
+
+	@Param({"cross", "scale", "add", "increaseBy"})
+	public String kernel;
+
+	private Kernel theKernel;
+
+	@Setup
+	public void setup(){
+		theKernel = Kernels.create("PhysicsVectorKernels", kernel, 1);
+	}
+
+	@Benchmark
+	public void run(Blackhole bh){
+		theKernel.run(bh);
+	}
+}
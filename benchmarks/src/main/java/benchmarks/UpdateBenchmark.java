@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One update step of a proton, or of a bunch of protons, in the cyclotron fields.
+ * The kernels are fixtures in {@code UpdateKernels}.
+ *
+ * @author Jake Murkin
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdateBenchmark {
+
+	@Param({"rk4", "updateEuler1", "updateEuler2", "pushEuler2", "pushRk4"})
+	public String kernel;
+
+	private Kernel theKernel;
+
+	@Setup
+	public void setup(){
+		theKernel = Kernels.create("UpdateKernels", kernel, 1);
+	}
+
+	@Benchmark
+	public void run(Blackhole bh){
+		theKernel.run(bh);
+	}
+}
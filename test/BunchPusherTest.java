@@ -0,0 +1,115 @@
+import java.io.*;
+import java.util.*;
+/**
+* Checks of BunchPusher: the analytic drift outside the gap follows the orbits the Boris method integrates,
+* a bunch pushed on several threads ends exactly where it does on one, and a bunch stored in floats stays
+* close to one stored in doubles.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class BunchPusherTest {
+
+	/**
+	* Return the standard simulation with a small bunch drawn from a fixed seed
+	*/
+	static CyclotronSimulation simulation(int nProtons){
+		CyclotronSimulation simulation = new CyclotronSimulation();
+		simulation.nProtons = nProtons;
+		simulation.seed = 1;
+		simulation.phase = 0.785;
+		return simulation;
+	}
+
+	/**
+	* Push a bunch through a number of steps, adding up the time as the simulation does
+	* @return the time at the end of the steps
+	*/
+	static double push(BunchPusher pusher, BunchArrays bunch, double time, int steps, double deltaTime){
+		for (int s=0; s<steps; s++){
+			pusher.step(bunch, time, deltaTime);
+			time += deltaTime;
+		}
+		return time;
+	}
+
+	/**
+	* Return the largest distance between the particles of two bunches
+	*/
+	static double distance(BunchArrays a, BunchArrays b){
+		double[] sa = new double[6], sb = new double[6];
+		double largest = 0.0;
+		for (int i=0; i<a.size(); i++){
+			a.getState(i, sa);
+			b.getState(i, sb);
+			largest = Math.max(largest, Math.sqrt((sa[0]-sb[0])*(sa[0]-sb[0]) + (sa[1]-sb[1])*(sa[1]-sb[1]) + (sa[2]-sb[2])*(sa[2]-sb[2])));
+		}
+		return largest;
+	}
+
+	/**
+	* Return how far the Boris orbits end from the analytic drift, as a fraction of the radius, and the difference in their average KE
+	*/
+	static double[] driftError(CyclotronSimulation simulation, Bunch<ChargedParticle> initial, double deltaTime) throws IOException {
+		int steps = (int)Math.round(0.5/deltaTime); // most of a turn: out of the gap, round and through it again
+		ChargedBunch integrated = new ChargedBunch(initial), drifted = new ChargedBunch(initial);
+		BunchPusher boris = new BunchPusher(simulation.createFields(), 4, 1);
+		boris.setGap(simulation.getGap());
+		BunchPusher drift = new BunchPusher(simulation.createFields(), 4, 1);
+		drift.setGap(simulation.getGap());
+		drift.setDrift(new PhysicsVector(0, 0, simulation.mag));
+		push(boris, integrated, 0.0, steps, deltaTime);
+		push(drift, drifted, 0.0, steps, deltaTime);
+		TestRunner.check("the bunch crossed the gap twice", boris.getCrossings() == 2 && drift.getCrossings() == 2);
+		return new double[]{distance(integrated, drifted)/simulation.getRadius(), Math.abs(integrated.getAvgKE() - drifted.getAvgKE())/drifted.getAvgKE()};
+	}
+
+	public static void testDriftMatchesBoris() throws Exception {
+		// the drift is exact, while the Boris positions lag by half a step of the rotation (its velocities are
+		// staggered half a step from its positions), so the two must differ by an error in proportion to the step
+		CyclotronSimulation simulation = simulation(20);
+		Bunch<ChargedParticle> initial = simulation.createBunch();
+		double[] coarse = driftError(simulation, initial, 1e-5), fine = driftError(simulation, initial, 5e-6);
+		double rotation = simulation.getFrequency()*1e-5; // angle turned in one coarse step
+		TestRunner.check("distance " + coarse[0] + " within a few steps' rotation", coarse[0] < 20.0*rotation);
+		TestRunner.checkClose("distance halves with the step", 2.0, coarse[0]/fine[0], 0.1);
+		TestRunner.checkClose("KE difference halves with the step", 2.0, coarse[1]/fine[1], 0.1);
+	}
+
+	public static void testThreadsMatchSerial() throws Exception {
+		CyclotronSimulation simulation = simulation(5000);
+		Bunch<ChargedParticle> initial = simulation.createBunch();
+		for (int method=1; method<=5; method++){
+			ChargedBunch serial = new ChargedBunch(initial), parallel = new ChargedBunch(initial);
+			BunchPusher one = new BunchPusher(simulation.createFields(), method, 1);
+			BunchPusher four = new BunchPusher(simulation.createFields(), method, 4);
+			one.setGap(simulation.getGap());
+			four.setGap(simulation.getGap());
+			try {
+				push(one, serial, 0.0, 100, simulation.timeStep);
+				push(four, parallel, 0.0, 100, simulation.timeStep);
+			} finally {
+				four.shutdown();
+			}
+			TestRunner.check("method " + method + " on 4 threads ends where it does on 1", distance(serial, parallel) == 0.0);
+			TestRunner.check("method " + method + " gap gain", one.getGapGain() == four.getGapGain());
+		}
+	}
+
+	public static void testCompactBunch() throws Exception {
+		CyclotronSimulation simulation = simulation(2000);
+		Bunch<ChargedParticle> initial = simulation.createBunch();
+		ChargedBunch doubles = new ChargedBunch(initial);
+		CompactBunch floats = new CompactBunch(initial);
+		BunchPusher pusher = new BunchPusher(simulation.createFields(), 4, 1);
+		pusher.setGap(simulation.getGap());
+		push(pusher, doubles, 0.0, 2000, simulation.timeStep);
+		pusher = new BunchPusher(simulation.createFields(), 4, 1);
+		pusher.setGap(simulation.getGap());
+		push(pusher, floats, 0.0, 2000, simulation.timeStep);
+		TestRunner.checkClose("distance from the doubles / radius", 0.0, distance(doubles, floats)/simulation.getRadius(), 1e-9);
+		for (int i=0; i<doubles.size(); i++){
+			TestRunner.check("passes of particle " + i, doubles.getPasses(i) == floats.getPasses(i));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+import java.io.*;
+import java.nio.file.*;
+/**
+* Checks of Checkpoint: a run continued from a checkpoint file ends exactly where the unbroken run does,
+* with the same passes through the gap and gains, for a bunch stored in doubles and one stored in floats.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class CheckpointTest {
+
+	/**
+	* Push a copy of the standard bunch for a number of steps, breaking off at a checkpoint half way and
+	* continuing from the file in a new bunch and pusher, and check it against the unbroken run
+	*/
+	static void resume(boolean compact) throws Exception {
+		CyclotronSimulation simulation = BunchPusherTest.simulation(200);
+		Bunch<ChargedParticle> initial = simulation.createBunch();
+		double deltaTime = simulation.timeStep;
+		int steps = 3000; // the bunch leaves the gap after about 520 steps
+
+		BunchArrays unbroken = compact ? new CompactBunch(initial) : new ChargedBunch(initial);
+		BunchPusher pusher = new BunchPusher(simulation.createFields(), 4, 1);
+		pusher.setGap(simulation.getGap());
+		BunchPusherTest.push(pusher, unbroken, 0.0, 2*steps, deltaTime);
+
+		BunchArrays first = compact ? new CompactBunch(initial) : new ChargedBunch(initial);
+		BunchPusher before = new BunchPusher(simulation.createFields(), 4, 1);
+		before.setGap(simulation.getGap());
+		Checkpoint saved = new Checkpoint();
+		saved.method = 4;
+		saved.time = BunchPusherTest.push(before, first, 0.0, steps, deltaTime);
+		saved.stepTime = deltaTime;
+		saved.capture(first, before, null);
+		Path file = Files.createTempFile("checkpoint", ".ckpt");
+		try {
+			saved.write(file.toString());
+			Checkpoint read = Checkpoint.read(file.toString());
+			TestRunner.check("the time is read back", read.getTime() == saved.time);
+
+			BunchArrays second = compact ? new CompactBunch(initial) : new ChargedBunch(initial);
+			BunchPusher after = new BunchPusher(simulation.createFields(), 4, 1);
+			after.setGap(simulation.getGap());
+			read.restore(second, after, null);
+			BunchPusherTest.push(after, second, read.getTime(), steps, deltaTime);
+
+			TestRunner.check("the continued run ends where the unbroken one does", BunchPusherTest.distance(unbroken, second) == 0.0);
+			TestRunner.check("gap passes", pusher.getGapPasses() == after.getGapPasses());
+			TestRunner.check("gap gain", pusher.getGapGain() == after.getGapGain());
+			TestRunner.check("crossings", pusher.getCrossings() == after.getCrossings() && after.getCrossings() > 0);
+			TestRunner.check("gain of the first crossing", pusher.getCrossingGain(1) == after.getCrossingGain(1));
+			for (int i=0; i<unbroken.size(); i++){
+				TestRunner.check("passes of particle " + i, unbroken.getPasses(i) == second.getPasses(i));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	public static void testResume() throws Exception {
+		resume(false);
+	}
+
+	public static void testResumeCompact() throws Exception {
+		resume(true);
+	}
+}
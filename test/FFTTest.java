@@ -0,0 +1,63 @@
+import java.util.*;
+/**
+* Checks of FFT: the inverse transform undoes the forward one, in one and three dimensions,
+* and a constant transforms to a single spike at zero frequency.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class FFTTest {
+
+	public static void testRoundTrip(){
+		Random random = new Random(1);
+		int n = 64;
+		double[] re = new double[n], im = new double[n];
+		for (int i=0; i<n; i++){
+			re[i] = random.nextGaussian();
+			im[i] = random.nextGaussian();
+		}
+		double[] re0 = re.clone(), im0 = im.clone();
+		FFT.transform(re, im, false);
+		FFT.transform(re, im, true);
+		for (int i=0; i<n; i++){
+			TestRunner.checkClose("real part " + i, re0[i], re[i]/n, 1e-12);
+			TestRunner.checkClose("imaginary part " + i, im0[i], im[i]/n, 1e-12);
+		}
+	}
+
+	public static void testRoundTrip3D(){
+		Random random = new Random(2);
+		int nx = 8, ny = 4, nz = 16, n = nx*ny*nz;
+		double[] re = new double[n], im = new double[n];
+		for (int i=0; i<n; i++){
+			re[i] = random.nextGaussian();
+		}
+		double[] re0 = re.clone();
+		FFT.transform(re, im, nx, ny, nz, false);
+		FFT.transform(re, im, nx, ny, nz, true);
+		for (int i=0; i<n; i++){
+			TestRunner.checkClose("real part " + i, re0[i], re[i]/n, 1e-12);
+			TestRunner.checkClose("imaginary part " + i, 0.0, im[i]/n, 1e-12);
+		}
+	}
+
+	public static void testConstant(){
+		int n = 32;
+		double[] re = new double[n], im = new double[n];
+		Arrays.fill(re, 1.0);
+		FFT.transform(re, im, false);
+		TestRunner.checkClose("zero frequency", n, re[0], 1e-12);
+		for (int i=1; i<n; i++){
+			TestRunner.checkClose("frequency " + i, 0.0, Math.hypot(re[i], im[i]), 1e-12);
+		}
+	}
+
+	public static void testRejectsLength(){
+		try {
+			FFT.transform(new double[12], new double[12], false);
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		throw new AssertionError("a length which is not a power of two was transformed");
+	}
+}
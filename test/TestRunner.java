@@ -0,0 +1,71 @@
+import java.lang.reflect.*;
+/**
+* A Class which runs the behaviour checks of the simulation without a test framework.
+* Every public static method whose name starts with test, in each of the check classes, is called in turn;
+* a check fails by throwing. gradle test runs them all.
+* <p>
+* Usage: java TestRunner [class ...] (default: every check class)
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class TestRunner {
+
+	public static final String[] CLASSES = {"FFTTest", "TreeSpaceChargeFieldTest", "BunchPusherTest", "CheckpointTest"}; // the check classes
+
+	/**
+	* Fail unless a condition holds
+	* @param what what is being checked
+	* @param condition the condition
+	*/
+	public static void check(String what, boolean condition){
+		if(!condition){
+			throw new AssertionError(what);
+		}
+	}
+
+	/**
+	* Fail unless a value is within a tolerance of the one expected
+	* @param what what is being checked
+	* @param expected the value expected
+	* @param actual the value found
+	* @param tolerance the largest difference allowed
+	*/
+	public static void checkClose(String what, double expected, double actual, double tolerance){
+		if(!(Math.abs(actual - expected) <= tolerance)){
+			throw new AssertionError(what + ": expected " + expected + " but was " + actual + " (tolerance " + tolerance + ")");
+		}
+	}
+
+	/**
+	* Run the checks from the command line, exiting with status 1 if any fails
+	* @param args the names of the check classes to run (none => all)
+	*/
+	public static void main(String[] args) throws ClassNotFoundException {
+		String[] classes = (args.length > 0) ? args : CLASSES;
+		int run = 0, failed = 0;
+		for (String name : classes){
+			for (Method method : Class.forName(name).getMethods()){
+				if(!method.getName().startsWith("test") || !Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0){
+					continue;
+				}
+				run++;
+				long start = System.nanoTime();
+				try {
+					method.invoke(null);
+					System.out.println("PASS " + name + "." + method.getName() + " (" + (System.nanoTime() - start)/1000000 + " ms)");
+				} catch (InvocationTargetException e) {
+					failed++;
+					System.out.println("FAIL " + name + "." + method.getName() + ": " + e.getCause());
+				} catch (IllegalAccessException e) {
+					failed++;
+					System.out.println("FAIL " + name + "." + method.getName() + ": " + e);
+				}
+			}
+		}
+		System.out.println(run + " checks, " + failed + " failed");
+		if(failed > 0){
+			System.exit(1);
+		}
+	}
+}
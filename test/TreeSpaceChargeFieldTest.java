@@ -0,0 +1,123 @@
+import java.util.*;
+/**
+* Checks of TreeSpaceChargeField: with an opening angle of 0 the tree gives the direct pairwise sum,
+* a bunch stored in floats gives the same field as one stored in doubles, and the protons of a bunch pushed
+* by any method push only each other apart, keeping their total energy and following the same orbits.
+*
+* @author Jake Murkin
+* @version 1.0
+*/
+public class TreeSpaceChargeFieldTest {
+
+	/**
+	* Return a bunch of protons at random positions in a cube, at rest
+	*/
+	static Bunch<ChargedParticle> cloud(int n, double side, long seed){
+		Random random = new Random(seed);
+		Bunch<ChargedParticle> bunch = new Bunch<ChargedParticle>();
+		for (int i=0; i<n; i++){
+			ChargedParticle proton = new ChargedParticle(CyclotronSimulation.P_MASS, CyclotronSimulation.P_CHARGE);
+			proton.setPosition(new PhysicsVector(side*random.nextDouble(), side*random.nextDouble(), side*random.nextDouble()));
+			bunch.addParticle(proton);
+		}
+		return bunch;
+	}
+
+	/**
+	* Return the field of the other particles at particle i, summed directly
+	*/
+	static double[] direct(ChargedBunch bunch, int i){
+		double[] e = new double[3];
+		for (int j=0; j<bunch.size(); j++){
+			if(j == i){
+				continue;
+			}
+			double dx = bunch.x[i] - bunch.x[j], dy = bunch.y[i] - bunch.y[j], dz = bunch.z[i] - bunch.z[j];
+			double r = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			double f = TreeSpaceChargeField.COULOMB*bunch.charge[j]/(r*r*r);
+			e[0] += f*dx;
+			e[1] += f*dy;
+			e[2] += f*dz;
+		}
+		return e;
+	}
+
+	public static void testExactAtZeroTheta(){
+		ChargedBunch bunch = new ChargedBunch(cloud(300, 1e-3, 3));
+		TreeSpaceChargeField tree = new TreeSpaceChargeField(0.0, 0.0);
+		tree.prepare(bunch, 0.0);
+		for (int i=0; i<bunch.size(); i++){
+			double[] expected = direct(bunch, i);
+			PhysicsVector field = tree.getElectric(new PhysicsVector(bunch.x[i], bunch.y[i], bunch.z[i]), 0.0);
+			double size = Math.sqrt(expected[0]*expected[0] + expected[1]*expected[1] + expected[2]*expected[2]);
+			TestRunner.checkClose("Ex at particle " + i, expected[0], field.getX(), 1e-10*size);
+			TestRunner.checkClose("Ey at particle " + i, expected[1], field.getY(), 1e-10*size);
+			TestRunner.checkClose("Ez at particle " + i, expected[2], field.getZ(), 1e-10*size);
+		}
+	}
+
+	public static void testCompactBunch(){
+		Bunch<ChargedParticle> cloud = cloud(200, 1e-3, 4);
+		TreeSpaceChargeField doubles = new TreeSpaceChargeField(0.0, 0.0);
+		TreeSpaceChargeField floats = new TreeSpaceChargeField(0.0, 0.0);
+		doubles.prepare(new ChargedBunch(cloud), 0.0);
+		floats.prepare(new CompactBunch(cloud), 0.0);
+		PhysicsVector point = new PhysicsVector(2e-3, -1e-3, 5e-4);
+		PhysicsVector expected = doubles.getElectric(point, 0.0);
+		PhysicsVector field = floats.getElectric(point, 0.0);
+		TestRunner.checkClose("|E - E float|", 0.0, PhysicsVector.subtract(expected, field).magnitude(), 1e-9*expected.magnitude());
+	}
+
+	/**
+	* Return the kinetic energy of a bunch plus the potential energy of its particles' repulsion, summed directly
+	*/
+	static double energy(ChargedBunch bunch){
+		double energy = 0.0;
+		for (int i=0; i<bunch.size(); i++){
+			energy += bunch.getKE(i);
+			for (int j=0; j<i; j++){
+				double dx = bunch.x[i] - bunch.x[j], dy = bunch.y[i] - bunch.y[j], dz = bunch.z[i] - bunch.z[j];
+				energy += TreeSpaceChargeField.COULOMB*bunch.charge[i]*bunch.charge[j]/Math.sqrt(dx*dx + dy*dy + dz*dz);
+			}
+		}
+		return energy;
+	}
+
+	public static void testEnergyConserved(){
+		// a cloud at rest flies apart, turning its potential energy into kinetic energy; a particle feeling its own
+		// charge as it moves within a step would instead be pushed away from itself without limit
+		Bunch<ChargedParticle> cloud = cloud(50, 1e-3, 5);
+		for (int method=1; method<=5; method++){
+			ArrayList<GeneralEMField> fields = new ArrayList<GeneralEMField>();
+			fields.add(new TreeSpaceChargeField(0.0, 0.0));
+			ChargedBunch bunch = new ChargedBunch(cloud);
+			double before = energy(bunch);
+			BunchPusher pusher = new BunchPusher(fields, method, 1);
+			BunchPusherTest.push(pusher, bunch, 0.0, 2000, 1e-7);
+			TestRunner.check("method " + method + ": the cloud has flown apart", bunch.getAvgKE()*bunch.size() > 0.5*before);
+			TestRunner.checkClose("method " + method + ": total energy", before, energy(bunch), 1e-4*before);
+		}
+	}
+
+	public static void testMethodsAgree() throws Exception {
+		// a bunch spread widely enough, and a step short enough, for its repulsion to be followed through the gap and round
+		CyclotronSimulation simulation = BunchPusherTest.simulation(15);
+		simulation.spaceCharge = "tree";
+		simulation.positionSpread = 10.0;
+		simulation.timeStep = 2.5e-6;
+		Bunch<ChargedParticle> initial = simulation.createBunch();
+		ChargedBunch start = new ChargedBunch(initial);
+		double repulsion = (energy(start) - start.getAvgKE()*start.size())/start.size(); // potential energy of the bunch per proton
+		double[] gain = new double[6];
+		for (int method=3; method<=4; method++){
+			ChargedBunch bunch = new ChargedBunch(initial);
+			BunchPusher pusher = new BunchPusher(simulation.createFields(), method, 1);
+			pusher.setGap(simulation.getGap());
+			BunchPusherTest.push(pusher, bunch, 0.0, 400000, simulation.timeStep);
+			TestRunner.check("method " + method + " crossed the gap", pusher.getCrossings() > 0);
+			gain[method] = bunch.getAvgKE() - start.getAvgKE();
+			TestRunner.check("method " + method + ": gain " + gain[method] + " J within the repulsion of the bunch", gain[method] > 0.0 && gain[method] < repulsion);
+		}
+		TestRunner.checkClose("Boris gain / Runge-Kutta 4 gain", 1.0, gain[4]/gain[3], 1e-2);
+	}
+}